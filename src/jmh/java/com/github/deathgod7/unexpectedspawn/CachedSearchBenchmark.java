@@ -0,0 +1,92 @@
+/*
+ * This file is part of UnexpectedSpawn
+ * (see https://github.com/DeathGOD7/unexpectedspawn-paper).
+ *
+ * Copyright (c) 2023 DeathGOD7, Shivelight
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.deathgod7.unexpectedspawn;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * The spawn search paths answered by the surface cache ({@link HeightmapCache}), against {@link SyntheticWorld}
+ * presets with every chunk cached. Runs the plugin code through {@link SyntheticPlugin}.
+ * <ul>
+ *     <li>verticalCached : {@link EventsHandler#findSafeVertical} of a spawn on the surface (misses walk the blocks)</li>
+ *     <li>nearbyCached : {@link NearbySearch} around the middle of the area, up to 32 blocks</li>
+ * </ul>
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CachedSearchBenchmark {
+
+    @Param({"OCEAN", "NETHER", "VOID", "LAVA"})
+    public SyntheticWorld.Preset preset;
+
+    private SyntheticWorld synthetic;
+    private World world;
+    private WorldSpawnProfile profile;
+    private UnexpectedSpawn plugin;
+    private Random random;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        synthetic = new SyntheticWorld(preset, 6, 42L);
+        world = synthetic.getWorld();
+        profile = synthetic.getProfile();
+        plugin = SyntheticPlugin.install(synthetic, true);
+        random = new Random(7L);
+    }
+
+    @Benchmark
+    public Location verticalCached() {
+        SyntheticChunk chunk = synthetic.getRandomChunk(random);
+        int localX = random.nextInt(16);
+        int localZ = random.nextInt(16);
+        Location spawn = new Location(world, (chunk.getX() << 4) + localX + 0.5d, chunk.getHighestBlockYAt(localX, localZ) + 1,
+                (chunk.getZ() << 4) + localZ + 0.5d);
+        return EventsHandler.findSafeVertical(spawn, profile, plugin.heightmaps.getOrLoad(world, chunk.getX(), chunk.getZ()));
+    }
+
+    @Benchmark
+    public Location nearbyCached() {
+        // the rejection cache is off, so every run walks the same chunks
+        return new NearbySearch(new Location(world, 0.5d, 64d, 0.5d), false).find(32);
+    }
+
+}
@@ -0,0 +1,130 @@
+/*
+ * This file is part of UnexpectedSpawn
+ * (see https://github.com/DeathGOD7/unexpectedspawn-paper).
+ *
+ * Copyright (c) 2023 DeathGOD7, Shivelight
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.deathgod7.unexpectedspawn;
+
+import org.bukkit.Material;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Block classification : {@link MaterialTable} lookups against the set and {@link Material} calls it replaced.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MaterialTableBenchmark {
+
+    private static final int SAMPLES = 1024;
+
+    private Set<Material> blacklist;
+    private MaterialTable table;
+    private Material[] samples;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        blacklist = EnumSet.of(Material.LAVA, Material.WATER, Material.CACTUS, Material.FIRE, Material.MAGMA_BLOCK,
+                Material.SWEET_BERRY_BUSH, Material.CAMPFIRE);
+        table = new MaterialTable(blacklist, false, blacklist);
+
+        // blocks a search mostly sees
+        Material[] common = {Material.AIR, Material.STONE, Material.DIRT, Material.GRASS_BLOCK, Material.WATER,
+                Material.LAVA, Material.SAND, Material.NETHERRACK, Material.END_STONE, Material.CACTUS};
+        Random random = new Random(3L);
+        samples = new Material[SAMPLES];
+        for (int i = 0; i < SAMPLES; i++) {
+            samples[i] = common[random.nextInt(common.length)];
+        }
+    }
+
+    @Benchmark
+    public void tableSafeFloor(Blackhole blackhole) {
+        for (Material material : samples) {
+            blackhole.consume(table.isSafeFloor(material));
+        }
+    }
+
+    @Benchmark
+    public void setSafeFloor(Blackhole blackhole) {
+        for (Material material : samples) {
+            blackhole.consume(!material.isAir() && !blacklist.contains(material));
+        }
+    }
+
+    @Benchmark
+    public void hashSetSafeFloor(Blackhole blackhole, HashSetState state) {
+        for (Material material : samples) {
+            blackhole.consume(!material.isAir() && !state.blacklist.contains(material));
+        }
+    }
+
+    @Benchmark
+    public void tableSafeBody(Blackhole blackhole) {
+        for (Material material : samples) {
+            blackhole.consume(table.isSafeBody(material));
+        }
+    }
+
+    @Benchmark
+    public void setSafeBody(Blackhole blackhole) {
+        for (Material material : samples) {
+            blackhole.consume(!material.isSolid() && !blacklist.contains(material));
+        }
+    }
+
+    @Benchmark
+    public MaterialTable buildTable() {
+        return new MaterialTable(blacklist, false, blacklist);
+    }
+
+    /**
+     * Blacklist as it was stored before the profiles (a plain {@link HashSet})
+     */
+    @State(Scope.Thread)
+    public static class HashSetState {
+        Set<Material> blacklist;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            blacklist = new HashSet<>(EnumSet.of(Material.LAVA, Material.WATER, Material.CACTUS, Material.FIRE,
+                    Material.MAGMA_BLOCK, Material.SWEET_BERRY_BUSH, Material.CAMPFIRE));
+        }
+    }
+
+}
@@ -0,0 +1,107 @@
+/*
+ * This file is part of UnexpectedSpawn
+ * (see https://github.com/DeathGOD7/unexpectedspawn-paper).
+ *
+ * Copyright (c) 2023 DeathGOD7, Shivelight
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.deathgod7.unexpectedspawn;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Spawn search hot paths against {@link SyntheticWorld} presets. The searches run through {@link SyntheticPlugin}, so
+ * only the world access (chunk loads, snapshots) is replaced by the in-memory chunks, everything else is the plugin
+ * code. The surface cache is off, see {@link CachedSearchBenchmark} for the paths it answers.
+ * <ul>
+ *     <li>randomSearch : {@link AsyncSpawnSearch} run step by step over the whole generated area</li>
+ *     <li>scanChunk : all columns of one chunk (one try of the random search)</li>
+ *     <li>caveFloor : nether column check (the old getLocAtNether)</li>
+ *     <li>buildHeights : filling the surface cache of one chunk</li>
+ * </ul>
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SpawnSearchBenchmark {
+
+    @Param({"OCEAN", "NETHER", "VOID", "LAVA"})
+    public SyntheticWorld.Preset preset;
+
+    private SyntheticWorld synthetic;
+    private World world;
+    private WorldSpawnProfile profile;
+    private MaterialTable table;
+    private Random random;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        synthetic = new SyntheticWorld(preset, 6, 42L);
+        world = synthetic.getWorld();
+        profile = synthetic.getProfile();
+        table = profile.getMaterialTable();
+        SyntheticPlugin.install(synthetic, false);
+        random = new Random(7L);
+    }
+
+    @Benchmark
+    public Location randomSearch() {
+        AsyncSpawnSearch search = new AsyncSpawnSearch(synthetic.getXMin(), synthetic.getXMax(), synthetic.getZMin(), synthetic.getZMax(), world);
+        // every task runs inline, so each step has checked its whole batch when it returns
+        while (!search.getResult().isDone()) {
+            search.step();
+        }
+        return search.getResult().join();
+    }
+
+    @Benchmark
+    public Location scanChunk() {
+        ChunkColumns columns = ChunkColumns.of(synthetic.getRandomChunk(random), world);
+        return ColumnScanner.scanChunk(columns, synthetic.getXMin(), synthetic.getXMax(), synthetic.getZMin(), synthetic.getZMax(), world, profile);
+    }
+
+    @Benchmark
+    public int caveFloor() {
+        ChunkColumns columns = ChunkColumns.of(synthetic.getRandomChunk(random), world);
+        int maxY = Math.min(world.getMaxHeight(), world.getMinHeight() + world.getLogicalHeight());
+        return ColumnScanner.findCaveFloor(columns, random.nextInt(16), random.nextInt(16), world.getMinHeight(), maxY, table);
+    }
+
+    @Benchmark
+    public HeightmapCache.ChunkHeights buildHeights() {
+        return new HeightmapCache.ChunkHeights(ChunkColumns.of(synthetic.getRandomChunk(random), world));
+    }
+
+}
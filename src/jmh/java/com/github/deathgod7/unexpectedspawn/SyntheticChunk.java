@@ -0,0 +1,184 @@
+/*
+ * This file is part of UnexpectedSpawn
+ * (see https://github.com/DeathGOD7/unexpectedspawn-paper).
+ *
+ * Copyright (c) 2023 DeathGOD7, Shivelight
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.deathgod7.unexpectedspawn;
+
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.Material;
+import org.bukkit.block.Biome;
+import org.bukkit.block.data.BlockData;
+
+import java.util.Arrays;
+
+/**
+ * In-memory {@link ChunkSnapshot} filled by {@link SyntheticWorld}. Only the block type / height / section reads
+ * used by the searches are supported.
+ */
+final class SyntheticChunk implements ChunkSnapshot {
+
+    private static final Material[] MATERIALS = Material.values();
+
+    private final String worldName;
+    private final int chunkX;
+    private final int chunkZ;
+    private final int minHeight;
+    private final int height;
+    private final short[] blocks;
+    private final int[] highest = new int[256];
+    private final boolean[] emptySections;
+
+    SyntheticChunk(String worldName, int chunkX, int chunkZ, int minHeight, int maxHeight) {
+        this.worldName = worldName;
+        this.chunkX = chunkX;
+        this.chunkZ = chunkZ;
+        this.minHeight = minHeight;
+        this.height = maxHeight - minHeight;
+        this.blocks = new short[height * 256];
+        this.emptySections = new boolean[height >> 4];
+        Arrays.fill(blocks, (short) Material.AIR.ordinal());
+    }
+
+    private int index(int x, int y, int z) {
+        return ((y - minHeight) << 8) | (z << 4) | x;
+    }
+
+    void set(int x, int y, int z, Material material) {
+        blocks[index(x, y, z)] = (short) material.ordinal();
+    }
+
+    void fill(int x, int z, int fromY, int toY, Material material) {
+        for (int y = fromY; y <= toY; y++) {
+            set(x, y, z, material);
+        }
+    }
+
+    /**
+     * Computes the heights and empty sections, once every block is set
+     */
+    void finish() {
+        short air = (short) Material.AIR.ordinal();
+        for (int column = 0; column < 256; column++) {
+            int y = minHeight + height - 1;
+            while (y > minHeight && blocks[((y - minHeight) << 8) | column] == air) {
+                y--;
+            }
+            highest[column] = y;
+        }
+        for (int section = 0; section < emptySections.length; section++) {
+            boolean empty = true;
+            for (int i = section << 12, end = (section + 1) << 12; i < end && empty; i++) {
+                empty = blocks[i] == air;
+            }
+            emptySections[section] = empty;
+        }
+    }
+
+    @Override
+    public int getX() {
+        return chunkX;
+    }
+
+    @Override
+    public int getZ() {
+        return chunkZ;
+    }
+
+    @Override
+    public String getWorldName() {
+        return worldName;
+    }
+
+    @Override
+    public Material getBlockType(int x, int y, int z) {
+        if (y < minHeight || y >= minHeight + height) {
+            return Material.AIR;
+        }
+        return MATERIALS[blocks[index(x, y, z)]];
+    }
+
+    @Override
+    public int getHighestBlockYAt(int x, int z) {
+        return highest[(z << 4) | x];
+    }
+
+    @Override
+    public boolean isSectionEmpty(int sy) {
+        return sy < 0 || sy >= emptySections.length || emptySections[sy];
+    }
+
+    @Override
+    public long getCaptureFullTime() {
+        return 0;
+    }
+
+    @Override
+    public BlockData getBlockData(int x, int y, int z) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    @Deprecated
+    public int getData(int x, int y, int z) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int getBlockSkyLight(int x, int y, int z) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int getBlockEmittedLight(int x, int y, int z) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    @Deprecated
+    public Biome getBiome(int x, int z) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Biome getBiome(int x, int y, int z) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    @Deprecated
+    public double getRawBiomeTemperature(int x, int z) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public double getRawBiomeTemperature(int x, int y, int z) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean contains(BlockData block) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean contains(Biome biome) {
+        throw new UnsupportedOperationException();
+    }
+
+}
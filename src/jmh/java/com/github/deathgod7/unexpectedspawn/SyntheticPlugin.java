@@ -0,0 +1,160 @@
+/*
+ * This file is part of UnexpectedSpawn
+ * (see https://github.com/DeathGOD7/unexpectedspawn-paper).
+ *
+ * Copyright (c) 2023 DeathGOD7, Shivelight
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.deathgod7.unexpectedspawn;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.Server;
+import org.bukkit.World;
+import org.bukkit.entity.Entity;
+import sun.misc.Unsafe;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Proxy;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Plugin instance for the benchmarks, so they run the real searches against a {@link SyntheticWorld}. Every task runs
+ * inline on the calling thread, the spawn index is disabled and the rejection cache is off (every run sees the same
+ * world). The surface cache is off too, unless asked for.
+ */
+final class SyntheticPlugin {
+
+    private SyntheticPlugin() {
+    }
+
+    /**
+     * Creates the plugin and makes it the one {@link Utils} hands out
+     * @param synthetic The world the searches run in
+     * @param surfaceCache Fills the surface cache with every chunk of world
+     * @return {@link UnexpectedSpawn}
+     */
+    static UnexpectedSpawn install(SyntheticWorld synthetic, boolean surfaceCache) {
+        installServer();
+        UnexpectedSpawn plugin;
+        try {
+            // JavaPlugin refuses to be created outside of a plugin class loader
+            Field field = Unsafe.class.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            plugin = (UnexpectedSpawn) ((Unsafe) field.get(null)).allocateInstance(UnexpectedSpawn.class);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Couldn't create the plugin", e);
+        }
+
+        WorldSpawnProfile profile = synthetic.getProfile();
+        plugin.scheduler = new InlineScheduler();
+        plugin.profiles = new SpawnProfiles(plugin) {
+            @Override
+            public WorldSpawnProfile get(World world) {
+                return profile;
+            }
+        };
+        plugin.searchScheduler = new SearchScheduler(plugin) {
+            @Override
+            synchronized void resume(Search search) {
+                // the benchmark runs the steps itself
+            }
+        };
+        plugin.metrics = new SpawnMetrics(plugin);
+        plugin.generations = new ChunkGenerationBudget();
+        plugin.spawnIndex = new SpawnIndex(plugin);
+        plugin.rejections = new RejectionCache();
+        plugin.rejections.reload(0, 1);
+        plugin.heightmaps = new HeightmapCache();
+        plugin.heightmaps.reload(surfaceCache ? synthetic.getChunks().length : 0, Integer.MAX_VALUE / 1000);
+        if (surfaceCache) {
+            for (SyntheticChunk chunk : synthetic.getChunks()) {
+                plugin.heightmaps.put(synthetic.getWorld(), ChunkColumns.of(chunk, synthetic.getWorld()));
+            }
+        }
+        Utils.plugin = plugin;
+        return plugin;
+    }
+
+    // the searches log through Bukkit.getLogger(), muted
+    private static void installServer() {
+        if (Bukkit.getServer() != null) {
+            return;
+        }
+        Logger logger = Logger.getLogger("UnexpectedSpawn-benchmark");
+        logger.setLevel(Level.OFF);
+        logger.setUseParentHandlers(false);
+        Server server = (Server) Proxy.newProxyInstance(SyntheticPlugin.class.getClassLoader(), new Class<?>[]{Server.class},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "getLogger" -> logger;
+                    case "hashCode" -> System.identityHashCode(proxy);
+                    case "equals" -> proxy == args[0];
+                    case "toString" -> "SyntheticServer";
+                    default -> throw new UnsupportedOperationException(method.getName());
+                });
+        try {
+            // Bukkit.setServer also prints the build info, which needs a real server
+            Field field = Bukkit.class.getDeclaredField("server");
+            field.setAccessible(true);
+            field.set(null, server);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Couldn't set the server", e);
+        }
+    }
+
+    private static final class InlineScheduler implements TaskScheduler {
+
+        private static final Task NONE = () -> {
+        };
+
+        @Override
+        public void runGlobal(Runnable task) {
+            task.run();
+        }
+
+        @Override
+        public Task runGlobalTimer(Runnable task, long delayTicks, long periodTicks) {
+            return NONE;
+        }
+
+        @Override
+        public void runAsync(Runnable task) {
+            task.run();
+        }
+
+        @Override
+        public Task runAsyncTimer(Runnable task, long delayTicks, long periodTicks) {
+            return NONE;
+        }
+
+        @Override
+        public void runAt(Location location, Runnable task) {
+            task.run();
+        }
+
+        @Override
+        public void runFor(Entity entity, Runnable task) {
+            task.run();
+        }
+
+        @Override
+        public boolean isOwnedByCurrentThread(World world, int chunkX, int chunkZ) {
+            return true;
+        }
+    }
+
+}
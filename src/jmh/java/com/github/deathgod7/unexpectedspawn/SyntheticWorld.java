@@ -0,0 +1,283 @@
+/*
+ * This file is part of UnexpectedSpawn
+ * (see https://github.com/DeathGOD7/unexpectedspawn-paper).
+ *
+ * Copyright (c) 2023 DeathGOD7, Shivelight
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.deathgod7.unexpectedspawn;
+
+import org.bukkit.Chunk;
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.WorldBorder;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockFace;
+import org.bukkit.configuration.file.YamlConfiguration;
+
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Square of generated in-memory chunks around 0,0 with a {@link World} stand-in, for the benchmarks. The world only
+ * answers what the searches ask (name, heights, environment, border, chunks and blocks), anything else throws. Every
+ * generated chunk counts as loaded.
+ */
+final class SyntheticWorld {
+
+    enum Preset {
+        /** 90% of the columns are water, the rest small grass islands */
+        OCEAN(World.Environment.NORMAL, -64, 320, 384),
+        /** Netherrack with a lava sea and a few air pockets, ceiling at 127 */
+        NETHER(World.Environment.NETHER, 0, 256, 128),
+        /** Mostly void with a few end stone islands */
+        VOID(World.Environment.THE_END, 0, 256, 256),
+        /** Flat stone covered with lava pools (85% of the columns) */
+        LAVA(World.Environment.NORMAL, -64, 320, 384);
+
+        final World.Environment environment;
+        final int minHeight;
+        final int maxHeight;
+        final int logicalHeight;
+
+        Preset(World.Environment environment, int minHeight, int maxHeight, int logicalHeight) {
+            this.environment = environment;
+            this.minHeight = minHeight;
+            this.maxHeight = maxHeight;
+            this.logicalHeight = logicalHeight;
+        }
+    }
+
+    private final Preset preset;
+    private final int radius;
+    private final SyntheticChunk[] chunks;
+    private final Chunk[] loaded;
+    private final World world;
+    private final WorldSpawnProfile profile;
+
+    /**
+     * @param preset The terrain to generate
+     * @param radius The chunks from -radius to radius - 1 on both axes are generated
+     * @param seed Seed of the terrain
+     */
+    SyntheticWorld(Preset preset, int radius, long seed) {
+        this.preset = preset;
+        this.radius = radius;
+        this.world = createWorld(this, preset, radius);
+
+        int size = radius * 2;
+        this.chunks = new SyntheticChunk[size * size];
+        this.loaded = new Chunk[size * size];
+        Random random = new Random(seed);
+        for (int cz = -radius; cz < radius; cz++) {
+            for (int cx = -radius; cx < radius; cx++) {
+                SyntheticChunk chunk = new SyntheticChunk(world.getName(), cx, cz, preset.minHeight, preset.maxHeight);
+                for (int z = 0; z < 16; z++) {
+                    for (int x = 0; x < 16; x++) {
+                        generate(chunk, x, z, random);
+                    }
+                }
+                chunk.finish();
+                chunks[(cz + radius) * size + (cx + radius)] = chunk;
+                loaded[(cz + radius) * size + (cx + radius)] = createChunk(world, chunk);
+            }
+        }
+
+        this.profile = WorldSpawnProfile.compile(createConfig(getXMin(), getXMax(), getZMin(), getZMax()), world);
+    }
+
+    private void generate(SyntheticChunk chunk, int x, int z, Random random) {
+        int bottom = preset.minHeight;
+        switch (preset) {
+            case OCEAN:
+                chunk.set(x, bottom, z, Material.BEDROCK);
+                chunk.fill(x, z, bottom + 1, 40, Material.STONE);
+                if (random.nextInt(10) == 0) {
+                    chunk.fill(x, z, 41, 63, Material.DIRT);
+                    chunk.set(x, 64, z, Material.GRASS_BLOCK);
+                }
+                else {
+                    chunk.fill(x, z, 41, 45, Material.SAND);
+                    chunk.fill(x, z, 46, 62, Material.WATER);
+                }
+                break;
+            case NETHER:
+                chunk.set(x, 0, z, Material.BEDROCK);
+                chunk.fill(x, z, 1, 126, Material.NETHERRACK);
+                chunk.set(x, 127, z, Material.BEDROCK);
+                if (random.nextInt(100) < 40) {
+                    chunk.fill(x, z, 1, 31, Material.LAVA);
+                    chunk.fill(x, z, 32, 50, Material.AIR);
+                }
+                if (random.nextInt(100) < 15) {
+                    chunk.fill(x, z, 80, 83, Material.AIR);
+                }
+                break;
+            case VOID:
+                if (random.nextInt(20) == 0) {
+                    chunk.fill(x, z, 50, 50 + random.nextInt(10), Material.END_STONE);
+                }
+                break;
+            case LAVA:
+                chunk.set(x, bottom, z, Material.BEDROCK);
+                chunk.fill(x, z, bottom + 1, 63, Material.STONE);
+                chunk.set(x, 64, z, random.nextInt(100) < 85 ? Material.LAVA : Material.GRASS_BLOCK);
+                break;
+        }
+    }
+
+    private static YamlConfiguration createConfig(int xmin, int xmax, int zmin, int zmax) {
+        YamlConfiguration config = new YamlConfiguration();
+        config.set("global.x-min", xmin);
+        config.set("global.x-max", xmax);
+        config.set("global.z-min", zmin);
+        config.set("global.z-max", zmax);
+        config.set("global.fail-radius", 0);
+        config.set("global.invulnerable-duration", 3);
+        config.set("global.spawn-pool.size", 0);
+        // the benchmarks stop on the area, not on the budget
+        config.set("global.search-budget.attempts", Integer.MAX_VALUE);
+        config.set("global.search-budget.max-millis", 60_000);
+        config.set("global.search-budget.chunk-loads", Integer.MAX_VALUE);
+        config.set("global.spawn-block-blacklist", List.of("LAVA", "WATER", "CACTUS", "FIRE", "MAGMA_BLOCK", "SWEET_BERRY_BUSH", "CAMPFIRE"));
+        config.set("global.invert-block-blacklist", false);
+        config.set("global.search-radii", Arrays.asList(2, 4, 8, 16, 32, 64));
+        return config;
+    }
+
+    private static World createWorld(SyntheticWorld synthetic, Preset preset, int radius) {
+        String name = "synthetic_" + preset.name().toLowerCase();
+        UUID uuid = UUID.nameUUIDFromBytes(name.getBytes());
+        World[] self = new World[1];
+        WorldBorder border = (WorldBorder) Proxy.newProxyInstance(SyntheticWorld.class.getClassLoader(), new Class<?>[]{WorldBorder.class},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "getSize" -> radius * 32d;
+                    case "getCenter" -> new Location(self[0], 0, 0, 0);
+                    case "hashCode" -> System.identityHashCode(proxy);
+                    case "equals" -> proxy == args[0];
+                    case "toString" -> "SyntheticBorder";
+                    default -> throw new UnsupportedOperationException(method.getName());
+                });
+        self[0] = (World) Proxy.newProxyInstance(SyntheticWorld.class.getClassLoader(), new Class<?>[]{World.class},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "getName" -> name;
+                    case "getUID" -> uuid;
+                    case "getMinHeight" -> preset.minHeight;
+                    case "getMaxHeight" -> preset.maxHeight;
+                    case "getLogicalHeight" -> preset.logicalHeight;
+                    case "getEnvironment" -> preset.environment;
+                    case "getWorldBorder" -> border;
+                    case "isChunkLoaded", "isChunkGenerated" -> synthetic.getIndex((Integer) args[0], (Integer) args[1]) >= 0;
+                    case "getChunkAt" -> synthetic.getLoaded((Integer) args[0], (Integer) args[1]);
+                    case "getChunkAtAsync" -> CompletableFuture.completedFuture(synthetic.getLoaded((Integer) args[0], (Integer) args[1]));
+                    case "getBlockAt" -> args.length == 1
+                            ? synthetic.getBlock(((Location) args[0]).getBlockX(), ((Location) args[0]).getBlockY(), ((Location) args[0]).getBlockZ())
+                            : synthetic.getBlock((Integer) args[0], (Integer) args[1], (Integer) args[2]);
+                    case "hashCode" -> uuid.hashCode();
+                    case "equals" -> proxy == args[0];
+                    case "toString" -> name;
+                    default -> throw new UnsupportedOperationException(method.getName());
+                });
+        return self[0];
+    }
+
+    private static Chunk createChunk(World world, SyntheticChunk snapshot) {
+        return (Chunk) Proxy.newProxyInstance(SyntheticWorld.class.getClassLoader(), new Class<?>[]{Chunk.class},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "getX" -> snapshot.getX();
+                    case "getZ" -> snapshot.getZ();
+                    case "getWorld" -> world;
+                    case "isLoaded" -> true;
+                    case "getChunkSnapshot" -> snapshot;
+                    case "hashCode" -> System.identityHashCode(proxy);
+                    case "equals" -> proxy == args[0];
+                    case "toString" -> "SyntheticChunk[" + snapshot.getX() + ", " + snapshot.getZ() + "]";
+                    default -> throw new UnsupportedOperationException(method.getName());
+                });
+    }
+
+    // slow (reflective), only the live block walks of findSafeVertical read blocks
+    private Block getBlock(int x, int y, int z) {
+        SyntheticChunk chunk = getChunk(x >> 4, z >> 4);
+        return (Block) Proxy.newProxyInstance(SyntheticWorld.class.getClassLoader(), new Class<?>[]{Block.class},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "getX" -> x;
+                    case "getY" -> y;
+                    case "getZ" -> z;
+                    case "getWorld" -> world;
+                    case "getLocation" -> new Location(world, x, y, z);
+                    case "getType" -> chunk == null ? Material.VOID_AIR : chunk.getBlockType(x & 15, y, z & 15);
+                    case "getRelative" -> {
+                        BlockFace face = (BlockFace) args[0];
+                        yield getBlock(x + face.getModX(), y + face.getModY(), z + face.getModZ());
+                    }
+                    case "hashCode" -> System.identityHashCode(proxy);
+                    case "equals" -> proxy == args[0];
+                    case "toString" -> "SyntheticBlock[" + x + ", " + y + ", " + z + "]";
+                    default -> throw new UnsupportedOperationException(method.getName());
+                });
+    }
+
+    /**
+     * Gets the generated chunk
+     * @return {@link SyntheticChunk} or null outside of the generated square
+     */
+    SyntheticChunk getChunk(int chunkX, int chunkZ) {
+        int index = getIndex(chunkX, chunkZ);
+        return index < 0 ? null : chunks[index];
+    }
+
+    /**
+     * Gets the index of chunk in {@link #getChunks()}
+     * @return {@link int} index or -1 outside of the generated square
+     */
+    int getIndex(int chunkX, int chunkZ) {
+        int size = radius * 2;
+        int x = chunkX + radius;
+        int z = chunkZ + radius;
+        if (x < 0 || z < 0 || x >= size || z >= size) {
+            return -1;
+        }
+        return z * size + x;
+    }
+
+    private Chunk getLoaded(int chunkX, int chunkZ) {
+        int index = getIndex(chunkX, chunkZ);
+        if (index < 0) {
+            throw new IllegalArgumentException("Chunk " + chunkX + ", " + chunkZ + " is not generated");
+        }
+        return loaded[index];
+    }
+
+    SyntheticChunk getRandomChunk(Random random) {
+        return chunks[random.nextInt(chunks.length)];
+    }
+
+    SyntheticChunk[] getChunks() { return chunks; }
+    Preset getPreset() { return preset; }
+    World getWorld() { return world; }
+    WorldSpawnProfile getProfile() { return profile; }
+    int getXMin() { return -radius * 16; }
+    int getXMax() { return radius * 16 - 1; }
+    int getZMin() { return -radius * 16; }
+    int getZMax() { return radius * 16 - 1; }
+
+}
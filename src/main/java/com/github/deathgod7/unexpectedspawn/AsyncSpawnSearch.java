@@ -0,0 +1,210 @@
+/*
+ * This file is part of UnexpectedSpawn
+ * (see https://github.com/DeathGOD7/unexpectedspawn-paper).
+ *
+ * Copyright (c) 2023 DeathGOD7, Shivelight
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.deathgod7.unexpectedspawn;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static com.github.deathgod7.unexpectedspawn.Utils.*;
+
+/**
+ * Random spawn search that never loads a chunk on the main thread. Candidate chunks come from a
+ * {@link StratifiedSampler} and are requested in small batches through {@link World#getChunkAtAsync(int, int)}, a
+ * snapshot is taken once the chunk is available and every column of the snapshot is checked on the async pool. Every
+ * batch is one step run by the {@link SearchScheduler}, and the search stops once its {@link SearchBudget} is spent.
+ * The fields of the search (sampler, budget, result) are only touched on the main thread. The column checks on
+ * {@link Utils#asyncExecutor} read the immutable profile and a copy of the area bounds, and write to shared state:
+ * rejectIfEmpty marks the chunk in the {@link RejectionCache} and the {@link SpawnIndex}, and the snapshot goes to the
+ * {@link HeightmapCache}. Both caches are synchronized and the spawn index is thread-safe.
+ */
+final class AsyncSpawnSearch implements SearchScheduler.Search {
+
+    private static final int BATCH_SIZE = 8;
+    // rejected chunks cost nothing, but a step must stay short
+    private static final int MAX_SAMPLES_PER_STEP = BATCH_SIZE * 4;
+
+    private final World world;
+    private final WorldSpawnProfile profile;
+    private final StratifiedSampler sampler;
+    // created on the first step, time spent in the queue doesn't count
+    private SearchBudget budget;
+    private final CompletableFuture<Location> result = new CompletableFuture<>();
+    private boolean areaExhausted = false;
+    private final long createdAt = System.nanoTime();
+
+    AsyncSpawnSearch(int xmin, int xmax, int zmin, int zmax, World world) {
+        this.world = world;
+        // immutable, so the async checks can read it as well
+        this.profile = getProfile(world);
+        this.sampler = new StratifiedSampler(xmin, xmax, zmin, zmax, profile.getFailRadius(), world);
+    }
+
+    /**
+     * Queues the search on the scheduler
+     * @return {@link CompletableFuture} completed on the main thread with the location, or null if the budget was spent,
+     * cancelled if the scheduler stopped first
+     */
+    CompletableFuture<Location> start() {
+        plugin.searchScheduler.submit(this);
+        return result;
+    }
+
+    @Override
+    public CompletableFuture<Location> getResult() {
+        return result;
+    }
+
+    /**
+     * Stops the search, the result is cancelled
+     */
+    @Override
+    public void cancel() {
+        result.cancel(false);
+    }
+
+    /**
+     * Runs one step : checks cached chunks and requests the next batch of chunks. Called by the scheduler.
+     * @return {@link int} amount of chunks sampled
+     */
+    @Override
+    public int step() {
+        if (budget == null) {
+            budget = new SearchBudget(profile);
+        }
+        List<CompletableFuture<Location>> attempts = new ArrayList<>(BATCH_SIZE);
+        int samples = 0;
+        while (attempts.size() < BATCH_SIZE && samples < MAX_SAMPLES_PER_STEP && !budget.isExhausted()) {
+            if (!sampler.next()) {
+                areaExhausted = true;
+                break;
+            }
+            samples++;
+            int chunkX = sampler.getChunkX();
+            int chunkZ = sampler.getChunkZ();
+
+            // already known to have no safe column
+            if (plugin.rejections.isChunkRejected(world, chunkX, chunkZ)) {
+                continue;
+            }
+            // the region file scan found no safe column
+            if (plugin.spawnIndex.isBad(world, chunkX, chunkZ)) {
+                continue;
+            }
+            budget.attempt();
+
+            // the async checks must not see the area grow
+            int areaXMin = sampler.getXMin();
+            int areaXMax = sampler.getXMax();
+            int areaZMin = sampler.getZMin();
+            int areaZMax = sampler.getZMax();
+
+            // known surface, no chunk needed
+            HeightmapCache.ChunkHeights cached = plugin.heightmaps.get(world, chunkX, chunkZ);
+            if (cached != null) {
+                Location location = ColumnScanner.scanHeights(cached, chunkX, chunkZ, areaXMin, areaXMax, areaZMin, areaZMax, world, profile);
+                rejectIfEmpty(location, chunkX, chunkZ, areaXMin, areaXMax, areaZMin, areaZMax);
+                attempts.add(CompletableFuture.completedFuture(location));
+                continue;
+            }
+
+            // a column known to be safe is checked first, the whole chunk only if it changed since
+            int indexed = plugin.spawnIndex.getSafeColumn(world, chunkX, chunkZ);
+            boolean generate = false;
+            if (!world.isChunkLoaded(chunkX, chunkZ)) {
+                // new chunks are the most expensive, only generated while the budgets last
+                if (!world.isChunkGenerated(chunkX, chunkZ)) {
+                    if (!plugin.generations.tryGenerate(world, budget)) {
+                        continue;
+                    }
+                    generate = true;
+                }
+                budget.chunkLoad();
+            }
+            attempts.add(world.getChunkAtAsync(chunkX, chunkZ, generate)
+                    .thenApply(chunk -> ChunkColumns.of(chunk.getChunkSnapshot(true, false, false), world))
+                    .thenApplyAsync(columns -> {
+                        Location location = indexed == ColumnScanner.NONE ? null
+                                : ColumnScanner.scanColumn(columns, indexed, areaXMin, areaXMax, areaZMin, areaZMax, world, profile);
+                        if (location == null) {
+                            location = ColumnScanner.scanChunk(columns, areaXMin, areaXMax, areaZMin, areaZMax, world, profile);
+                            rejectIfEmpty(location, chunkX, chunkZ, areaXMin, areaXMax, areaZMin, areaZMax);
+                        }
+                        plugin.heightmaps.put(world, columns);
+                        return location;
+                    }, asyncExecutor)
+                    .exceptionally(ex -> null));
+        }
+
+        if (attempts.isEmpty()) {
+            if (areaExhausted || budget.isExhausted()) {
+                LogConsole.warn("Couldn't find suitable location for random respawn after " + budget + " (" + sampler.getRings() + " area expansions).", LogConsole.logTypes.log);
+                finish(null);
+            }
+            else {
+                // only skipped chunks this time
+                plugin.searchScheduler.resume(this);
+            }
+            return samples;
+        }
+
+        CompletableFuture.allOf(attempts.toArray(new CompletableFuture[0])).whenComplete((ignored, ex) -> {
+            Location found = null;
+            for (CompletableFuture<Location> attempt : attempts) {
+                found = attempt.getNow(null);
+                if (found != null) {
+                    break;
+                }
+            }
+
+            Location location = found;
+            mainThreadExecutor.execute(() -> {
+                if (result.isDone()) {
+                    return;
+                }
+                if (location == null) {
+                    plugin.searchScheduler.resume(this);
+                    return;
+                }
+                plugin.spawnIndex.markSafe(location);
+                LogConsole.warn("Found location for random respawn after " + budget + " (X " + location.getBlockX() + ", Y " + location.getBlockY() + ", Z " + location.getBlockZ() + ")", LogConsole.logTypes.log);
+                finish(location.add(0.5d, 1d, 0.5d));
+            });
+        });
+        return samples;
+    }
+
+    private void finish(Location location) {
+        plugin.metrics.recordSearch(world, budget.getAttempts(), budget.getChunkLoads(), System.nanoTime() - createdAt, location != null);
+        result.complete(location);
+    }
+
+    private void rejectIfEmpty(Location location, int chunkX, int chunkZ, int areaXMin, int areaXMax, int areaZMin, int areaZMax) {
+        if (location == null && ColumnScanner.isChunkInside(chunkX, chunkZ, areaXMin, areaXMax, areaZMin, areaZMax)) {
+            plugin.rejections.rejectChunk(world, chunkX, chunkZ);
+            plugin.spawnIndex.markBad(world, chunkX, chunkZ);
+        }
+    }
+
+}
@@ -0,0 +1,288 @@
+/*
+ * This file is part of UnexpectedSpawn
+ * (see https://github.com/DeathGOD7/unexpectedspawn-paper).
+ *
+ * Copyright (c) 2023 DeathGOD7, Shivelight
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.deathgod7.unexpectedspawn;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static com.github.deathgod7.unexpectedspawn.Utils.*;
+
+/**
+ * Finds many random spawn locations at once (used by the rtp-all command), all at least a minimum distance apart.
+ * Works like {@link AsyncSpawnSearch} with bigger batches, but every checked chunk can serve any of the wanted
+ * locations, so a chunk is loaded once for the whole batch instead of once per player. Found locations are kept in a
+ * {@link SpreadGrid} and the ones too close to an earlier one are dropped. State changes happen on the main thread
+ * (global region on Folia).
+ */
+final class BatchSpawnSearch implements SearchScheduler.Search {
+
+    private static final int BATCH_SIZE = 16;
+    private static final int MAX_SAMPLES_PER_STEP = BATCH_SIZE * 4;
+
+    private final World world;
+    private final WorldSpawnProfile profile;
+    private final StratifiedSampler sampler;
+    private final int count;
+    private final long maxMillis;
+    private SearchBudget budget;
+    private final SpreadGrid grid;
+    private final List<Location> found = new ArrayList<>();
+    private final CompletableFuture<List<Location>> result = new CompletableFuture<>();
+    private boolean areaExhausted = false;
+    private int tooClose = 0;
+
+    /**
+     * @param count Amount of locations wanted
+     * @param minDistance Minimum distance (blocks) between two locations
+     * @param maxMillis Maximum time spent searching once started
+     */
+    BatchSpawnSearch(int xmin, int xmax, int zmin, int zmax, World world, int count, int minDistance, long maxMillis) {
+        this.world = world;
+        this.profile = getProfile(world);
+        this.sampler = new StratifiedSampler(xmin, xmax, zmin, zmax, profile.getFailRadius(), world);
+        this.count = count;
+        this.maxMillis = maxMillis;
+        this.grid = new SpreadGrid(minDistance);
+    }
+
+    /**
+     * Queues the search on the scheduler
+     * @return {@link CompletableFuture} completed on the main thread with the found locations (ready to teleport to),
+     * fewer than wanted if the budget was spent, cancelled if the scheduler stopped first
+     */
+    CompletableFuture<List<Location>> start() {
+        plugin.searchScheduler.submit(this);
+        return result;
+    }
+
+    @Override
+    public CompletableFuture<List<Location>> getResult() {
+        return result;
+    }
+
+    /**
+     * Stops the search, the result is cancelled (nobody is teleported)
+     */
+    @Override
+    public void cancel() {
+        result.cancel(false);
+    }
+
+    @Override
+    public int step() {
+        if (budget == null) {
+            // same limits per location as a single search, except time
+            budget = new SearchBudget((int) Math.min(Integer.MAX_VALUE, (long) profile.getSearchAttempts() * count),
+                    (int) Math.min(Integer.MAX_VALUE, (long) profile.getSearchChunkLoads() * count),
+                    profile.getSearchGenerations() < 0 ? -1 : (int) Math.min(Integer.MAX_VALUE, (long) profile.getSearchGenerations() * count),
+                    maxMillis);
+        }
+        List<CompletableFuture<Location>> attempts = new ArrayList<>(BATCH_SIZE);
+        int samples = 0;
+        while (attempts.size() < BATCH_SIZE && samples < MAX_SAMPLES_PER_STEP && !budget.isExhausted()) {
+            if (!sampler.next()) {
+                areaExhausted = true;
+                break;
+            }
+            samples++;
+            int chunkX = sampler.getChunkX();
+            int chunkZ = sampler.getChunkZ();
+
+            if (plugin.rejections.isChunkRejected(world, chunkX, chunkZ)) {
+                continue;
+            }
+            if (plugin.spawnIndex.isBad(world, chunkX, chunkZ)) {
+                continue;
+            }
+            // a location here would be too close anyway, don't load the chunk
+            if (grid.isBlocked((chunkX << 4) + 8, (chunkZ << 4) + 8, 8)) {
+                continue;
+            }
+            budget.attempt();
+
+            int areaXMin = sampler.getXMin();
+            int areaXMax = sampler.getXMax();
+            int areaZMin = sampler.getZMin();
+            int areaZMax = sampler.getZMax();
+
+            HeightmapCache.ChunkHeights cached = plugin.heightmaps.get(world, chunkX, chunkZ);
+            if (cached != null) {
+                Location location = ColumnScanner.scanHeights(cached, chunkX, chunkZ, areaXMin, areaXMax, areaZMin, areaZMax, world, profile);
+                rejectIfEmpty(location, chunkX, chunkZ, areaXMin, areaXMax, areaZMin, areaZMax);
+                attempts.add(CompletableFuture.completedFuture(location));
+                continue;
+            }
+
+            // a column known to be safe is checked first, the whole chunk only if it changed since
+            int indexed = plugin.spawnIndex.getSafeColumn(world, chunkX, chunkZ);
+            boolean generate = false;
+            if (!world.isChunkLoaded(chunkX, chunkZ)) {
+                // new chunks are the most expensive, only generated while the budgets last
+                if (!world.isChunkGenerated(chunkX, chunkZ)) {
+                    if (!plugin.generations.tryGenerate(world, budget)) {
+                        continue;
+                    }
+                    generate = true;
+                }
+                budget.chunkLoad();
+            }
+            attempts.add(world.getChunkAtAsync(chunkX, chunkZ, generate)
+                    .thenApply(chunk -> ChunkColumns.of(chunk.getChunkSnapshot(true, false, false), world))
+                    .thenApplyAsync(columns -> {
+                        Location location = indexed == ColumnScanner.NONE ? null
+                                : ColumnScanner.scanColumn(columns, indexed, areaXMin, areaXMax, areaZMin, areaZMax, world, profile);
+                        if (location == null) {
+                            location = ColumnScanner.scanChunk(columns, areaXMin, areaXMax, areaZMin, areaZMax, world, profile);
+                            rejectIfEmpty(location, chunkX, chunkZ, areaXMin, areaXMax, areaZMin, areaZMax);
+                        }
+                        plugin.heightmaps.put(world, columns);
+                        return location;
+                    }, asyncExecutor)
+                    .exceptionally(ex -> null));
+        }
+
+        if (attempts.isEmpty()) {
+            if (areaExhausted || budget.isExhausted()) {
+                finish();
+            }
+            else {
+                plugin.searchScheduler.resume(this);
+            }
+            return samples;
+        }
+
+        CompletableFuture.allOf(attempts.toArray(new CompletableFuture[0])).whenComplete((ignored, ex) -> mainThreadExecutor.execute(() -> {
+            if (result.isDone()) {
+                return;
+            }
+            for (CompletableFuture<Location> attempt : attempts) {
+                Location location = attempt.getNow(null);
+                if (location == null) {
+                    continue;
+                }
+                plugin.spawnIndex.markSafe(location);
+                if (!grid.add(location)) {
+                    tooClose++;
+                    continue;
+                }
+                found.add(location.clone().add(0.5d, 1d, 0.5d));
+                if (found.size() >= count) {
+                    finish();
+                    return;
+                }
+            }
+            plugin.searchScheduler.resume(this);
+        }));
+        return samples;
+    }
+
+    private void finish() {
+        if (found.size() < count) {
+            LogConsole.warn("Found only " + found.size() + " of " + count + " locations for random teleport after " + budget
+                    + " (" + sampler.getRings() + " area expansions, " + tooClose + " too close).", LogConsole.logTypes.log);
+        }
+        else {
+            LogConsole.info(() -> "Found " + count + " locations for random teleport after " + budget + " (" + tooClose
+                    + " too close).", LogConsole.logTypes.debug);
+        }
+        result.complete(new ArrayList<>(found));
+    }
+
+    private void rejectIfEmpty(Location location, int chunkX, int chunkZ, int areaXMin, int areaXMax, int areaZMin, int areaZMax) {
+        if (location == null && ColumnScanner.isChunkInside(chunkX, chunkZ, areaXMin, areaXMax, areaZMin, areaZMax)) {
+            plugin.rejections.rejectChunk(world, chunkX, chunkZ);
+            plugin.spawnIndex.markBad(world, chunkX, chunkZ);
+        }
+    }
+
+    /**
+     * Uniform grid of accepted locations with cells as wide as the minimum distance, so a new location only has to be
+     * compared with the locations of the 3x3 cells around it. Not thread-safe.
+     */
+    static final class SpreadGrid {
+
+        private final int minDistance;
+        private final long minDistanceSquared;
+        private final Map<Long, List<Location>> cells = new HashMap<>();
+
+        SpreadGrid(int minDistance) {
+            this.minDistance = Math.max(1, minDistance);
+            this.minDistanceSquared = (long) minDistance * minDistance;
+        }
+
+        /**
+         * Adds the location unless it is closer than the minimum distance (X and Z only) to an added one
+         * @param location The location to add
+         * @return {@link boolean} true if it was added
+         */
+        boolean add(Location location) {
+            int x = location.getBlockX();
+            int z = location.getBlockZ();
+            if (isBlocked(x, z, 0)) {
+                return false;
+            }
+            cells.computeIfAbsent(key(Math.floorDiv(x, minDistance), Math.floorDiv(z, minDistance)), k -> new ArrayList<>(1))
+                    .add(location);
+            return true;
+        }
+
+        /**
+         * Checks if every point within a square around the point is too close to an added location
+         * @param x The X co-ordinate of center
+         * @param z The Z co-ordinate of center
+         * @param halfSize Half the width of square (0 for the point only)
+         * @return {@link boolean}
+         */
+        boolean isBlocked(int x, int z, int halfSize) {
+            int cellX = Math.floorDiv(x, minDistance);
+            int cellZ = Math.floorDiv(z, minDistance);
+            for (int dx = -1; dx <= 1; dx++) {
+                for (int dz = -1; dz <= 1; dz++) {
+                    List<Location> cell = cells.get(key(cellX + dx, cellZ + dz));
+                    if (cell == null) {
+                        continue;
+                    }
+                    for (Location other : cell) {
+                        // farthest corner of the square from the other location
+                        long farX = Math.abs(other.getBlockX() - x) + halfSize;
+                        long farZ = Math.abs(other.getBlockZ() - z) + halfSize;
+                        if (farX * farX + farZ * farZ < minDistanceSquared) {
+                            return true;
+                        }
+                    }
+                }
+            }
+            return false;
+        }
+
+        private static long key(int cellX, int cellZ) {
+            return ((long) cellX << 32) | (cellZ & 0xFFFFFFFFL);
+        }
+
+    }
+
+}
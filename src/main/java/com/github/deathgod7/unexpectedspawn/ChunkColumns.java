@@ -0,0 +1,129 @@
+/*
+ * This file is part of UnexpectedSpawn
+ * (see https://github.com/DeathGOD7/unexpectedspawn-paper).
+ *
+ * Copyright (c) 2023 DeathGOD7, Shivelight
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.deathgod7.unexpectedspawn;
+
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.Material;
+import org.bukkit.World;
+
+/**
+ * The block columns of one chunk, as read by {@link ColumnScanner}. Either a live {@link ChunkSnapshot} (see
+ * {@link #of}) or a chunk read from a region file ({@link RegionChunk}).
+ */
+interface ChunkColumns {
+
+    /**
+     * @return {@link int} The X co-ordinate of chunk
+     */
+    int getX();
+
+    /**
+     * @return {@link int} The Z co-ordinate of chunk
+     */
+    int getZ();
+
+    /**
+     * @return {@link int} The minimum height of the world of chunk
+     */
+    int getMinHeight();
+
+    /**
+     * @return {@link int} The maximum height of the world of chunk (exclusive)
+     */
+    int getMaxHeight();
+
+    /**
+     * Gets the block type, {@link Material#VOID_AIR} outside of the world height
+     * @param x The X co-ordinate inside chunk (0-15)
+     * @param y The Y co-ordinate
+     * @param z The Z co-ordinate inside chunk (0-15)
+     * @return {@link Material}
+     */
+    Material getBlockType(int x, int y, int z);
+
+    /**
+     * Gets the Y of the highest motion blocking block, same as {@link ChunkSnapshot#getHighestBlockYAt}
+     * @return {@link int} Y, or minimum height - 1 if the column is empty
+     */
+    int getHighestBlockYAt(int x, int z);
+
+    /**
+     * @param sy The index of the section from the bottom of the world
+     * @return {@link boolean} true if the section holds only air
+     */
+    boolean isSectionEmpty(int sy);
+
+    /**
+     * Wraps a live snapshot
+     * @param snapshot The snapshot of chunk (taken with max block Y for surface worlds)
+     * @param world The world of snapshot
+     * @return {@link ChunkColumns}
+     */
+    static ChunkColumns of(ChunkSnapshot snapshot, World world) {
+        return new Snapshot(snapshot, world.getMinHeight(), world.getMaxHeight());
+    }
+
+    /**
+     * Thin view of a {@link ChunkSnapshot}, which knows nothing about the world height
+     */
+    record Snapshot(ChunkSnapshot snapshot, int minHeight, int maxHeight) implements ChunkColumns {
+
+        @Override
+        public int getX() {
+            return snapshot.getX();
+        }
+
+        @Override
+        public int getZ() {
+            return snapshot.getZ();
+        }
+
+        @Override
+        public int getMinHeight() {
+            return minHeight;
+        }
+
+        @Override
+        public int getMaxHeight() {
+            return maxHeight;
+        }
+
+        @Override
+        public Material getBlockType(int x, int y, int z) {
+            // the snapshot throws outside of the world
+            if (y < minHeight || y >= maxHeight) {
+                return Material.VOID_AIR;
+            }
+            return snapshot.getBlockType(x, y, z);
+        }
+
+        @Override
+        public int getHighestBlockYAt(int x, int z) {
+            return snapshot.getHighestBlockYAt(x, z);
+        }
+
+        @Override
+        public boolean isSectionEmpty(int sy) {
+            return snapshot.isSectionEmpty(sy);
+        }
+    }
+
+}
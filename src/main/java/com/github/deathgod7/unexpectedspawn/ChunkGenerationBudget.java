@@ -0,0 +1,118 @@
+/*
+ * This file is part of UnexpectedSpawn
+ * (see https://github.com/DeathGOD7/unexpectedspawn-paper).
+ *
+ * Copyright (c) 2023 DeathGOD7, Shivelight
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.deathgod7.unexpectedspawn;
+
+import org.bukkit.World;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+
+import static com.github.deathgod7.unexpectedspawn.Utils.*;
+
+/**
+ * Limits the new chunks the searches make the server generate, the most expensive thing they can do. Every world has
+ * a budget per minute ("search-budget.generations-per-minute") and every search its own ("search-budget.generations",
+ * kept in its {@link SearchBudget}). Once a budget is used up the searches only load chunks that were already
+ * generated ({@link World#isChunkGenerated(int, int)}) until the next minute or the next search. Thread-safe.
+ */
+public class ChunkGenerationBudget {
+
+    private static final long WINDOW_MILLIS = 60_000L;
+
+    private final HashMap<UUID, Usage> worlds = new HashMap<>();
+
+    private static final class Usage {
+        final String worldName;
+        long windowStart;
+        int used;
+        long generated;
+        long denied;
+
+        Usage(String worldName) {
+            this.worldName = worldName;
+        }
+    }
+
+    /**
+     * Checks if a search may generate a new chunk, and counts it if so
+     * @param world The world of chunk
+     * @param budget The budget of search, or null if only the world budget applies
+     * @return {@link boolean} false if a budget is used up (only generated chunks may be loaded)
+     */
+    boolean tryGenerate(World world, SearchBudget budget) {
+        boolean allowed;
+        synchronized (this) {
+            Usage usage = worlds.computeIfAbsent(world.getUID(), uuid -> new Usage(world.getName()));
+            long now = System.currentTimeMillis();
+            if (now - usage.windowStart >= WINDOW_MILLIS) {
+                usage.windowStart = now;
+                usage.used = 0;
+            }
+
+            int perMinute = getProfile(world).getGenerationsPerMinute();
+            allowed = (budget == null || budget.canGenerate()) && (perMinute < 0 || usage.used < perMinute);
+            if (allowed) {
+                usage.used++;
+                usage.generated++;
+                if (budget != null) {
+                    budget.generation();
+                }
+            }
+            else {
+                usage.denied++;
+            }
+        }
+        plugin.metrics.recordGeneration(world, allowed);
+        return allowed;
+    }
+
+    /**
+     * Gets the budget use of every world (used by the stats command)
+     * @return {@link List<String>}
+     */
+    public synchronized List<String> getStatus() {
+        List<String> lines = new ArrayList<>();
+        lines.add("&8Chunk generation budget");
+        TreeMap<String, Usage> sorted = new TreeMap<>();
+        for (Usage usage : worlds.values()) {
+            sorted.put(usage.worldName, usage);
+        }
+        if (sorted.isEmpty()) {
+            lines.add("&8No chunk generated yet.");
+        }
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, Usage> entry : sorted.entrySet()) {
+            Usage usage = entry.getValue();
+            int used = now - usage.windowStart >= WINDOW_MILLIS ? 0 : usage.used;
+            World world = plugin.getServer().getWorld(entry.getKey());
+            String limit = world == null ? "?" : getProfile(world).getGenerationsPerMinute() < 0 ? "no limit"
+                    : String.valueOf(getProfile(world).getGenerationsPerMinute());
+            lines.add("&8" + entry.getKey() + ": this minute &f" + used + "/" + limit + " &8generated &f" + usage.generated
+                    + " &8denied &f" + usage.denied);
+        }
+        return lines;
+    }
+
+}
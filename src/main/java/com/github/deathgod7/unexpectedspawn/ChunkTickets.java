@@ -0,0 +1,115 @@
+/*
+ * This file is part of UnexpectedSpawn
+ * (see https://github.com/DeathGOD7/unexpectedspawn-paper).
+ *
+ * Copyright (c) 2023 DeathGOD7, Shivelight
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.deathgod7.unexpectedspawn;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+
+import java.util.HashMap;
+import java.util.UUID;
+
+/**
+ * Keeps chunks loaded for the spots the plugin holds on to (pooled spawns, pre-login and death screen prefetches). A
+ * world has only one plugin ticket per chunk, so the holders of every chunk are counted here and the ticket is removed
+ * once the last one lets go. The ticket itself is added and removed on the thread owning the chunk, always from the
+ * current count, so a release running before its hold can't leave a ticket behind. Thread-safe.
+ */
+public class ChunkTickets {
+
+    private final UnexpectedSpawn plugin;
+    private final HashMap<UUID, HashMap<Long, Holders>> worlds = new HashMap<>();
+
+    private static final class Holders {
+        int count;
+        // only changed on the thread owning the chunk
+        boolean ticket;
+    }
+
+    public ChunkTickets(UnexpectedSpawn plugin) {
+        this.plugin = plugin;
+    }
+
+    private static long key(int chunkX, int chunkZ) {
+        return ((long) chunkX << 32) | (chunkZ & 0xffffffffL);
+    }
+
+    /**
+     * Keeps the chunk of location loaded until {@link #release} is called as often
+     */
+    public void hold(Location location) {
+        World world = location.getWorld();
+        int chunkX = location.getBlockX() >> 4;
+        int chunkZ = location.getBlockZ() >> 4;
+        synchronized (this) {
+            worlds.computeIfAbsent(world.getUID(), uid -> new HashMap<>())
+                    .computeIfAbsent(key(chunkX, chunkZ), key -> new Holders()).count++;
+        }
+        plugin.scheduler.runAt(location, () -> update(world, chunkX, chunkZ));
+    }
+
+    /**
+     * Lets go of the chunk of location, the ticket is removed once nothing holds the chunk anymore
+     */
+    public void release(Location location) {
+        World world = location.getWorld();
+        int chunkX = location.getBlockX() >> 4;
+        int chunkZ = location.getBlockZ() >> 4;
+        synchronized (this) {
+            HashMap<Long, Holders> chunks = worlds.get(world.getUID());
+            Holders holders = chunks == null ? null : chunks.get(key(chunkX, chunkZ));
+            if (holders == null || holders.count == 0) {
+                return;
+            }
+            holders.count--;
+        }
+        plugin.scheduler.runAt(location, () -> update(world, chunkX, chunkZ));
+    }
+
+    // on the thread owning the chunk, adds or removes the ticket to match the holders
+    private void update(World world, int chunkX, int chunkZ) {
+        boolean add;
+        synchronized (this) {
+            HashMap<Long, Holders> chunks = worlds.get(world.getUID());
+            Holders holders = chunks == null ? null : chunks.get(key(chunkX, chunkZ));
+            if (holders == null) {
+                return;
+            }
+            add = holders.count > 0;
+            if (!add) {
+                chunks.remove(key(chunkX, chunkZ));
+                if (chunks.isEmpty()) {
+                    worlds.remove(world.getUID());
+                }
+            }
+            if (add == holders.ticket) {
+                return;
+            }
+            holders.ticket = add;
+        }
+        if (add) {
+            world.addPluginChunkTicket(chunkX, chunkZ, plugin);
+        }
+        else {
+            world.removePluginChunkTicket(chunkX, chunkZ, plugin);
+        }
+    }
+
+}
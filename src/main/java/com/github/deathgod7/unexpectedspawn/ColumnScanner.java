@@ -0,0 +1,250 @@
+/*
+ * This file is part of UnexpectedSpawn
+ * (see https://github.com/DeathGOD7/unexpectedspawn-paper).
+ *
+ * Copyright (c) 2023 DeathGOD7, Shivelight
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.deathgod7.unexpectedspawn;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Finds safe spawn columns in the {@link ChunkColumns} of a chunk. Only reads the columns, so it can run on any thread.
+ */
+public final class ColumnScanner {
+
+    /** Returned by the column checks when the column has no safe block */
+    public static final int NONE = Integer.MIN_VALUE;
+
+    private ColumnScanner() {
+    }
+
+    /**
+     * Checks if every column of the chunk lies inside the area (only then a failed scan rejects the whole chunk)
+     * @return {@link boolean}
+     */
+    public static boolean isChunkInside(int chunkX, int chunkZ, int xmin, int xmax, int zmin, int zmax) {
+        int baseX = chunkX << 4;
+        int baseZ = chunkZ << 4;
+        return baseX >= xmin && baseX + 15 <= xmax && baseZ >= zmin && baseZ + 15 <= zmax;
+    }
+
+    /**
+     * Gets the top block of a surface column (overworld and end) if it can be spawned on
+     * @param columns The columns of chunk (snapshot taken with max block Y)
+     * @param localX The X co-ordinate inside chunk (0-15)
+     * @param localZ The Z co-ordinate inside chunk (0-15)
+     * @param table The material table of world profile
+     * @return {@link int} Y of the block to stand on, or {@link #NONE}
+     */
+    static int findSurface(ChunkColumns columns, int localX, int localZ, MaterialTable table) {
+        int y = columns.getHighestBlockYAt(localX, localZ);
+        if (y <= columns.getMinHeight()) {
+            return NONE;
+        }
+
+        byte flags = table.get(columns.getBlockType(localX, y, localZ));
+        if ((flags & MaterialTable.AIR) != 0) {
+            y--;
+            flags = table.get(columns.getBlockType(localX, y, localZ));
+        }
+
+        // spawn blocked (blacklisted or not whitelisted) and air can't be stood on
+        return (flags & MaterialTable.SAFE_FLOOR) != 0 ? y : NONE;
+    }
+
+    /**
+     * Gets the lowest air pocket of a column with a valid floor and head room (nether and cave worlds). Sections that
+     * are empty can't hold a floor, so they are skipped as a whole.
+     * @param columns The columns of chunk
+     * @param localX The X co-ordinate inside chunk (0-15)
+     * @param localZ The Z co-ordinate inside chunk (0-15)
+     * @param minY The lowest floor Y to check
+     * @param maxY The highest Y to check (exclusive)
+     * @param table The material table of world profile
+     * @return {@link int} Y of the feet block, or {@link #NONE}
+     */
+    static int findCaveFloor(ChunkColumns columns, int localX, int localZ, int minY, int maxY, MaterialTable table) {
+        // bottom of section 0
+        int minHeight = columns.getMinHeight();
+        int y = Math.max(minY, minHeight) + 1;
+        while (y < maxY - 1) {
+            int floorSection = (y - 1 - minHeight) >> 4;
+            if (columns.isSectionEmpty(floorSection)) {
+                // first Y whose floor is in the next section
+                y = minHeight + ((floorSection + 1) << 4) + 1;
+                continue;
+            }
+
+            byte current = table.get(columns.getBlockType(localX, y, localZ));
+            if ((current & MaterialTable.SOLID) == 0
+                    && (current & (MaterialTable.AIR | MaterialTable.SPAWN_BLOCKED)) != MaterialTable.SPAWN_BLOCKED
+                    && table.isSafeFloor(columns.getBlockType(localX, y - 1, localZ))
+                    && table.isAir(columns.getBlockType(localX, y + 1, localZ))) {
+                return y;
+            }
+            y++;
+        }
+        return NONE;
+    }
+
+    /**
+     * Checks every column of a chunk that lies inside the area, starting at a random column, and returns the
+     * first safe one
+     * @param columns The columns of chunk (snapshot taken with max block Y for surface worlds)
+     * @param xmin Minimum X value
+     * @param xmax Maximum X value
+     * @param zmin Minimum Z value
+     * @param zmax Maximum Z value
+     * @param world The world of chunk
+     * @param profile The spawn profile of world
+     * @return {@link Location} of the block to stand on, or null if no column is safe
+     */
+    static Location scanChunk(ChunkColumns columns, int xmin, int xmax, int zmin, int zmax, World world, WorldSpawnProfile profile) {
+        int baseX = columns.getX() << 4;
+        int baseZ = columns.getZ() << 4;
+        int minHeight = columns.getMinHeight();
+        boolean cave = world.getEnvironment() == World.Environment.NETHER;
+        int maxY = cave ? Math.min(columns.getMaxHeight(), minHeight + world.getLogicalHeight()) : columns.getMaxHeight();
+        MaterialTable table = profile.getMaterialTable();
+
+        // odd stride is coprime with 256, so every column is visited exactly once in a shuffled order
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int index = random.nextInt(256);
+        int stride = random.nextInt(128) * 2 + 1;
+        for (int i = 0; i < 256; i++, index = (index + stride) & 255) {
+            int localX = index & 15;
+            int localZ = index >> 4;
+            int x = baseX + localX;
+            int z = baseZ + localZ;
+            if (x < xmin || x > xmax || z < zmin || z > zmax) {
+                continue;
+            }
+
+            if (cave) {
+                int y = findCaveFloor(columns, localX, localZ, minHeight, maxY, table);
+                if (y != NONE) {
+                    // floor block, like the surface case callers add (0.5, 1, 0.5) to stand on it
+                    return new Location(world, x, y - 1, z);
+                }
+            }
+            else {
+                int y = findSurface(columns, localX, localZ, table);
+                if (y != NONE) {
+                    return new Location(world, x, y, z);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Checks a single column of a chunk, the one the spawn index remembers as safe
+     * @param columns The columns of chunk (snapshot taken with max block Y for surface worlds)
+     * @param column The column index (localZ * 16 + localX)
+     * @param xmin Minimum X value
+     * @param xmax Maximum X value
+     * @param zmin Minimum Z value
+     * @param zmax Maximum Z value
+     * @param world The world of chunk
+     * @param profile The spawn profile of world
+     * @return {@link Location} of the block to stand on, or null if the column is outside the area or not safe anymore
+     */
+    static Location scanColumn(ChunkColumns columns, int column, int xmin, int xmax, int zmin, int zmax, World world, WorldSpawnProfile profile) {
+        int localX = column & 15;
+        int localZ = column >> 4;
+        int x = (columns.getX() << 4) + localX;
+        int z = (columns.getZ() << 4) + localZ;
+        if (x < xmin || x > xmax || z < zmin || z > zmax) {
+            return null;
+        }
+
+        MaterialTable table = profile.getMaterialTable();
+        if (world.getEnvironment() == World.Environment.NETHER) {
+            int minHeight = columns.getMinHeight();
+            int maxY = Math.min(columns.getMaxHeight(), minHeight + world.getLogicalHeight());
+            int y = findCaveFloor(columns, localX, localZ, minHeight, maxY, table);
+            return y != NONE ? new Location(world, x, y - 1, z) : null;
+        }
+        int y = findSurface(columns, localX, localZ, table);
+        return y != NONE ? new Location(world, x, y, z) : null;
+    }
+
+    /**
+     * Gets the first safe column of a whole chunk, in column order (used by the offline index, no area and no world)
+     * @param columns The columns of chunk (snapshot taken with max block Y for surface worlds)
+     * @param maxY The highest Y to check for cave worlds (exclusive)
+     * @param cave Checks cave floors (nether) instead of the surface
+     * @param table The material table to check with
+     * @return {@link int} column index (localZ * 16 + localX), or {@link #NONE}
+     */
+    static int findColumn(ChunkColumns columns, int maxY, boolean cave, MaterialTable table) {
+        for (int index = 0; index < 256; index++) {
+            int localX = index & 15;
+            int localZ = index >> 4;
+            int y = cave ? findCaveFloor(columns, localX, localZ, columns.getMinHeight(), maxY, table)
+                    : findSurface(columns, localX, localZ, table);
+            if (y != NONE) {
+                return index;
+            }
+        }
+        return NONE;
+    }
+
+    /**
+     * Same as {@link #scanChunk} for surface worlds, but reads cached heights instead of a snapshot (no chunk needed)
+     * @param heights The cached surface data of chunk
+     * @param chunkX The X co-ordinate of chunk
+     * @param chunkZ The Z co-ordinate of chunk
+     * @param xmin Minimum X value
+     * @param xmax Maximum X value
+     * @param zmin Minimum Z value
+     * @param zmax Maximum Z value
+     * @param world The world of chunk
+     * @param profile The spawn profile of world
+     * @return {@link Location} of the block to stand on, or null if no column is safe
+     */
+    public static Location scanHeights(HeightmapCache.ChunkHeights heights, int chunkX, int chunkZ, int xmin, int xmax, int zmin, int zmax, World world, WorldSpawnProfile profile) {
+        int baseX = chunkX << 4;
+        int baseZ = chunkZ << 4;
+        int minHeight = world.getMinHeight();
+        MaterialTable table = profile.getMaterialTable();
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int index = random.nextInt(256);
+        int stride = random.nextInt(128) * 2 + 1;
+        for (int i = 0; i < 256; i++, index = (index + stride) & 255) {
+            int localX = index & 15;
+            int localZ = index >> 4;
+            int x = baseX + localX;
+            int z = baseZ + localZ;
+            if (x < xmin || x > xmax || z < zmin || z > zmax) {
+                continue;
+            }
+
+            int y = heights.getHighestY(localX, localZ);
+            if (y > minHeight && table.isSafeFloor(heights.getSurface(localX, localZ))) {
+                return new Location(world, x, y, z);
+            }
+        }
+        return null;
+    }
+
+}
@@ -0,0 +1,182 @@
+/*
+ * This file is part of UnexpectedSpawn
+ * (see https://github.com/DeathGOD7/unexpectedspawn-paper).
+ *
+ * Copyright (c) 2023 DeathGOD7, Shivelight
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.deathgod7.unexpectedspawn;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes debug messages to "logs/debug.log" from a background thread. Callers only put the message in a bounded
+ * queue (messages are dropped, and counted, when it is full), so logging never blocks the main thread. The file is
+ * rolled to debug.1.log .. debug.N.log once it grows past the size limit.
+ */
+final class DebugLogWriter {
+
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS")
+            .withZone(ZoneId.systemDefault());
+
+    private final Path folder;
+    private final ArrayBlockingQueue<Entry> queue;
+    private final long maxFileSize;
+    private final int maxFiles;
+    private final AtomicLong dropped = new AtomicLong();
+
+    private volatile boolean running = false;
+    private Thread thread;
+    private BufferedWriter writer;
+    private long fileSize;
+
+    private static final class Entry {
+        final long time = System.currentTimeMillis();
+        final String thread = Thread.currentThread().getName();
+        final String level;
+        final String message;
+
+        Entry(String level, String message) {
+            this.level = level;
+            this.message = message;
+        }
+    }
+
+    DebugLogWriter(Path folder, int queueSize, long maxFileSize, int maxFiles) {
+        this.folder = folder;
+        this.queue = new ArrayBlockingQueue<>(Math.max(16, queueSize));
+        this.maxFileSize = Math.max(64 * 1024L, maxFileSize);
+        this.maxFiles = Math.max(1, maxFiles);
+    }
+
+    void start() {
+        running = true;
+        thread = new Thread(this::run, "UnexpectedSpawn-DebugLog");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops the writer thread after the queued messages are written
+     */
+    void stop() {
+        running = false;
+        if (thread != null) {
+            // no interrupt, it would close the file channel in the middle of a write
+            try {
+                thread.join(2000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Queues a message, never blocks
+     * @param level The level shown in the file
+     * @param message The message
+     */
+    void offer(String level, String message) {
+        if (!queue.offer(new Entry(level, message))) {
+            dropped.incrementAndGet();
+        }
+    }
+
+    private void run() {
+        try {
+            Files.createDirectories(folder);
+            open();
+            while (running || !queue.isEmpty()) {
+                Entry entry;
+                try {
+                    entry = queue.poll(200, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    break;
+                }
+                if (entry == null) {
+                    continue;
+                }
+                write(entry);
+                if (queue.isEmpty()) {
+                    writer.flush();
+                }
+            }
+        } catch (IOException e) {
+            LogConsole.warn("Couldn't write the debug log : " + e.getMessage(), LogConsole.logTypes.log);
+        } finally {
+            close();
+        }
+    }
+
+    private void write(Entry entry) throws IOException {
+        long lost = dropped.getAndSet(0);
+        if (lost > 0) {
+            writeLine(TIME_FORMAT.format(Instant.now()) + " [WARN] (debug log) " + lost + " messages dropped, queue was full");
+        }
+        writeLine(TIME_FORMAT.format(Instant.ofEpochMilli(entry.time)) + " [" + entry.level + "] (" + entry.thread + ") " + entry.message);
+    }
+
+    private void writeLine(String line) throws IOException {
+        if (fileSize >= maxFileSize) {
+            roll();
+        }
+        writer.write(line);
+        writer.newLine();
+        fileSize += line.length() + 1;
+    }
+
+    private void open() throws IOException {
+        Path file = folder.resolve("debug.log");
+        fileSize = Files.exists(file) ? Files.size(file) : 0;
+        writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    private void roll() throws IOException {
+        writer.close();
+        Files.deleteIfExists(folder.resolve("debug." + maxFiles + ".log"));
+        for (int i = maxFiles - 1; i >= 1; i--) {
+            Path from = folder.resolve("debug." + i + ".log");
+            if (Files.exists(from)) {
+                Files.move(from, folder.resolve("debug." + (i + 1) + ".log"), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        Files.move(folder.resolve("debug.log"), folder.resolve("debug.1.log"), StandardCopyOption.REPLACE_EXISTING);
+        open();
+    }
+
+    private void close() {
+        if (writer != null) {
+            try {
+                writer.close();
+            } catch (IOException ignored) {
+            }
+            writer = null;
+        }
+    }
+
+}
@@ -27,120 +27,126 @@ import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
-import org.bukkit.event.entity.EntityDamageEvent;
 import org.bukkit.event.entity.PlayerDeathEvent;
+import org.bukkit.event.player.AsyncPlayerPreLoginEvent;
 import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerLoginEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
 import org.bukkit.event.player.PlayerRespawnEvent;
-import org.bukkit.persistence.PersistentDataContainer;
-import org.bukkit.persistence.PersistentDataType;
+import org.bukkit.event.world.WorldLoadEvent;
+import org.bukkit.event.world.WorldUnloadEvent;
+import org.spigotmc.event.player.PlayerSpawnLocationEvent;
 
-import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.List;
+import java.util.Iterator;
+import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ThreadLocalRandom;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import static com.github.deathgod7.unexpectedspawn.Utils.*;
 
 public class EventsHandler implements Listener {
 
     private final UnexpectedSpawn plugin;
-    private final HashSet<World> blacklistedWorlds = new HashSet<>();
-    private final NamespacedKey spawnKey;
 
-    // Configuración dinámica
-    private final Set<Material> configBlacklist = new HashSet<>();
-    private final List<Integer> searchRadii = new ArrayList<>(); // Nueva lista
+    // respawn resuelto durante la pantalla de muerte (location null = no se encontró nada)
+    private record Prefetched(Location location, SpawnMetrics.Tier tier, int radius, boolean hadSpawn) {}
+    private final ConcurrentHashMap<UUID, CompletableFuture<Prefetched>> prefetches = new ConcurrentHashMap<>();
 
-    public EventsHandler(UnexpectedSpawn plugin) {
-        this.plugin = plugin;
-        this.spawnKey = new NamespacedKey(plugin, "original_spawn_loc");
-
-        // 1. Cargar mundos ignorados
-        List<String> worldList = plugin.config.getConfig().getStringList("blacklisted-worlds");
-        for (String name : worldList) {
-            World world = Bukkit.getWorld(name);
-            if (world != null) {
-                blacklistedWorlds.add(world);
-            }
-        }
+    // spawns de jugadores nuevos resueltos mientras entran, el chunk se mantiene cargado hasta que aparezcan
+    private record PreLogin(World world, CompletableFuture<Location> spawn, long createdAt) {}
+    private final ConcurrentHashMap<UUID, PreLogin> preLogins = new ConcurrentHashMap<>();
+    // jugadores nuevos que ya aparecieron en su spawn aleatorio
+    private final Set<UUID> placedOnLogin = ConcurrentHashMap.newKeySet();
+    // una entrada que no llega a aparecer (expulsado, servidor lleno...) se descarta pasado este tiempo
+    private static final long PRE_LOGIN_EXPIRY_MILLIS = 60_000L;
 
-        // 2. Cargar Blacklist de bloques
-        List<String> blockList = plugin.config.getConfig().getStringList("global.spawn-block-blacklist");
-        if (blockList != null && !blockList.isEmpty()) {
-            for (String blockName : blockList) {
-                Material mat = Material.getMaterial(blockName);
-                if (mat != null) configBlacklist.add(mat);
-            }
-        } else {
-            // Fallback
-            configBlacklist.add(Material.LAVA);
-            configBlacklist.add(Material.WATER);
-            configBlacklist.add(Material.FIRE);
-            configBlacklist.add(Material.MAGMA_BLOCK);
-            configBlacklist.add(Material.CACTUS);
-        }
+    private static final String RANDOM_TITLE = "Nuevo Spawnpoint Aleatorio";
+    private static final String RANDOM_AFTER_NEARBY = "Han fallado todos los intentos de generar cerca un nuevo spawnpoint, se te ha generado un nuevo spawnpoint aleatorio.";
+    private static final String RANDOM_FIRST = "Se te ha generado un nuevo spawnpoint aleatorio.";
 
-        // 3. CARGAR RADIOS DE BÚSQUEDA DESDE CONFIG
-        List<Integer> radiiList = plugin.config.getConfig().getIntegerList("global.search-radii");
-        searchRadii.addAll(radiiList);
-    } // <--- ¡AQUÍ FALTABA ESTA LLAVE DE CIERRE!
+    public EventsHandler(UnexpectedSpawn plugin) {
+        this.plugin = plugin;
+    }
 
     // --- PERSISTENCIA ---
     private void saveOriginalSpawn(Player player, Location loc) {
         if (loc == null || loc.getWorld() == null) return;
-        double x = Math.floor(loc.getX()) + 0.5;
-        double z = Math.floor(loc.getZ()) + 0.5;
-
-        String data = loc.getWorld().getName() + ";" + x + ";" + loc.getY() + ";" + z + ";" + loc.getYaw() + ";" + loc.getPitch();
-        player.getPersistentDataContainer().set(spawnKey, PersistentDataType.STRING, data);
-        LogConsole.info("Spawn guardado para " + player.getName(), LogConsole.logTypes.debug);
+        plugin.spawnPoints.put(player, SavedSpawn.of(loc));
+        LogConsole.info("Spawn guardado para {}", player.getName(), LogConsole.logTypes.debug);
     }
 
     private Location getOriginalSpawn(Player player) {
-        PersistentDataContainer container = player.getPersistentDataContainer();
-        if (container.has(spawnKey, PersistentDataType.STRING)) {
-            String data = container.get(spawnKey, PersistentDataType.STRING);
-            if (data != null) {
-                try {
-                    String[] parts = data.split(";");
-                    if (parts.length >= 6) {
-                        World w = Bukkit.getWorld(parts[0]);
-                        if (w != null) {
-                            return new Location(w,
-                                    Double.parseDouble(parts[1]),
-                                    Double.parseDouble(parts[2]),
-                                    Double.parseDouble(parts[3]),
-                                    Float.parseFloat(parts[4]),
-                                    Float.parseFloat(parts[5]));
-                        }
-                    }
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
-            }
-        }
-        return null;
+        // se lee del almacen si no esta en cache (plugin recargado con jugadores conectados)
+        SavedSpawn spawn = plugin.spawnPoints.get(player);
+        return spawn == null ? null : spawn.toLocation();
+    }
+
+    @EventHandler(priority = EventPriority.LOWEST)
+    public void onLoadSpawn(PlayerJoinEvent event) {
+        plugin.spawnPoints.join(event.getPlayer());
+    }
+
+    // la entrada fue rechazada despues del pre-login (baneado, whitelist, servidor lleno, otro plugin)
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onLoginDenied(PlayerLoginEvent event) {
+        if (event.getResult() == PlayerLoginEvent.Result.ALLOWED) return;
+        UUID uuid = event.getPlayer().getUniqueId();
+        plugin.spawnPoints.evict(uuid);
+        discardPreLogin(preLogins.remove(uuid));
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onQuit(PlayerQuitEvent event) {
+        plugin.spawnPoints.evict(event.getPlayer().getUniqueId());
+        discardPrefetch(prefetches.remove(event.getPlayer().getUniqueId()));
+        placedOnLogin.remove(event.getPlayer().getUniqueId());
     }
 
     // --- SEGURIDAD ---
-    private boolean isDangerousBody(Block block) {
-        return block.getType().isSolid() || configBlacklist.contains(block.getType());
+    private static boolean isDangerousBody(WorldSpawnProfile profile, Block block) {
+        return !profile.getMaterialTable().isSafeBody(block.getType());
     }
 
-    private boolean isDangerousFloor(Block block) {
-        return configBlacklist.contains(block.getType());
+    private static boolean isDangerousFloor(WorldSpawnProfile profile, Block block) {
+        return profile.getMaterialTable().isDangerous(block.getType());
     }
 
     private Location findSafeVertical(Location original) {
+        World w = original.getWorld();
+
+        // En Folia el chunk puede ser de otra región, no se puede leer desde este hilo
+        if (!plugin.scheduler.isOwnedByCurrentThread(w, original.getBlockX() >> 4, original.getBlockZ() >> 4)) return null;
+
+        return findSafeVertical(original, getProfile(w), plugin.heightmaps.getOrLoad(w, original.getBlockX() >> 4, original.getBlockZ() >> 4));
+    }
+
+    // Sin estado del plugin, los benchmarks la llaman con un mundo sintético
+    static Location findSafeVertical(Location original, WorldSpawnProfile profile, HeightmapCache.ChunkHeights heights) {
         Location check = original.clone();
         World w = check.getWorld();
         int minY = w.getMinHeight();
         int maxY = w.getMaxHeight();
         int originalY = original.getBlockY(); // Guardamos la altura original
 
+        // Atajo: la superficie cacheada no ha cambiado, no hace falta tocar el mundo
+        if (heights != null) {
+            int localX = original.getBlockX() & 15;
+            int localZ = original.getBlockZ() & 15;
+            if (heights.getHighestY(localX, localZ) + 1 == originalY
+                    && !profile.getMaterialTable().isDangerous(heights.getSurface(localX, localZ))
+                    && profile.getMaterialTable().isSafeBody(heights.getFeet(localX, localZ))
+                    && profile.getMaterialTable().isSafeBody(heights.getHead(localX, localZ))) {
+                return check;
+            }
+        }
+
         // 1. BAJAR: Si flotamos (AIRE), bajamos
-        while (check.getBlock().getRelative(BlockFace.DOWN).getType().isAir() && check.getY() > minY) {
+        while (profile.getMaterialTable().isAir(check.getBlock().getRelative(BlockFace.DOWN).getType()) && check.getY() > minY) {
             check.subtract(0, 1, 0);
 
             // NUEVO: Si bajamos más de 64 bloques respecto al original -> CANCELAR
@@ -150,7 +156,7 @@ public class EventsHandler implements Listener {
         if (check.getY() <= minY) return null; // Llegó al vacío
 
         // 2. SUBIR: Si estamos asfixiados o quemándonos, subimos
-        while ((isDangerousBody(check.getBlock()) || isDangerousBody(check.getBlock().getRelative(BlockFace.UP))) && check.getY() < maxY) {
+        while ((isDangerousBody(profile, check.getBlock()) || isDangerousBody(profile, check.getBlock().getRelative(BlockFace.UP))) && check.getY() < maxY) {
             check.add(0, 1, 0);
 
             // NUEVO: Si subimos más de 64 bloques respecto al original -> CANCELAR
@@ -158,31 +164,17 @@ public class EventsHandler implements Listener {
         }
 
         Block ground = check.getBlock().getRelative(BlockFace.DOWN);
-        if (isDangerousFloor(ground)) return null;
+        if (isDangerousFloor(profile, ground)) return null;
 
         return check;
     }
 
-    private Location findSafeNearby(Location origin, int radius) {
-        World world = origin.getWorld();
-        for (int i = 0; i < 15; i++) {
-            int dx = ThreadLocalRandom.current().nextInt(radius * 2) - radius;
-            int dz = ThreadLocalRandom.current().nextInt(radius * 2) - radius;
-
-            int newX = origin.getBlockX() + dx;
-            int newZ = origin.getBlockZ() + dz;
-            int highestY = world.getHighestBlockYAt(newX, newZ);
-
-            Location candidate = new Location(world, newX + 0.5, highestY + 1, newZ + 0.5);
-            Block ground = world.getBlockAt(newX, highestY, newZ);
-
-            if (!isDangerousFloor(ground)) {
-                return candidate;
-            }
-        }
-        return null;
+    // --- CARGA ---
+    // el pool solo se usa mientras el servidor no va demasiado cargado
+    private Location takePooled(World world, LoadMonitor.Level level) {
+        return level.compareTo(LoadMonitor.Level.POOL_ONLY) <= 0 ? plugin.spawnPool.take(world) : null;
     }
-    
+
     private void notifyPlayer(Player p, String mainMessage, String subMessage) {
         p.sendMessage(""); // Espacio arriba
 
@@ -195,28 +187,138 @@ public class EventsHandler implements Listener {
         p.playSound(p.getLocation(), Sound.BLOCK_NOTE_BLOCK_PLING, 1.0f, 1.0f);
     }
 
+    // --- ENTRADA ---
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPreLogin(AsyncPlayerPreLoginEvent event) {
+        if (event.getLoginResult() != AsyncPlayerPreLoginEvent.Result.ALLOWED) return;
+        // el spawnpoint guardado se lee aqui para no esperar al almacen en el hilo principal
+        plugin.spawnPoints.preload(event.getUniqueId());
+        expirePreLogins();
+        if (!plugin.config.getConfig().getBoolean("pre-login.enabled")) return;
+
+        // solo jugadores que el servidor nunca ha visto (aparecen en el mundo principal)
+        if (Bukkit.getOfflinePlayer(event.getUniqueId()).hasPlayedBefore()) return;
+        World world = Bukkit.getWorlds().get(0);
+        WorldSpawnProfile profile = getProfile(world);
+        if (profile.isRandomSpawnDisabled() || !profile.isOnFirstJoin()) return;
+
+        LoadMonitor.Level level = plugin.loadMonitor.getLevel();
+        Location pooled = takePooled(world, level);
+        if (pooled == null && level != LoadMonitor.Level.FULL) return;
+
+        CompletableFuture<Location> search = pooled != null ? CompletableFuture.completedFuture(pooled) : getRandomSpawnLocationAsync(world);
+        CompletableFuture<Location> spawn = search.thenApply(location -> {
+            plugin.chunkTickets.hold(location);
+            return location;
+        });
+        discardPreLogin(preLogins.put(event.getUniqueId(), new PreLogin(world, spawn, System.currentTimeMillis())));
+
+        // este hilo no es el principal, se puede esperar a que el spawn esté listo antes de aparecer
+        long maxWait = plugin.config.getConfig().getLong("pre-login.max-wait-millis", 2000L);
+        try {
+            spawn.get(maxWait, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException | ExecutionException e) {
+            LogConsole.info("Spawn de {} no resuelto al entrar, se buscará al unirse", event.getName(), LogConsole.logTypes.debug);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @EventHandler(priority = EventPriority.HIGHEST)
+    public void onSpawnLocation(PlayerSpawnLocationEvent event) {
+        Player player = event.getPlayer();
+        PreLogin preLogin = preLogins.remove(player.getUniqueId());
+        if (preLogin == null) return;
+        // el jugador ya estará en el chunk cuando se suelte el ticket
+        discardPreLogin(preLogin);
+
+        Location spawn = preLogin.spawn().isCompletedExceptionally() ? null : preLogin.spawn().getNow(null);
+        if (spawn == null || player.hasPlayedBefore() || player.hasPermission("unexpectedspawn.bypass")) return;
+        // otro plugin lo manda a otro mundo
+        if (event.getSpawnLocation() == null || event.getSpawnLocation().getWorld() != preLogin.world()) return;
+
+        // se resolvió en el hilo de entrada, donde el pool no puede volver a comprobar los bloques: se comprueba aquí
+        // (en Folia si el chunk es de otra región se deja para onJoin)
+        Location checked = findSafeVertical(spawn);
+        if (checked == null) {
+            LogConsole.info("Spawn de {} resuelto al entrar ya no es seguro, se buscará al unirse", player.getName(), LogConsole.logTypes.debug);
+            return;
+        }
+
+        event.setSpawnLocation(checked);
+        placedOnLogin.add(player.getUniqueId());
+        LogConsole.info("Spawn aleatorio de {} resuelto al entrar", player.getName(), LogConsole.logTypes.debug);
+    }
+
+    private void discardPreLogin(PreLogin preLogin) {
+        if (preLogin == null) return;
+        preLogin.spawn().thenAccept(location -> {
+            if (location != null) {
+                plugin.chunkTickets.release(location);
+            }
+        });
+    }
+
+    private void expirePreLogins() {
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<UUID, PreLogin>> iterator = preLogins.entrySet().iterator();
+        while (iterator.hasNext()) {
+            PreLogin preLogin = iterator.next().getValue();
+            if (now - preLogin.createdAt() > PRE_LOGIN_EXPIRY_MILLIS) {
+                iterator.remove();
+                discardPreLogin(preLogin);
+            }
+        }
+    }
+
     @EventHandler
     public void onJoin(PlayerJoinEvent event) {
         Player player = event.getPlayer();
         World joinWorld = player.getWorld();
+        boolean placed = placedOnLogin.remove(player.getUniqueId());
 
-        if (player.hasPermission("unexpectedspawn.bypass") || blacklistedWorlds.contains(joinWorld)) return;
+        WorldSpawnProfile profile = getProfile(joinWorld);
+        if (player.hasPermission("unexpectedspawn.bypass") || profile.isRandomSpawnDisabled()) return;
 
         Location existingSpawn = getOriginalSpawn(player);
-        String useCustomOnFirstJoin = checkWorldConfig(joinWorld, "random-respawn.on-first-join");
-        boolean firstJoinEnabled = plugin.config.getConfig().getBoolean(useCustomOnFirstJoin + "random-respawn.on-first-join");
+        boolean firstJoinEnabled = profile.isOnFirstJoin();
 
-        if (!player.hasPlayedBefore() && firstJoinEnabled) {
-            Location joinLocation = getRandomSpawnLocation(joinWorld);
-            player.teleport(joinLocation);
-            saveOriginalSpawn(player, joinLocation);
+        LoadMonitor.Level level = plugin.loadMonitor.getLevel();
+        if (placed) {
+            // ya apareció en su spawn aleatorio, no hace falta teletransportar
+            saveOriginalSpawn(player, player.getLocation());
             addInvulnerable(player, joinWorld);
 
             notifyPlayer(player, "Bienvenido", "Tu spawnpoint aleatorio ha sido guardado.");
         }
+        else if (!player.hasPlayedBefore() && firstJoinEnabled) {
+            Location pooled = takePooled(joinWorld, level);
+            if (pooled == null && level != LoadMonitor.Level.FULL) {
+                // servidor cargado: se queda en el spawn del mundo, el spawnpoint se arregla en otra conexión
+                plugin.loadMonitor.recordDegraded(level);
+                return;
+            }
+            CompletableFuture<Location> search = pooled != null ? CompletableFuture.completedFuture(pooled) : getRandomSpawnLocationAsync(joinWorld);
+            search.thenAccept(joinLocation -> plugin.scheduler.runFor(player, () -> {
+                if (!player.isOnline()) return;
+                player.teleportAsync(joinLocation);
+                saveOriginalSpawn(player, joinLocation);
+                addInvulnerable(player, joinWorld);
+
+                notifyPlayer(player, "Bienvenido", "Tu spawnpoint aleatorio ha sido guardado.");
+            }));
+        }
         else if (existingSpawn == null && firstJoinEnabled) {
-            Location fixLocation = getRandomSpawnLocation(joinWorld);
-            saveOriginalSpawn(player, fixLocation);
+            Location pooled = takePooled(joinWorld, level);
+            if (pooled == null && level != LoadMonitor.Level.FULL) {
+                plugin.loadMonitor.recordDegraded(level);
+                return;
+            }
+            CompletableFuture<Location> search = pooled != null ? CompletableFuture.completedFuture(pooled) : getRandomSpawnLocationAsync(joinWorld);
+            search.thenAccept(fixLocation -> plugin.scheduler.runFor(player, () -> {
+                if (!player.isOnline()) return;
+                saveOriginalSpawn(player, fixLocation);
+            }));
         }
     }
 
@@ -224,9 +326,37 @@ public class EventsHandler implements Listener {
     public void onRespawn(PlayerRespawnEvent event) {
         Player player = event.getPlayer();
 
-        if (player.hasPermission("unexpectedspawn.bypass")) return;
+        // lo que se resolvió durante la pantalla de muerte, el ticket del chunk ya no hace falta
+        CompletableFuture<Prefetched> prefetch = prefetches.remove(player.getUniqueId());
+        Prefetched prefetched = prefetch == null ? null : prefetch.getNow(null);
+        if (prefetched == null) {
+            // si no ha terminado no se usará, se descarta cuando termine
+            discardPrefetch(prefetch);
+        }
+        else if (prefetched.location() != null) {
+            plugin.chunkTickets.release(prefetched.location());
+        }
+
+        if (player.hasPermission("unexpectedspawn.bypass")) {
+            returnPooled(prefetched);
+            return;
+        }
 
         if (event.isBedSpawn() || (ApiUtil.isAvailable(PlayerRespawnEvent.class, "isAnchorSpawn") && event.isAnchorSpawn())) {
+            returnPooled(prefetched);
+            return;
+        }
+
+        LoadMonitor.Level level = plugin.loadMonitor.getLevel();
+        if (level == LoadMonitor.Level.WORLD_SPAWN) {
+            // servidor muy cargado: nada de búsquedas, directo al spawn del mundo (el spawnpoint guardado no cambia)
+            returnPooled(prefetched);
+            respawnAtWorldSpawn(event, player.getWorld(), level);
+            return;
+        }
+
+        // si la precarga no ha terminado se sigue el camino normal
+        if (prefetched != null && usePrefetched(event, player, prefetched)) {
             return;
         }
 
@@ -237,43 +367,229 @@ public class EventsHandler implements Listener {
             Location safeVertical = findSafeVertical(originalSpawn);
 
             if (safeVertical != null) {
+                plugin.metrics.recordTier(safeVertical.getWorld(), SpawnMetrics.Tier.VERTICAL);
                 event.setRespawnLocation(safeVertical);
                 addInvulnerable(player, safeVertical.getWorld());
             } else {
-                // INTENTO 2: Búsqueda Incremental
+                // INTENTO 2: Búsqueda Incremental, en espiral por chunks (primero los cargados)
+                NearbySearch nearby = new NearbySearch(originalSpawn, level.compareTo(LoadMonitor.Level.NEARBY_ONLY) < 0);
                 Location nearbySpawn = null;
                 int foundRange = 0;
 
-                for (int range : searchRadii) {
-                    nearbySpawn = findSafeNearby(originalSpawn, range);
+                for (int range : getProfile(originalSpawn.getWorld()).getSearchRadii()) {
+                    nearbySpawn = nearby.find(range);
                     if (nearbySpawn != null) {
                         foundRange = range;
                         break;
                     }
                 }
+                LogConsole.info("Busqueda cercana para {} : {} chunks cargados", player.getName(), nearby.getChunkLoads(), LogConsole.logTypes.debug);
 
                 if (nearbySpawn != null) {
-                    event.setRespawnLocation(nearbySpawn);
-                    saveOriginalSpawn(player, nearbySpawn);
-                    addInvulnerable(player, nearbySpawn.getWorld());
-
-                    notifyPlayer(player, "Nuevo Spawnpoint", "Se te ha generado un nuevo spawnpoint en un radio de" + ChatColor.WHITE + foundRange + ChatColor.GRAY + " bloques del anterior porque era inseguro.");
+                    respawnNearby(event, nearbySpawn, foundRange);
                 } else {
                     // INTENTO 3: Random
-                    Location emergencySpawn = getRandomSpawnLocation(player.getWorld());
-                    event.setRespawnLocation(emergencySpawn);
-                    saveOriginalSpawn(player, emergencySpawn);
-                    addInvulnerable(player, emergencySpawn.getWorld());
-
-                    notifyPlayer(player, "Nuevo Spawnpoint Aleatorio", "Han fallado todos los intentos de generar cerca un nuevo spawnpoint, se te ha generado un nuevo spawnpoint aleatorio.");
+                    relocateAfterRespawn(event, player.getWorld(), level, true, RANDOM_TITLE, RANDOM_AFTER_NEARBY);
                 }
             }
         } else {
-            Location emergencySpawn = getRandomSpawnLocation(player.getWorld());
-            event.setRespawnLocation(emergencySpawn);
-            saveOriginalSpawn(player, emergencySpawn);
-            notifyPlayer(player, "Nuevo Spawnpoint Aleatorio", "Se te ha generado un nuevo spawnpoint aleatorio.");
+            relocateAfterRespawn(event, player.getWorld(), level, false, RANDOM_TITLE, RANDOM_FIRST);
+        }
+    }
+
+    private void respawnNearby(PlayerRespawnEvent event, Location nearbySpawn, int foundRange) {
+        Player player = event.getPlayer();
+        plugin.metrics.recordNearby(nearbySpawn.getWorld(), foundRange);
+        event.setRespawnLocation(nearbySpawn);
+        saveOriginalSpawn(player, nearbySpawn);
+        addInvulnerable(player, nearbySpawn.getWorld());
+
+        notifyPlayer(player, "Nuevo Spawnpoint", "Se te ha generado un nuevo spawnpoint en un radio de" + ChatColor.WHITE + foundRange + ChatColor.GRAY + " bloques del anterior porque era inseguro.");
+    }
+
+    // --- PRECARGA ---
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onDeathPrefetch(PlayerDeathEvent event) {
+        Player player = event.getEntity();
+        if (player.hasPermission("unexpectedspawn.bypass")) return;
+        // reaparecerá en su cama o ancla
+        if (player.getPotentialBedLocation() != null) return;
+
+        LoadMonitor.Level level = plugin.loadMonitor.getLevel();
+        if (level == LoadMonitor.Level.WORLD_SPAWN) return;
+
+        // el chunk encontrado se mantiene cargado hasta que reaparezca
+        CompletableFuture<Prefetched> prefetch = prefetchRespawn(player, level).exceptionally(ex -> {
+            // cancelada al recargar o parar el plugin, no es un error
+            if (!isCancelled(ex)) {
+                LogConsole.warn("No se pudo precargar el respawn de " + player.getName() + " : " + ex, LogConsole.logTypes.log);
+            }
+            return new Prefetched(null, SpawnMetrics.Tier.WORLD_SPAWN, 0, false);
+        }).thenApply(result -> {
+            if (result.location() != null) {
+                plugin.chunkTickets.hold(result.location());
+            }
+            return result;
+        });
+        discardPrefetch(prefetches.put(player.getUniqueId(), prefetch));
+    }
+
+    /**
+     * Same steps as {@link #onRespawn} (vertical, nearby, pool / random) but without blocking : the chunks are loaded
+     * with {@link World#getChunkAtAsync} while the player is on the death screen.
+     */
+    private CompletableFuture<Prefetched> prefetchRespawn(Player player, LoadMonitor.Level level) {
+        World world = player.getWorld();
+        Location originalSpawn = getOriginalSpawn(player);
+        if (originalSpawn == null) {
+            return prefetchRandom(world, level, false);
+        }
+
+        // cualquier error completa el resultado, si no el respawn lo esperaría para siempre
+        CompletableFuture<Prefetched> result = new CompletableFuture<>();
+        originalSpawn.getWorld().getChunkAtAsync(originalSpawn).whenComplete((chunk, ex) -> plugin.scheduler.runAt(originalSpawn, () -> {
+            try {
+                Location safeVertical = findSafeVertical(originalSpawn);
+                if (safeVertical != null) {
+                    result.complete(new Prefetched(safeVertical, SpawnMetrics.Tier.VERTICAL, 0, true));
+                    return;
+                }
+                NearbySearch nearby = new NearbySearch(originalSpawn, level.compareTo(LoadMonitor.Level.NEARBY_ONLY) < 0);
+                nearby.findAsync(getProfile(originalSpawn.getWorld()).getSearchRadii()).whenComplete((found, error) -> {
+                    if (error != null) {
+                        result.completeExceptionally(error);
+                    }
+                    else if (found != null) {
+                        result.complete(new Prefetched(found, SpawnMetrics.Tier.NEARBY, nearby.getFoundRadius(), true));
+                    }
+                    else {
+                        prefetchRandom(world, level, true).whenComplete((random, failure) -> {
+                            if (failure != null) {
+                                result.completeExceptionally(failure);
+                            }
+                            else {
+                                result.complete(random);
+                            }
+                        });
+                    }
+                });
+            } catch (RuntimeException e) {
+                result.completeExceptionally(e);
+            }
+        }));
+        return result;
+    }
+
+    private CompletableFuture<Prefetched> prefetchRandom(World world, LoadMonitor.Level level, boolean hadSpawn) {
+        Location pooled = takePooled(world, level);
+        if (pooled != null) {
+            return CompletableFuture.completedFuture(new Prefetched(pooled, SpawnMetrics.Tier.POOL, 0, hadSpawn));
         }
+        if (level != LoadMonitor.Level.FULL) {
+            return CompletableFuture.completedFuture(new Prefetched(null, SpawnMetrics.Tier.WORLD_SPAWN, 0, hadSpawn));
+        }
+        return findRandomSpawnLocationAsync(world).thenApply(found ->
+                new Prefetched(found, found != null ? SpawnMetrics.Tier.RANDOM : SpawnMetrics.Tier.WORLD_SPAWN, 0, hadSpawn));
+    }
+
+    private boolean usePrefetched(PlayerRespawnEvent event, Player player, Prefetched prefetched) {
+        if (prefetched.location() == null) return false;
+        // el mundo puede haber cambiado durante la pantalla de muerte
+        Location checked = findSafeVertical(prefetched.location());
+        if (checked == null) return false;
+
+        World world = checked.getWorld();
+        switch (prefetched.tier()) {
+            case VERTICAL -> {
+                plugin.metrics.recordTier(world, SpawnMetrics.Tier.VERTICAL);
+                event.setRespawnLocation(checked);
+                addInvulnerable(player, world);
+            }
+            case NEARBY -> respawnNearby(event, checked, prefetched.radius());
+            default -> {
+                plugin.metrics.recordTier(world, prefetched.tier());
+                event.setRespawnLocation(checked);
+                saveOriginalSpawn(player, checked);
+                if (prefetched.hadSpawn()) {
+                    addInvulnerable(player, world);
+                }
+                notifyPlayer(player, RANDOM_TITLE, prefetched.hadSpawn() ? RANDOM_AFTER_NEARBY : RANDOM_FIRST);
+            }
+        }
+        LogConsole.info("Respawn precargado para {} ({})", player.getName(), prefetched.tier().label, LogConsole.logTypes.debug);
+        return true;
+    }
+
+    // suelta el chunk de una precarga que ya no se va a usar (cuando termine, si aún no lo ha hecho)
+    private void discardPrefetch(CompletableFuture<Prefetched> prefetch) {
+        if (prefetch == null) return;
+        prefetch.thenAccept(result -> {
+            if (result.location() != null) {
+                plugin.chunkTickets.release(result.location());
+            }
+            returnPooled(result);
+        });
+    }
+
+    // una ubicación sacada del pool que no se usa vuelve al pool (despues de soltar el chunk, el pool lo vuelve a cargar)
+    private void returnPooled(Prefetched prefetched) {
+        if (prefetched == null || prefetched.tier() != SpawnMetrics.Tier.POOL || prefetched.location() == null) return;
+        plugin.spawnPool.giveBack(prefetched.location());
+    }
+
+    /**
+     * Uses a pooled spawn if available, otherwise searches a random spawn without blocking the respawn. The player then
+     * respawns at the vanilla location and is moved with {@link Player#teleportAsync(Location)} once the search completes.
+     * While the server is behind ({@link LoadMonitor}) the pool is the only option, then only the world spawn.
+     */
+    private void relocateAfterRespawn(PlayerRespawnEvent event, World world, LoadMonitor.Level level, boolean invulnerable, String mainMessage, String subMessage) {
+        Player player = event.getPlayer();
+
+        // pre-validated location, no search needed
+        Location pooled = takePooled(world, level);
+        if (pooled != null) {
+            plugin.metrics.recordTier(world, SpawnMetrics.Tier.POOL);
+            event.setRespawnLocation(pooled);
+            saveOriginalSpawn(player, pooled);
+            if (invulnerable) {
+                addInvulnerable(player, pooled.getWorld());
+            }
+            notifyPlayer(player, mainMessage, subMessage);
+            return;
+        }
+
+        if (level != LoadMonitor.Level.FULL) {
+            respawnAtWorldSpawn(event, world, level);
+            return;
+        }
+
+        if (invulnerable) {
+            // covers the wait at the vanilla respawn point too
+            addInvulnerable(player, world);
+        }
+        findRandomSpawnLocationAsync(world).thenAccept(found -> {
+            plugin.metrics.recordTier(world, found != null ? SpawnMetrics.Tier.RANDOM : SpawnMetrics.Tier.WORLD_SPAWN);
+            Location emergencySpawn = found != null ? found : getWorldSpawnFallback(world);
+            // el jugador solo se puede tocar desde su hilo (Folia)
+            plugin.scheduler.runFor(player, () -> {
+                if (!player.isOnline() || player.isDead()) return;
+                player.teleportAsync(emergencySpawn);
+                saveOriginalSpawn(player, emergencySpawn);
+                if (invulnerable) {
+                    addInvulnerable(player, emergencySpawn.getWorld());
+                }
+                notifyPlayer(player, mainMessage, subMessage);
+            });
+        });
+    }
+
+    private void respawnAtWorldSpawn(PlayerRespawnEvent event, World world, LoadMonitor.Level level) {
+        Player player = event.getPlayer();
+        plugin.loadMonitor.recordDegraded(level);
+        plugin.metrics.recordTier(world, SpawnMetrics.Tier.WORLD_SPAWN);
+        event.setRespawnLocation(getWorldSpawnFallback(world));
+        addInvulnerable(player, world);
+        notifyPlayer(player, "Spawn del Mundo", "El servidor va con retraso, has reaparecido en el spawn del mundo.");
     }
 
     @EventHandler
@@ -289,9 +605,12 @@ public class EventsHandler implements Listener {
     }
 
     @EventHandler
-    public void onDamage(EntityDamageEvent event) {
-        if (event.getEntity() instanceof Player && plugin.preventDmg.contains(event.getEntity().getUniqueId())) {
-            event.setCancelled(true);
-        }
+    public void onWorldLoad(WorldLoadEvent event) {
+        plugin.profiles.compile(event.getWorld());
+    }
+
+    @EventHandler
+    public void onWorldUnload(WorldUnloadEvent event) {
+        plugin.profiles.remove(event.getWorld());
     }
 }
\ No newline at end of file
@@ -0,0 +1,201 @@
+/*
+ * This file is part of UnexpectedSpawn
+ * (see https://github.com/DeathGOD7/unexpectedspawn-paper).
+ *
+ * Copyright (c) 2023 DeathGOD7, Shivelight
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.deathgod7.unexpectedspawn;
+
+import javax.annotation.Nullable;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.function.BiConsumer;
+
+/**
+ * Keeps the spawnpoints in an append-only text file, one line per change :
+ * "player world x y z yaw pitch", or "player -" once a spawnpoint is removed. The file is read into memory when opened
+ * (last line of a player wins) and rewritten without the old lines once most of it is outdated. The same line format is
+ * used by the export and import commands.
+ */
+final class FlatFileSpawnStore implements SpawnPointStore {
+
+    private static final String REMOVED = "-";
+    // rewritten once the file holds this many times more lines than spawnpoints
+    private static final int COMPACT_RATIO = 4;
+    private static final int COMPACT_MIN_LINES = 1024;
+
+    private final Path file;
+    private final Map<UUID, SavedSpawn> index = new HashMap<>();
+    private FileChannel channel;
+    private BufferedWriter writer;
+    private int lines = 0;
+
+    FlatFileSpawnStore(Path file) {
+        this.file = file;
+    }
+
+    @Override
+    public String getType() {
+        return "flatfile";
+    }
+
+    @Override
+    public synchronized void open() throws IOException {
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        index.clear();
+        lines = 0;
+        if (Files.exists(file)) {
+            try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    Map.Entry<UUID, Optional<SavedSpawn>> entry = parse(line);
+                    if (entry == null) {
+                        continue;
+                    }
+                    lines++;
+                    if (entry.getValue().isPresent()) {
+                        index.put(entry.getKey(), entry.getValue().get());
+                    }
+                    else {
+                        index.remove(entry.getKey());
+                    }
+                }
+            }
+        }
+        if (lines >= COMPACT_MIN_LINES && lines > index.size() * COMPACT_RATIO) {
+            compact();
+        }
+        openWriter();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (writer != null) {
+            writer.close();
+            writer = null;
+            channel = null;
+        }
+    }
+
+    @Override
+    @Nullable
+    public synchronized SavedSpawn load(UUID playerId) {
+        return index.get(playerId);
+    }
+
+    @Override
+    public synchronized void write(Map<UUID, Optional<SavedSpawn>> batch) throws IOException {
+        for (Map.Entry<UUID, Optional<SavedSpawn>> entry : batch.entrySet()) {
+            writer.write(format(entry.getKey(), entry.getValue().orElse(null)));
+            writer.newLine();
+        }
+        writer.flush();
+        channel.force(false);
+        lines += batch.size();
+        batch.forEach((player, spawn) -> {
+            if (spawn.isPresent()) {
+                index.put(player, spawn.get());
+            }
+            else {
+                index.remove(player);
+            }
+        });
+
+        if (lines >= COMPACT_MIN_LINES && lines > index.size() * COMPACT_RATIO) {
+            writer.close();
+            compact();
+            openWriter();
+        }
+    }
+
+    @Override
+    public synchronized void forEach(BiConsumer<UUID, SavedSpawn> action) {
+        index.forEach(action);
+    }
+
+    /**
+     * Formats a line of the file
+     * @param player The UUID of player
+     * @param spawn The spawnpoint, or null if it was removed
+     * @return {@link String}
+     */
+    static String format(UUID player, @Nullable SavedSpawn spawn) {
+        if (spawn == null) {
+            return player + " " + REMOVED;
+        }
+        return String.format(Locale.ROOT, "%s %s %s %s %s %s %s", player, spawn.getWorldId(),
+                spawn.getX(), spawn.getY(), spawn.getZ(), spawn.getYaw(), spawn.getPitch());
+    }
+
+    /**
+     * Parses a line of the file
+     * @param line The line
+     * @return {@link Map.Entry} of the UUID of player and its spawnpoint (empty if removed), or null if the line is invalid
+     */
+    @Nullable
+    static Map.Entry<UUID, Optional<SavedSpawn>> parse(String line) {
+        String[] parts = line.trim().split(" ");
+        try {
+            if (parts.length == 2 && parts[1].equals(REMOVED)) {
+                return new AbstractMap.SimpleImmutableEntry<>(UUID.fromString(parts[0]), Optional.empty());
+            }
+            if (parts.length != 7) {
+                return null;
+            }
+            SavedSpawn spawn = new SavedSpawn(UUID.fromString(parts[1]),
+                    Double.parseDouble(parts[2]), Double.parseDouble(parts[3]), Double.parseDouble(parts[4]),
+                    Float.parseFloat(parts[5]), Float.parseFloat(parts[6]));
+            return new AbstractMap.SimpleImmutableEntry<>(UUID.fromString(parts[0]), Optional.of(spawn));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private void openWriter() throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        writer = new BufferedWriter(new OutputStreamWriter(Channels.newOutputStream(channel), StandardCharsets.UTF_8));
+    }
+
+    private void compact() throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (BufferedWriter out = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            for (Map.Entry<UUID, SavedSpawn> entry : index.entrySet()) {
+                out.write(format(entry.getKey(), entry.getValue()));
+                out.newLine();
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        LogConsole.info("Compacted {} lines of {} to {}", lines, file.getFileName(), index.size(), LogConsole.logTypes.debug);
+        lines = index.size();
+    }
+
+}
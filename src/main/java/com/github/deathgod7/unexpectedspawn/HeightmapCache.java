@@ -0,0 +1,221 @@
+/*
+ * This file is part of UnexpectedSpawn
+ * (see https://github.com/DeathGOD7/unexpectedspawn-paper).
+ *
+ * Copyright (c) 2023 DeathGOD7, Shivelight
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.deathgod7.unexpectedspawn;
+
+import org.bukkit.Material;
+import org.bukkit.World;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Bounded LRU cache of per-chunk surface data (16x16 heights, surface, feet and head materials) of surface worlds. Entries
+ * are dropped when a block changes in the chunk (see {@link WorldChangeListener}) or when they get too old.
+ * Thread-safe, the async search fills it from the snapshots it already took.
+ */
+public class HeightmapCache {
+
+    private static final Material[] MATERIALS = Material.values();
+
+    private final HashMap<UUID, LinkedHashMap<Long, ChunkHeights>> worlds = new HashMap<>();
+    private int maxChunks;
+    private long maxAgeMillis;
+
+    /**
+     * Surface data of a chunk, immutable
+     */
+    public static final class ChunkHeights {
+        // surface of a column without blocks (void), never a safe floor
+        private static final short VOID = (short) Material.VOID_AIR.ordinal();
+        private static final short AIR = (short) Material.AIR.ordinal();
+
+        private final short[] heights = new short[256];
+        private final short[] surface = new short[256];
+        private final short[] feet = new short[256];
+        private final short[] head = new short[256];
+        private final long createdAt = System.currentTimeMillis();
+
+        /**
+         * @param columns The columns of chunk (snapshot taken with max block Y)
+         */
+        ChunkHeights(ChunkColumns columns) {
+            int minHeight = columns.getMinHeight();
+            int maxHeight = columns.getMaxHeight();
+            for (int index = 0; index < 256; index++) {
+                int localX = index & 15;
+                int localZ = index >> 4;
+                int y = columns.getHighestBlockYAt(localX, localZ);
+                heights[index] = (short) y;
+                // empty column (minHeight - 1)
+                if (y < minHeight || y >= maxHeight) {
+                    surface[index] = VOID;
+                    feet[index] = VOID;
+                    head[index] = VOID;
+                    continue;
+                }
+                surface[index] = (short) columns.getBlockType(localX, y, localZ).ordinal();
+                // above the build limit is air
+                feet[index] = y + 1 < maxHeight ? (short) columns.getBlockType(localX, y + 1, localZ).ordinal() : AIR;
+                head[index] = y + 2 < maxHeight ? (short) columns.getBlockType(localX, y + 2, localZ).ordinal() : AIR;
+            }
+        }
+
+        /**
+         * @return {@link int} Y of the highest motion blocking block, same as {@link World#getHighestBlockYAt(int, int)}
+         */
+        public int getHighestY(int localX, int localZ) {
+            return heights[(localZ << 4) | localX];
+        }
+
+        /**
+         * @return {@link Material} of the highest motion blocking block
+         */
+        public Material getSurface(int localX, int localZ) {
+            return MATERIALS[surface[(localZ << 4) | localX]];
+        }
+
+        /**
+         * @return {@link Material} of the block right above the surface block
+         */
+        public Material getFeet(int localX, int localZ) {
+            return MATERIALS[feet[(localZ << 4) | localX]];
+        }
+
+        /**
+         * @return {@link Material} of the block two above the surface block
+         */
+        public Material getHead(int localX, int localZ) {
+            return MATERIALS[head[(localZ << 4) | localX]];
+        }
+    }
+
+    /**
+     * Reads the cache settings and drops every entry
+     * @param maxChunks Maximum cached chunks per world
+     * @param maxAgeSeconds Maximum age of an entry
+     */
+    public synchronized void reload(int maxChunks, int maxAgeSeconds) {
+        this.maxChunks = Math.max(0, maxChunks);
+        this.maxAgeMillis = Math.max(1, maxAgeSeconds) * 1000L;
+        worlds.clear();
+    }
+
+    private static long key(int chunkX, int chunkZ) {
+        return ((long) chunkX << 32) | (chunkZ & 0xffffffffL);
+    }
+
+    private static boolean isCached(World world) {
+        // heights of nether like worlds are the roof
+        return world.getEnvironment() != World.Environment.NETHER;
+    }
+
+    /**
+     * Gets the cached surface data of chunk
+     * @return {@link ChunkHeights} or null if not cached
+     */
+    public synchronized ChunkHeights get(World world, int chunkX, int chunkZ) {
+        LinkedHashMap<Long, ChunkHeights> chunks = worlds.get(world.getUID());
+        if (chunks == null) {
+            return null;
+        }
+        long key = key(chunkX, chunkZ);
+        ChunkHeights heights = chunks.get(key);
+        if (heights != null && System.currentTimeMillis() - heights.createdAt > maxAgeMillis) {
+            chunks.remove(key);
+            return null;
+        }
+        return heights;
+    }
+
+    /**
+     * Gets the surface data of chunk, loading the chunk if it's not cached. Only on the thread owning the chunk (main
+     * thread on Paper, see {@link TaskScheduler#isOwnedByCurrentThread}).
+     * @return {@link ChunkHeights} or null if the world is not cached (nether)
+     */
+    public ChunkHeights getOrLoad(World world, int chunkX, int chunkZ) {
+        if (!isCached(world)) {
+            return null;
+        }
+        ChunkHeights heights = get(world, chunkX, chunkZ);
+        if (heights != null) {
+            return heights;
+        }
+        ChunkColumns columns = ChunkColumns.of(world.getChunkAt(chunkX, chunkZ).getChunkSnapshot(true, false, false), world);
+        ChunkHeights loaded = new ChunkHeights(columns);
+        put(world, columns.getX(), columns.getZ(), loaded);
+        return loaded;
+    }
+
+    /**
+     * Caches the surface data of a chunk (snapshot taken with max block Y). Callers put the chunk once it was scanned,
+     * so a failure here can't discard it.
+     * @return {@link ChunkHeights} or null if the world is not cached (nether)
+     */
+    ChunkHeights put(World world, ChunkColumns columns) {
+        if (!isCached(world) || maxChunks == 0) {
+            return null;
+        }
+        // built outside the lock
+        ChunkHeights heights = new ChunkHeights(columns);
+        put(world, columns.getX(), columns.getZ(), heights);
+        return heights;
+    }
+
+    private synchronized void put(World world, int chunkX, int chunkZ, ChunkHeights heights) {
+        if (maxChunks == 0) {
+            return;
+        }
+        worlds.computeIfAbsent(world.getUID(), uuid -> new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, ChunkHeights> eldest) {
+                return size() > maxChunks;
+            }
+        }).put(key(chunkX, chunkZ), heights);
+    }
+
+    /**
+     * Drops the cached surface data of chunk
+     */
+    public synchronized void invalidate(World world, int chunkX, int chunkZ) {
+        LinkedHashMap<Long, ChunkHeights> chunks = worlds.get(world.getUID());
+        if (chunks != null) {
+            chunks.remove(key(chunkX, chunkZ));
+        }
+    }
+
+    /**
+     * Drops every cached chunk of world
+     */
+    public synchronized void invalidate(World world) {
+        worlds.remove(world.getUID());
+    }
+
+    public synchronized int size() {
+        int size = 0;
+        for (LinkedHashMap<Long, ChunkHeights> chunks : worlds.values()) {
+            size += chunks.size();
+        }
+        return size;
+    }
+
+}
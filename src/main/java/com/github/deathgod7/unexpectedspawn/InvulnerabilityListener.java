@@ -0,0 +1,48 @@
+/*
+ * This file is part of UnexpectedSpawn
+ * (see https://github.com/DeathGOD7/unexpectedspawn-paper).
+ *
+ * Copyright (c) 2023 DeathGOD7, Shivelight
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.deathgod7.unexpectedspawn;
+
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.Listener;
+import org.bukkit.event.entity.EntityDamageEvent;
+
+/**
+ * Cancels damage of protected players. Only registered while {@link InvulnerabilityTracker} protects someone, so
+ * regular (mob) damage doesn't reach it the rest of the time. There is no player-only damage event, so this listens to
+ * {@link EntityDamageEvent}, which also covers its by-entity / by-block subtypes.
+ */
+public class InvulnerabilityListener implements Listener {
+
+    private final InvulnerabilityTracker tracker;
+
+    public InvulnerabilityListener(InvulnerabilityTracker tracker) {
+        this.tracker = tracker;
+    }
+
+    @EventHandler
+    public void onDamage(EntityDamageEvent event) {
+        if (event.getEntity() instanceof Player && tracker.isProtected(event.getEntity().getUniqueId())) {
+            event.setCancelled(true);
+        }
+    }
+
+}
@@ -0,0 +1,173 @@
+/*
+ * This file is part of UnexpectedSpawn
+ * (see https://github.com/DeathGOD7/unexpectedspawn-paper).
+ *
+ * Copyright (c) 2023 DeathGOD7, Shivelight
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.deathgod7.unexpectedspawn;
+
+import org.bukkit.Bukkit;
+import org.bukkit.entity.Player;
+import org.bukkit.event.HandlerList;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Tracks the players protected from damage after a random teleport. Deadlines (in ticks) are kept in a concurrent map,
+ * so {@link #isProtected(UUID)} is a lock-free lookup from any thread, and expiries are found by a hashed timing wheel
+ * advanced by a single repeating task. A newer protection of the same player replaces the deadline, the stale wheel
+ * entry is then ignored instead of ending the new window early. The damage listener is only registered while at least
+ * one player is protected.
+ */
+public class InvulnerabilityTracker {
+
+    private static final int WHEEL_SIZE = 512;
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+
+    private final UnexpectedSpawn plugin;
+    private final InvulnerabilityListener listener;
+    private boolean listening = false;
+    private final ConcurrentHashMap<UUID, Long> deadlines = new ConcurrentHashMap<>();
+    // slot = deadline % WHEEL_SIZE, longer windows stay in the slot for more rounds
+    private final List<Expiry>[] wheel;
+    private volatile long currentTick = 0;
+    private TaskScheduler.Task tickTask;
+
+    private static final class Expiry {
+        final UUID uuid;
+        final long deadline;
+
+        Expiry(UUID uuid, long deadline) {
+            this.uuid = uuid;
+            this.deadline = deadline;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public InvulnerabilityTracker(UnexpectedSpawn plugin) {
+        this.plugin = plugin;
+        this.listener = new InvulnerabilityListener(this);
+        this.wheel = new List[WHEEL_SIZE];
+        for (int i = 0; i < WHEEL_SIZE; i++) {
+            wheel[i] = new ArrayList<>();
+        }
+    }
+
+    /**
+     * Starts the tick task
+     */
+    public void start() {
+        if (tickTask == null) {
+            tickTask = plugin.scheduler.runGlobalTimer(this::tick, 1, 1);
+        }
+    }
+
+    /**
+     * Stops the tick task and removes every protection
+     */
+    public synchronized void stop() {
+        if (tickTask != null) {
+            tickTask.cancel();
+            tickTask = null;
+        }
+        deadlines.clear();
+        for (List<Expiry> slot : wheel) {
+            slot.clear();
+        }
+        updateListener();
+    }
+
+    /**
+     * Protects the player for the given time, replacing any running protection
+     * @param uuid The player to protect
+     * @param ticks Duration of the protection
+     * @return {@link boolean} true if the player wasn't protected before
+     */
+    public synchronized boolean protect(UUID uuid, long ticks) {
+        long deadline = currentTick + Math.max(1, ticks);
+        Long previous = deadlines.put(uuid, deadline);
+        wheel[(int) (deadline & WHEEL_MASK)].add(new Expiry(uuid, deadline));
+        updateListener();
+        return previous == null || previous <= currentTick;
+    }
+
+    /**
+     * Checks if the player is protected from damage
+     * @param uuid The player to check
+     * @return {@link boolean}
+     */
+    public boolean isProtected(UUID uuid) {
+        Long deadline = deadlines.get(uuid);
+        return deadline != null && deadline > currentTick;
+    }
+
+    /**
+     * Gets the amount of protected players
+     * @return {@link int}
+     */
+    public int size() {
+        return deadlines.size();
+    }
+
+    private synchronized void tick() {
+        long now = ++currentTick;
+        List<Expiry> slot = wheel[(int) (now & WHEEL_MASK)];
+        if (slot.isEmpty()) {
+            return;
+        }
+
+        Iterator<Expiry> iterator = slot.iterator();
+        while (iterator.hasNext()) {
+            Expiry expiry = iterator.next();
+            if (expiry.deadline > now) {
+                // later round
+                continue;
+            }
+            iterator.remove();
+            // only ends the window this entry was created for
+            if (deadlines.remove(expiry.uuid, expiry.deadline) && LogConsole.isEnabled(LogConsole.logTypes.debug)) {
+                Player player = Bukkit.getPlayer(expiry.uuid);
+                LogConsole.warn("Player {} will now turn into mortal servant.", player != null ? player.getName() : expiry.uuid, LogConsole.logTypes.debug);
+            }
+        }
+        updateListener();
+    }
+
+    /**
+     * Registers the damage listener while someone is protected, unregisters it once nobody is
+     */
+    private void updateListener() {
+        boolean needed = !deadlines.isEmpty();
+        if (needed == listening) {
+            return;
+        }
+        listening = needed;
+        if (needed) {
+            plugin.getServer().getPluginManager().registerEvents(listener, plugin);
+            LogConsole.info("Damage listener registered.", LogConsole.logTypes.debug);
+        }
+        else {
+            HandlerList.unregisterAll(listener);
+            LogConsole.info("Damage listener unregistered.", LogConsole.logTypes.debug);
+        }
+    }
+
+}
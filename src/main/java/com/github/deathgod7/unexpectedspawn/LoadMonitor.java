@@ -0,0 +1,173 @@
+/*
+ * This file is part of UnexpectedSpawn
+ * (see https://github.com/DeathGOD7/unexpectedspawn-paper).
+ *
+ * Copyright (c) 2023 DeathGOD7, Shivelight
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.deathgod7.unexpectedspawn;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Steps the respawn down to cheaper ways of finding a spot while the server is behind, so a lagging server doesn't
+ * get slower from the searches. The average tick time (kept by Paper over the last 100 ticks) is read every second
+ * and smoothed, a level is entered once it reaches the threshold of that level and left once it drops the hysteresis
+ * below it. Every level change is logged and counted. Thread-safe.
+ */
+public class LoadMonitor {
+
+    /**
+     * What the respawn may still do, from the most to the least expensive
+     */
+    enum Level {
+        // random search, pool, nearby
+        FULL("full"),
+        // pool and nearby, no random search
+        POOL_ONLY("pool-only"),
+        // nearby from the saved spawnpoint, only in loaded chunks
+        NEARBY_ONLY("nearby-only"),
+        // world spawn, nothing is searched
+        WORLD_SPAWN("world-spawn");
+
+        final String label;
+
+        Level(String label) {
+            this.label = label;
+        }
+    }
+
+    private final UnexpectedSpawn plugin;
+    private TaskScheduler.Task sampleTask;
+    private volatile Level level = Level.FULL;
+
+    // MSPT at which each level is entered (FULL is unused)
+    private final double[] thresholds = new double[Level.values().length];
+    private double hysteresis;
+    private double mspt = -1d;
+    private long levelSince = System.nanoTime();
+
+    private final long[] entered = new long[Level.values().length];
+    private final long[] degraded = new long[Level.values().length];
+    private final long[] nanosAt = new long[Level.values().length];
+
+    public LoadMonitor(UnexpectedSpawn plugin) {
+        this.plugin = plugin;
+    }
+
+    /**
+     * Reads the thresholds and (re)starts the sample task, back at full level
+     */
+    public synchronized void start() {
+        stop();
+        thresholds[Level.POOL_ONLY.ordinal()] = plugin.config.getConfig().getDouble("load-monitor.pool-only-mspt");
+        thresholds[Level.NEARBY_ONLY.ordinal()] = plugin.config.getConfig().getDouble("load-monitor.nearby-only-mspt");
+        thresholds[Level.WORLD_SPAWN.ordinal()] = plugin.config.getConfig().getDouble("load-monitor.world-spawn-mspt");
+        // a level can't start below the one before
+        for (int i = Level.NEARBY_ONLY.ordinal(); i < thresholds.length; i++) {
+            thresholds[i] = Math.max(thresholds[i], thresholds[i - 1]);
+        }
+        hysteresis = Math.max(0d, plugin.config.getConfig().getDouble("load-monitor.hysteresis"));
+        mspt = -1d;
+        setLevel(Level.FULL);
+
+        if (plugin.config.getConfig().getBoolean("load-monitor.enabled")) {
+            sampleTask = plugin.scheduler.runGlobalTimer(this::sample, 20, 20);
+            LogConsole.info(() -> "Load monitor started (pool-only " + thresholds[1] + " ms, nearby-only " + thresholds[2]
+                    + " ms, world-spawn " + thresholds[3] + " ms).", LogConsole.logTypes.debug);
+        }
+    }
+
+    public synchronized void stop() {
+        if (sampleTask != null) {
+            sampleTask.cancel();
+            sampleTask = null;
+        }
+    }
+
+    /**
+     * Gets the current level, read by every respawn
+     * @return {@link Level}
+     */
+    Level getLevel() {
+        return level;
+    }
+
+    /**
+     * Counts a respawn (or join) that was handled cheaper than usual because of the level
+     * @param level The level it was handled at
+     */
+    synchronized void recordDegraded(Level level) {
+        degraded[level.ordinal()]++;
+    }
+
+    private synchronized void sample() {
+        double current;
+        try {
+            current = plugin.getServer().getAverageTickTime();
+        } catch (UnsupportedOperationException e) {
+            // no global tick time (Folia), stay at full level
+            LogConsole.warn("The server doesn't report its tick time, the load monitor is disabled.", LogConsole.logTypes.log);
+            stop();
+            return;
+        }
+        mspt = mspt < 0d ? current : mspt * 0.7d + current * 0.3d;
+
+        Level next = level;
+        while (next != Level.WORLD_SPAWN && mspt >= thresholds[next.ordinal() + 1]) {
+            next = Level.values()[next.ordinal() + 1];
+        }
+        while (next != Level.FULL && mspt < thresholds[next.ordinal()] - hysteresis) {
+            next = Level.values()[next.ordinal() - 1];
+        }
+        if (next != level) {
+            LogConsole.warn(String.format("Server tick time is %.1f ms, spawn search level %s -> %s.", mspt, level.label, next.label), LogConsole.logTypes.log);
+            entered[next.ordinal()]++;
+            setLevel(next);
+        }
+    }
+
+    private void setLevel(Level next) {
+        long now = System.nanoTime();
+        nanosAt[level.ordinal()] += now - levelSince;
+        levelSince = now;
+        level = next;
+    }
+
+    /**
+     * Gets the status lines of the monitor (used by the stats command)
+     * @return {@link List<String>}
+     */
+    public synchronized List<String> getStatus() {
+        List<String> lines = new ArrayList<>();
+        if (sampleTask == null) {
+            lines.add("&8Load monitor disabled");
+            return lines;
+        }
+        lines.add("&8Load monitor : &f" + (mspt < 0d ? "-" : String.format("%.1f ms", mspt)) + " &8per tick, level &f" + level.label);
+        for (Level each : Level.values()) {
+            if (each == Level.FULL) {
+                continue;
+            }
+            long nanos = nanosAt[each.ordinal()] + (each == level ? System.nanoTime() - levelSince : 0L);
+            lines.add("&8  " + each.label + " (" + thresholds[each.ordinal()] + " ms) entered &f" + entered[each.ordinal()]
+                    + " &8times, &f" + nanos / 60_000_000_000L + " &8min, respawns &f" + degraded[each.ordinal()]);
+        }
+        return lines;
+    }
+
+}
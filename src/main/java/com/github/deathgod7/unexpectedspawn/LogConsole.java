@@ -22,6 +22,13 @@ package com.github.deathgod7.unexpectedspawn;
 
 import org.bukkit.Bukkit;
 
+import java.util.function.Supplier;
+
+/**
+ * Plugin logging. "log" messages go to the server console, "debug" messages only when debug mode is on, to the
+ * rolling debug log file (see {@link DebugLogWriter}). Use the {@link Supplier} or template ("{}") overloads for debug
+ * messages, the message is then only built when debug mode is on.
+ */
 public class LogConsole {
 
     static String logPrefix = "[UnexpectedSpawn] ";
@@ -29,11 +36,54 @@ public class LogConsole {
         log,
         debug
     }
-    public static Boolean debugMode = UnexpectedSpawn.getPlugin(UnexpectedSpawn.class).getConfig().getBoolean("debug");
+    public static volatile boolean debugMode = false;
+    private static DebugLogWriter debugLog;
+
+    /**
+     * Re-reads the debug settings from config and (re)starts the debug log writer (on enable / reload)
+     * @param plugin The plugin instance
+     */
+    static synchronized void reload(UnexpectedSpawn plugin) {
+        shutdown();
+        debugMode = plugin.config.getConfig().getBoolean("debug");
+        if (debugMode) {
+            debugLog = new DebugLogWriter(plugin.getDataFolder().toPath().resolve("logs"),
+                    plugin.config.getConfig().getInt("debug-log.queue-size"),
+                    plugin.config.getConfig().getInt("debug-log.max-file-size") * 1024L,
+                    plugin.config.getConfig().getInt("debug-log.max-files"));
+            debugLog.start();
+        }
+    }
+
+    /**
+     * Stops the debug log writer, queued messages are still written
+     */
+    static synchronized void shutdown() {
+        if (debugLog != null) {
+            debugLog.stop();
+            debugLog = null;
+        }
+    }
+
+    /**
+     * Checks if messages of type are written at all
+     * @param logType The type to check
+     * @return {@link boolean}
+     */
+    public static boolean isEnabled(logTypes logType) {
+        return logType == logTypes.log || debugMode;
+    }
+
+    private static void debug(String level, String msg) {
+        DebugLogWriter writer = debugLog;
+        if (writer != null) {
+            writer.offer(level, msg);
+        }
+    }
 
     public static void severe(String msg, logTypes logType) {
         if (logType == logTypes.debug) {
-            if (debugMode) { Bukkit.getLogger().severe(logPrefix + msg); }
+            if (debugMode) { debug("SEVERE", msg); }
         }
         else if (logType == logTypes.log) {
             Bukkit.getLogger().severe(logPrefix + msg);
@@ -42,7 +92,7 @@ public class LogConsole {
 
     public static void warn(String msg, logTypes logType) {
         if (logType == logTypes.debug) {
-            if (debugMode) { Bukkit.getLogger().warning(logPrefix + msg); }
+            if (debugMode) { debug("WARN", msg); }
         }
         else if (logType == logTypes.log) {
             Bukkit.getLogger().warning(logPrefix + msg);
@@ -51,11 +101,67 @@ public class LogConsole {
 
     public static void info(String msg, logTypes logType) {
         if (logType == logTypes.debug) {
-            if (debugMode) { Bukkit.getLogger().info(logPrefix + msg); }
+            if (debugMode) { debug("INFO", msg); }
         }
         else if (logType == logTypes.log) {
             Bukkit.getLogger().info(logPrefix + msg);
         }
     }
 
+    public static void severe(Supplier<String> msg, logTypes logType) {
+        if (isEnabled(logType)) { severe(msg.get(), logType); }
+    }
+
+    public static void warn(Supplier<String> msg, logTypes logType) {
+        if (isEnabled(logType)) { warn(msg.get(), logType); }
+    }
+
+    public static void info(Supplier<String> msg, logTypes logType) {
+        if (isEnabled(logType)) { info(msg.get(), logType); }
+    }
+
+    // fixed arities, so a disabled message doesn't even allocate the varargs array
+
+    public static void warn(String template, Object arg1, logTypes logType) {
+        if (isEnabled(logType)) { warn(format(template, arg1, null, null), logType); }
+    }
+
+    public static void warn(String template, Object arg1, Object arg2, logTypes logType) {
+        if (isEnabled(logType)) { warn(format(template, arg1, arg2, null), logType); }
+    }
+
+    public static void warn(String template, Object arg1, Object arg2, Object arg3, logTypes logType) {
+        if (isEnabled(logType)) { warn(format(template, arg1, arg2, arg3), logType); }
+    }
+
+    public static void info(String template, Object arg1, logTypes logType) {
+        if (isEnabled(logType)) { info(format(template, arg1, null, null), logType); }
+    }
+
+    public static void info(String template, Object arg1, Object arg2, logTypes logType) {
+        if (isEnabled(logType)) { info(format(template, arg1, arg2, null), logType); }
+    }
+
+    public static void info(String template, Object arg1, Object arg2, Object arg3, logTypes logType) {
+        if (isEnabled(logType)) { info(format(template, arg1, arg2, arg3), logType); }
+    }
+
+    /**
+     * Replaces the "{}" of template with the arguments, in order
+     * @return {@link String}
+     */
+    static String format(String template, Object arg1, Object arg2, Object arg3) {
+        StringBuilder builder = new StringBuilder(template.length() + 32);
+        int argument = 0;
+        int start = 0;
+        int index;
+        while ((index = template.indexOf("{}", start)) >= 0 && argument < 3) {
+            builder.append(template, start, index);
+            builder.append(argument == 0 ? arg1 : argument == 1 ? arg2 : arg3);
+            argument++;
+            start = index + 2;
+        }
+        return builder.append(template, start, template.length()).toString();
+    }
+
 }
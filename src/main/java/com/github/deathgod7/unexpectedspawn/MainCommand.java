@@ -25,15 +25,19 @@ import org.bukkit.Location;
 import org.bukkit.Material;
 import org.bukkit.World;
 import org.bukkit.command.*;
+import org.bukkit.entity.Entity;
 import org.bukkit.entity.Player;
 import org.bukkit.util.StringUtil;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ThreadLocalRandom;
 
 import static com.github.deathgod7.unexpectedspawn.Utils.*;
@@ -66,10 +70,34 @@ public class MainCommand implements CommandExecutor, TabCompleter {
                 // trigger reload
                 return ReloadPlugin(sender, args);
             }
+            else if (args[0].equalsIgnoreCase("rtp-all")) {
+                // trigger rtp of many players
+                return RandomTPAll(sender, args);
+            }
             else if (args[0].equalsIgnoreCase("randomtp") || args[0].equalsIgnoreCase("rtp")) {
                 //trigger rtp
                 return RandomTP(sender, args);
             }
+            else if (args[0].equalsIgnoreCase("pool")) {
+                // trigger pool status
+                return PoolStatus(sender, args);
+            }
+            else if (args[0].equalsIgnoreCase("queue")) {
+                // trigger search queue status
+                return QueueStatus(sender, args);
+            }
+            else if (args[0].equalsIgnoreCase("stats")) {
+                // trigger metrics
+                return Stats(sender, args);
+            }
+            else if (args[0].equalsIgnoreCase("index")) {
+                // trigger region file scan
+                return BuildIndex(sender, args);
+            }
+            else if (args[0].equalsIgnoreCase("spawns")) {
+                // trigger spawn store status / export / import
+                return SpawnStore(sender, args);
+            }
             else {
                 // By returning false, server will send out available commands.
                 return !sender.hasPermission("unexpectedspawn.use");
@@ -84,6 +112,12 @@ public class MainCommand implements CommandExecutor, TabCompleter {
 			String mainHelpMsg = "Use /<command> help [subcommand] for more information\n" +
 					"/<command> help = Brings this help menu\n" +
 					"/<command> randomtp = Used to force random tp\n" +
+					"/<command> rtp-all = Scatters many players at once\n" +
+					"/<command> pool = Shows the spawn pool status\n" +
+					"/<command> queue = Shows the search queue status\n" +
+					"/<command> stats = Shows the spawn search metrics\n" +
+					"/<command> index = Builds the safe spawn index of a world\n" +
+					"/<command> spawns = Shows, exports or imports the saved spawnpoints\n" +
 					"/<command> reload = Reloads the plugin";
 			sender.sendMessage(mainHelpMsg.replace("<command>", label));
 		}
@@ -94,6 +128,27 @@ public class MainCommand implements CommandExecutor, TabCompleter {
 						"[...] = Required if command is from console\n" +
 						"Example : /<command> " + args[1].toLowerCase() + " w:myworld xmin:-250 xmax:500 zmin:-500 zmax:250 p:Steve";
 				sender.sendMessage(mainHelpMsg.replace("<command>", label));
+			}
+			else if (args[1].equalsIgnoreCase("rtp-all")) {
+				String mainHelpMsg = "Syntax : /<command> rtp-all <w:worldname> <xmin:value> <xmax:value> <zmin:value> <zmax:value> <distance:value> <p:all|selector> <perm:permission>\n" +
+						"Teleports every matching player to a random place, at least distance blocks apart.\n" +
+						"<...> = Optional, world is required if command is from console\n" +
+						"Example : /<command> rtp-all w:myworld distance:100 p:@a[team=red] perm:event.join";
+				sender.sendMessage(mainHelpMsg.replace("<command>", label));
+			}
+			else if (args[1].equalsIgnoreCase("index")) {
+				String mainHelpMsg = "Syntax : /<command> index <w:worldname> <threads:value>\n" +
+						"Reads the region files of the world (without loading chunks) and remembers which chunks have safe spots.\n" +
+						"<...> = Optional, world is required if command is from console\n" +
+						"Example : /<command> index w:myworld threads:4";
+				sender.sendMessage(mainHelpMsg.replace("<command>", label));
+			}
+			else if (args[1].equalsIgnoreCase("spawns")) {
+				String mainHelpMsg = "Syntax : /<command> spawns <export|import> <file>\n" +
+						"Shows the spawn store, or copies every saved spawnpoint to / from a file in the exports folder.\n" +
+						"Export from the old store, change spawn-store.type, reload and import to move them.\n" +
+						"Example : /<command> spawns export spawns.txt";
+				sender.sendMessage(mainHelpMsg.replace("<command>", label));
 			} else {
 				sender.sendMessage("Do you really need help for other commands? Like really??");
 			}
@@ -107,13 +162,280 @@ public class MainCommand implements CommandExecutor, TabCompleter {
         else {
             if (sender.hasPermission("unexpectedspawn.use.reload")) {
                 plugin.config.reloadConfig();
+                LogConsole.reload(plugin);
+                plugin.profiles.reload();
+                plugin.reloadCaches();
+                // drops the open index files, the spawn rules may have changed
+                plugin.spawnIndex.start();
+                plugin.searchScheduler.start();
+                plugin.spawnPool.start();
+                plugin.metrics.start();
+                plugin.loadMonitor.start();
+                plugin.spawnPoints.start();
                 sender.sendMessage(Utils.colorize("&8UnexpectedSpawn reloaded!"));
                 return true;
             }
         }
         return true;
     }
+
+    private boolean PoolStatus(CommandSender sender, String[] args) {
+        if (args.length > 1) {
+            return !sender.hasPermission("unexpectedspawn.use.pool");
+        }
+        if (sender.hasPermission("unexpectedspawn.use.pool")) {
+            for (String line : plugin.spawnPool.getStatus()) {
+                sender.sendMessage(Utils.colorize(line));
+            }
+        }
+        return true;
+    }
+
+    private boolean QueueStatus(CommandSender sender, String[] args) {
+        if (args.length > 1) {
+            return !sender.hasPermission("unexpectedspawn.use.queue");
+        }
+        if (sender.hasPermission("unexpectedspawn.use.queue")) {
+            for (String line : plugin.searchScheduler.getStatus()) {
+                sender.sendMessage(Utils.colorize(line));
+            }
+        }
+        return true;
+    }
+
+    private boolean Stats(CommandSender sender, String[] args) {
+        if (args.length > 1) {
+            return !sender.hasPermission("unexpectedspawn.use.stats");
+        }
+        if (sender.hasPermission("unexpectedspawn.use.stats")) {
+            for (String line : plugin.metrics.getStatus()) {
+                sender.sendMessage(Utils.colorize(line));
+            }
+            for (String line : plugin.spawnIndex.getStatus()) {
+                sender.sendMessage(Utils.colorize(line));
+            }
+            for (String line : plugin.generations.getStatus()) {
+                sender.sendMessage(Utils.colorize(line));
+            }
+            for (String line : plugin.loadMonitor.getStatus()) {
+                sender.sendMessage(Utils.colorize(line));
+            }
+        }
+        return true;
+    }
+
+    private boolean BuildIndex(CommandSender sender, String[] args) {
+		if (sender.hasPermission("unexpectedspawn.use.index")) {
+			// <command> index w:worldname threads:value
+			String stringWorld = null;
+			int threads = 0;
+			for (String arg : args) {
+				String formattedArg = arg.toLowerCase();
+				if (formattedArg.startsWith("w:")) {
+					stringWorld = arg.substring(2);
+				}
+				else if (formattedArg.startsWith("threads:")) {
+					try {
+						threads = Integer.parseInt(arg.substring(8));
+					} catch (NumberFormatException e) {
+						sender.sendMessage("Threads must be a number.");
+						return false;
+					}
+				}
+			}
+
+			World world;
+			if (stringWorld != null) {
+				world = plugin.getServer().getWorld(stringWorld);
+			}
+			else if (sender instanceof Player) {
+				world = ((Player) sender).getWorld();
+			}
+			else {
+				sender.sendMessage("Must include world if sent from console!");
+				return false;
+			}
+			if (world == null) {
+				sender.sendMessage("Couldn't find the world. Please check again.");
+				return false;
+			}
+
+			CompletableFuture<RegionScanner.Result> scan = plugin.spawnIndex.scan(world, threads);
+			if (scan == null) {
+				sender.sendMessage("The region files of " + world.getName() + " are already being scanned.");
+				return true;
+			}
+			sender.sendMessage("Scanning the region files of " + world.getName() + "...");
+			scan.whenComplete((result, ex) -> {
+				if (ex != null) {
+					LogConsole.warn("Couldn't build the spawn index of " + world.getName() + " : " + ex.getMessage(), LogConsole.logTypes.log);
+					sender.sendMessage("Couldn't build the spawn index of " + world.getName() + ", check the console.");
+					return;
+				}
+				LogConsole.info("Built the spawn index of {} : {}", world.getName(), result, LogConsole.logTypes.log);
+				sender.sendMessage("Indexed " + world.getName() + " : " + result);
+			});
+		}
+        return true;
+    }
 	
+    private boolean SpawnStore(CommandSender sender, String[] args) {
+		if (sender.hasPermission("unexpectedspawn.use.spawns")) {
+			// <command> spawns [export|import <file>]
+			if (args.length == 1) {
+				for (String line : plugin.spawnPoints.getStatus()) {
+					sender.sendMessage(Utils.colorize(line));
+				}
+				return true;
+			}
+			boolean export = args[1].equalsIgnoreCase("export");
+			if (!export && !args[1].equalsIgnoreCase("import")) {
+				return false;
+			}
+			if (args.length != 3) {
+				sender.sendMessage("Must include the file name!");
+				return false;
+			}
+
+			// only files of the exports folder
+			Path folder = plugin.getDataFolder().toPath().resolve("exports").normalize();
+			Path file = folder.resolve(args[2]).normalize();
+			if (!file.startsWith(folder) || file.equals(folder)) {
+				sender.sendMessage("The file must be inside the exports folder.");
+				return false;
+			}
+			if (!export && !Files.isRegularFile(file)) {
+				sender.sendMessage("Couldn't find " + args[2] + " in the exports folder.");
+				return false;
+			}
+
+			CompletableFuture<Integer> task = export ? plugin.spawnPoints.exportTo(file) : plugin.spawnPoints.importFrom(file);
+			sender.sendMessage((export ? "Exporting" : "Importing") + " the saved spawnpoints...");
+			task.whenComplete((count, ex) -> {
+				if (ex != null) {
+					LogConsole.warn("Couldn't " + args[1].toLowerCase() + " the saved spawnpoints : " + ex.getMessage(), LogConsole.logTypes.log);
+					sender.sendMessage("Couldn't " + args[1].toLowerCase() + " the saved spawnpoints, check the console.");
+					return;
+				}
+				LogConsole.info("{} {} saved spawnpoints ({})", export ? "Exported" : "Imported", count, file.getFileName(), LogConsole.logTypes.log);
+				sender.sendMessage((export ? "Exported " : "Imported ") + count + " saved spawnpoints.");
+			});
+		}
+        return true;
+    }
+
+    private boolean RandomTPAll(CommandSender sender, String[] args) {
+		if (sender.hasPermission("unexpectedspawn.use.rtpall")) {
+			// <command> rtp-all w:worldname xmin:value xmax:value zmin:value zmax:value distance:value p:all|selector perm:permission
+			String stringWorld = null;
+			String stringXMin = null;
+			String stringXMax = null;
+			String stringZMin = null;
+			String stringZMax = null;
+			String stringPlayers = "all";
+			String permission = null;
+			int minDistance = plugin.config.getConfig().getInt("rtp-all.min-distance");
+
+			for (String arg : args) {
+				String formattedArg = arg.toLowerCase();
+				if (formattedArg.startsWith("w:")) {
+					stringWorld = arg.substring(2);
+				}
+				else if (formattedArg.startsWith("xmin:")) {
+					stringXMin = arg.substring(5);
+				}
+				else if (formattedArg.startsWith("xmax:")) {
+					stringXMax = arg.substring(5);
+				}
+				else if (formattedArg.startsWith("zmin:")) {
+					stringZMin = arg.substring(5);
+				}
+				else if (formattedArg.startsWith("zmax:")) {
+					stringZMax = arg.substring(5);
+				}
+				else if (formattedArg.startsWith("distance:")) {
+					try {
+						minDistance = Integer.parseInt(arg.substring(9));
+					} catch (NumberFormatException e) {
+						sender.sendMessage("Distance must be a number.");
+						return false;
+					}
+				}
+				else if (formattedArg.startsWith("p:")) {
+					stringPlayers = arg.substring(2);
+				}
+				else if (formattedArg.startsWith("perm:")) {
+					permission = arg.substring(5);
+				}
+			}
+
+			World world;
+			if (stringWorld != null) {
+				world = plugin.getServer().getWorld(stringWorld);
+			}
+			else if (sender instanceof Player) {
+				world = ((Player) sender).getWorld();
+			}
+			else {
+				sender.sendMessage("Must include world if sent from console!");
+				return false;
+			}
+			if (world == null) {
+				sender.sendMessage("Couldn't find the world. Please check again.");
+				return false;
+			}
+
+			// players
+			List<Player> players = new ArrayList<>();
+			if (stringPlayers.equalsIgnoreCase("all")) {
+				players.addAll(plugin.getServer().getOnlinePlayers());
+			}
+			else {
+				try {
+					for (Entity entity : Bukkit.selectEntities(sender, stringPlayers)) {
+						if (entity instanceof Player) {
+							players.add((Player) entity);
+						}
+					}
+				} catch (IllegalArgumentException e) {
+					sender.sendMessage("Invalid player selector : " + e.getMessage());
+					return false;
+				}
+			}
+			if (permission != null) {
+				String node = permission;
+				players.removeIf(player -> !player.hasPermission(node));
+			}
+			if (players.isEmpty()) {
+				sender.sendMessage("No player to teleport.");
+				return true;
+			}
+			// the first spots found are the most spread, don't always give them to the same players
+			Collections.shuffle(players);
+
+			int xmin = getAreaValue(stringXMin, ConfigVariable.XMin, world);
+			int xmax = getAreaValue(stringXMax, ConfigVariable.XMax, world);
+			int zmin = getAreaValue(stringZMin, ConfigVariable.ZMin, world);
+			int zmax = getAreaValue(stringZMax, ConfigVariable.ZMax, world);
+			long maxMillis = Math.max(1, plugin.config.getConfig().getInt("rtp-all.max-seconds")) * 1000L;
+			int waveSize = plugin.config.getConfig().getInt("rtp-all.wave-size");
+			int waveInterval = plugin.config.getConfig().getInt("rtp-all.wave-interval");
+
+			sender.sendMessage("Searching " + players.size() + " random places in " + world.getName() + "...");
+			new BatchSpawnSearch(xmin, xmax, zmin, zmax, world, players.size(), minDistance, maxMillis).start().thenAccept(locations -> {
+				if (locations.isEmpty()) {
+					sender.sendMessage("Couldn't find any random place, nobody was teleported.");
+					return;
+				}
+				if (locations.size() < players.size()) {
+					sender.sendMessage("Found only " + locations.size() + " random places, " + (players.size() - locations.size()) + " players won't be teleported.");
+				}
+				new TeleportWaves(sender, world, players, locations, waveSize).start(waveInterval);
+			});
+		}
+        return true;
+    }
+
     private boolean RandomTP(CommandSender sender, String[] args) {
 		if (sender.hasPermission("unexpectedspawn.use.randomtp")) {
 			// <command> randomtp w:worldname xmin:value xmax:value zmin:value zmax:value p:player
@@ -148,12 +470,12 @@ public class MainCommand implements CommandExecutor, TabCompleter {
 			}
 
 			LogConsole.info("[ARGS]", LogConsole.logTypes.debug);
-			LogConsole.info("World Name: " + stringWorld, LogConsole.logTypes.debug);
-			LogConsole.info("X Min: " + stringXMin, LogConsole.logTypes.debug);
-			LogConsole.info("X Max: " + stringXMax, LogConsole.logTypes.debug);
-			LogConsole.info("Z Min: " + stringZMin, LogConsole.logTypes.debug);
-			LogConsole.info("Z Max: " + stringZMax, LogConsole.logTypes.debug);
-			LogConsole.info("Player Name: " + stringPlayer, LogConsole.logTypes.debug);
+			LogConsole.info("World Name: {}", stringWorld, LogConsole.logTypes.debug);
+			LogConsole.info("X Min: {}", stringXMin, LogConsole.logTypes.debug);
+			LogConsole.info("X Max: {}", stringXMax, LogConsole.logTypes.debug);
+			LogConsole.info("Z Min: {}", stringZMin, LogConsole.logTypes.debug);
+			LogConsole.info("Z Max: {}", stringZMax, LogConsole.logTypes.debug);
+			LogConsole.info("Player Name: {}", stringPlayer, LogConsole.logTypes.debug);
 			
 			// values
 			World world;
@@ -203,16 +525,27 @@ public class MainCommand implements CommandExecutor, TabCompleter {
 			zmin = getAreaValue(stringZMin, ConfigVariable.ZMin, world);
 			zmax = getAreaValue(stringZMax, ConfigVariable.ZMax, world);
 
-			// get random location
-			Location randomLocation = getRandomSpawnLocation(xmin, xmax, zmin, zmax, world);
+			// pooled locations are only valid for the configured area
+			Location pooled = null;
+			if (stringXMin == null && stringXMax == null && stringZMin == null && stringZMax == null) {
+				pooled = plugin.spawnPool.take(world);
+			}
+
+			// get random location (chunks are loaded async, result comes back on main thread)
+			CompletableFuture<Location> search = pooled != null ? CompletableFuture.completedFuture(pooled) : getRandomSpawnLocationAsync(xmin, xmax, zmin, zmax, world);
+			search.thenAccept(randomLocation -> plugin.scheduler.runFor(player, () -> {
+				if (!player.isOnline()) {
+					return;
+				}
 
-			// teleport user to it
-			player.teleport(randomLocation);
-			LogConsole.warn("Player " + player.getName() + " has been thrown at random place to be tarnished and become maidenless!", LogConsole.logTypes.debug);
-			sender.sendMessage("Player " + player.getName() + " has been teleported randomly!");
+				// teleport user to it
+				player.teleportAsync(randomLocation);
+				LogConsole.warn("Player {} has been thrown at random place to be tarnished and become maidenless!", player.getName(), LogConsole.logTypes.debug);
+				sender.sendMessage("Player " + player.getName() + " has been teleported randomly!");
 
-			// add invulnerable to the player
-			addInvulnerable(player, world);
+				// add invulnerable to the player
+				addInvulnerable(player, world);
+			}));
 
 		}
 
@@ -240,6 +573,30 @@ public class MainCommand implements CommandExecutor, TabCompleter {
 				subcommands.add("randomtp");
 			}
 
+			if (sender.hasPermission("unexpectedspawn.use.rtpall")) {
+				subcommands.add("rtp-all");
+			}
+
+			if (sender.hasPermission("unexpectedspawn.use.pool")) {
+				subcommands.add("pool");
+			}
+
+			if (sender.hasPermission("unexpectedspawn.use.queue")) {
+				subcommands.add("queue");
+			}
+
+			if (sender.hasPermission("unexpectedspawn.use.stats")) {
+				subcommands.add("stats");
+			}
+
+			if (sender.hasPermission("unexpectedspawn.use.index")) {
+				subcommands.add("index");
+			}
+
+			if (sender.hasPermission("unexpectedspawn.use.spawns")) {
+				subcommands.add("spawns");
+			}
+
 			return StringUtil.copyPartialMatches(strings[0], subcommands, new ArrayList<>());
 		} else if (strings.length >= 2 && (strings[0].equalsIgnoreCase("rtp") || strings[0].equalsIgnoreCase("randomtp")) ) {
 			List<String> subcommands = new ArrayList<>();
@@ -255,6 +612,42 @@ public class MainCommand implements CommandExecutor, TabCompleter {
 			}
 
 			return StringUtil.copyPartialMatches(strings[strings.length - 1], subcommands, new ArrayList<>());
+		} else if (strings.length >= 2 && strings[0].equalsIgnoreCase("rtp-all")) {
+			List<String> subcommands = new ArrayList<>();
+
+			// <command> rtp-all w:worldname xmin:value xmax:value zmin:value zmax:value distance:value p:all|selector perm:permission
+			if (sender.hasPermission("unexpectedspawn.use.rtpall")) {
+				subcommands.add("w:");
+				subcommands.add("xmin:");
+				subcommands.add("xmax:");
+				subcommands.add("zmin:");
+				subcommands.add("zmax:");
+				subcommands.add("distance:");
+				subcommands.add("p:");
+				subcommands.add("perm:");
+			}
+
+			return StringUtil.copyPartialMatches(strings[strings.length - 1], subcommands, new ArrayList<>());
+		} else if (strings.length >= 2 && strings[0].equalsIgnoreCase("index")) {
+			List<String> subcommands = new ArrayList<>();
+
+			// <command> index w:worldname threads:value
+			if (sender.hasPermission("unexpectedspawn.use.index")) {
+				subcommands.add("w:");
+				subcommands.add("threads:");
+			}
+
+			return StringUtil.copyPartialMatches(strings[strings.length - 1], subcommands, new ArrayList<>());
+		} else if (strings.length == 2 && strings[0].equalsIgnoreCase("spawns")) {
+			List<String> subcommands = new ArrayList<>();
+
+			// <command> spawns export|import file
+			if (sender.hasPermission("unexpectedspawn.use.spawns")) {
+				subcommands.add("export");
+				subcommands.add("import");
+			}
+
+			return StringUtil.copyPartialMatches(strings[1], subcommands, new ArrayList<>());
 		}
 
 		return Collections.emptyList();
@@ -0,0 +1,128 @@
+/*
+ * This file is part of UnexpectedSpawn
+ * (see https://github.com/DeathGOD7/unexpectedspawn-paper).
+ *
+ * Copyright (c) 2023 DeathGOD7, Shivelight
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.deathgod7.unexpectedspawn;
+
+import org.bukkit.Material;
+
+import java.util.Arrays;
+import java.util.Set;
+
+/**
+ * Precomputed classification of every material, indexed by {@link Material#ordinal()}. Classifying a block is a single
+ * array read. Immutable once built, so it can be shared between threads.
+ */
+public final class MaterialTable {
+
+    static final byte AIR = 1;
+    static final byte SOLID = 1 << 1;
+    static final byte LIQUID = 1 << 2;
+    /** Blacklisted, or not whitelisted when invert-block-blacklist is on */
+    static final byte SPAWN_BLOCKED = 1 << 3;
+    /** Hurts a player standing in or on it */
+    static final byte DANGEROUS = 1 << 4;
+    /** Can be stood on: not air and not spawn blocked */
+    static final byte SAFE_FLOOR = 1 << 5;
+    /** Player can stand in it: not solid and not dangerous */
+    static final byte SAFE_BODY = 1 << 6;
+
+    private final byte[] flags;
+    private final int fingerprint;
+
+    /**
+     * Builds the table of a world profile
+     * @param blacklist The spawn block blacklist (or whitelist if inverted)
+     * @param inverted Status of invert (true then whitelist, false then blacklist)
+     * @param dangerous The materials that hurt a player
+     */
+    @SuppressWarnings("deprecation")
+    MaterialTable(Set<Material> blacklist, boolean inverted, Set<Material> dangerous) {
+        Material[] materials = Material.values();
+        flags = new byte[materials.length];
+        for (Material material : materials) {
+            if (material.isLegacy()) {
+                continue;
+            }
+
+            int value = 0;
+            boolean air = material.isAir();
+            boolean solid = material.isSolid();
+            boolean blocked = blacklist.contains(material) != inverted;
+            boolean danger = dangerous.contains(material);
+
+            if (air) value |= AIR;
+            if (solid) value |= SOLID;
+            if (material == Material.WATER || material == Material.LAVA || material == Material.BUBBLE_COLUMN) value |= LIQUID;
+            if (blocked) value |= SPAWN_BLOCKED;
+            if (danger) value |= DANGEROUS;
+            if (!air && !blocked) value |= SAFE_FLOOR;
+            if (!solid && !danger) value |= SAFE_BODY;
+
+            flags[material.ordinal()] = (byte) value;
+        }
+        fingerprint = Arrays.hashCode(flags);
+    }
+
+    /**
+     * Gets a hash of every flag, changes when the spawn block settings give another classification
+     * @return {@link int}
+     */
+    public int getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * Gets all flags of the material
+     * @param material The material to classify
+     * @return {@link byte}
+     */
+    public byte get(Material material) {
+        return flags[material.ordinal()];
+    }
+
+    public boolean isAir(Material material) {
+        return (flags[material.ordinal()] & AIR) != 0;
+    }
+
+    public boolean isSolid(Material material) {
+        return (flags[material.ordinal()] & SOLID) != 0;
+    }
+
+    public boolean isLiquid(Material material) {
+        return (flags[material.ordinal()] & LIQUID) != 0;
+    }
+
+    public boolean isSpawnBlocked(Material material) {
+        return (flags[material.ordinal()] & SPAWN_BLOCKED) != 0;
+    }
+
+    public boolean isDangerous(Material material) {
+        return (flags[material.ordinal()] & DANGEROUS) != 0;
+    }
+
+    public boolean isSafeFloor(Material material) {
+        return (flags[material.ordinal()] & SAFE_FLOOR) != 0;
+    }
+
+    public boolean isSafeBody(Material material) {
+        return (flags[material.ordinal()] & SAFE_BODY) != 0;
+    }
+
+}
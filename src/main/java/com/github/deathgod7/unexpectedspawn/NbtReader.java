@@ -0,0 +1,145 @@
+/*
+ * This file is part of UnexpectedSpawn
+ * (see https://github.com/DeathGOD7/unexpectedspawn-paper).
+ *
+ * Copyright (c) 2023 DeathGOD7, Shivelight
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.deathgod7.unexpectedspawn;
+
+import java.io.DataInput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Minimal reader of the (uncompressed) NBT format used by the region files. Compounds become {@link Map}, lists become
+ * {@link List}, numbers are boxed and arrays stay primitive arrays.
+ */
+final class NbtReader {
+
+    private static final byte TAG_END = 0;
+    private static final byte TAG_BYTE = 1;
+    private static final byte TAG_SHORT = 2;
+    private static final byte TAG_INT = 3;
+    private static final byte TAG_LONG = 4;
+    private static final byte TAG_FLOAT = 5;
+    private static final byte TAG_DOUBLE = 6;
+    private static final byte TAG_BYTE_ARRAY = 7;
+    private static final byte TAG_STRING = 8;
+    private static final byte TAG_LIST = 9;
+    private static final byte TAG_COMPOUND = 10;
+    private static final byte TAG_INT_ARRAY = 11;
+    private static final byte TAG_LONG_ARRAY = 12;
+
+    // chunks are a few levels deep, anything deeper is a broken file
+    private static final int MAX_DEPTH = 64;
+
+    private NbtReader() {
+    }
+
+    /**
+     * Reads the root compound
+     * @param input The uncompressed NBT data
+     * @return {@link Map} of the root compound
+     * @throws IOException if the data is not a valid compound
+     */
+    static Map<String, Object> readRoot(DataInput input) throws IOException {
+        byte type = input.readByte();
+        if (type != TAG_COMPOUND) {
+            throw new IOException("Root tag is not a compound (" + type + ")");
+        }
+        input.readUTF();
+        return readCompound(input, 0);
+    }
+
+    private static Map<String, Object> readCompound(DataInput input, int depth) throws IOException {
+        Map<String, Object> compound = new HashMap<>();
+        while (true) {
+            byte type = input.readByte();
+            if (type == TAG_END) {
+                return compound;
+            }
+            String name = input.readUTF();
+            compound.put(name, readPayload(input, type, depth + 1));
+        }
+    }
+
+    private static Object readPayload(DataInput input, byte type, int depth) throws IOException {
+        if (depth > MAX_DEPTH) {
+            throw new IOException("NBT is nested too deep");
+        }
+        switch (type) {
+            case TAG_BYTE:
+                return input.readByte();
+            case TAG_SHORT:
+                return input.readShort();
+            case TAG_INT:
+                return input.readInt();
+            case TAG_LONG:
+                return input.readLong();
+            case TAG_FLOAT:
+                return input.readFloat();
+            case TAG_DOUBLE:
+                return input.readDouble();
+            case TAG_BYTE_ARRAY: {
+                byte[] array = new byte[checkLength(input.readInt())];
+                input.readFully(array);
+                return array;
+            }
+            case TAG_STRING:
+                return input.readUTF();
+            case TAG_LIST: {
+                byte elementType = input.readByte();
+                int length = input.readInt();
+                List<Object> list = new ArrayList<>(Math.max(0, Math.min(length, 1024)));
+                for (int i = 0; i < length; i++) {
+                    list.add(readPayload(input, elementType, depth + 1));
+                }
+                return list;
+            }
+            case TAG_COMPOUND:
+                return readCompound(input, depth);
+            case TAG_INT_ARRAY: {
+                int[] array = new int[checkLength(input.readInt())];
+                for (int i = 0; i < array.length; i++) {
+                    array[i] = input.readInt();
+                }
+                return array;
+            }
+            case TAG_LONG_ARRAY: {
+                long[] array = new long[checkLength(input.readInt())];
+                for (int i = 0; i < array.length; i++) {
+                    array[i] = input.readLong();
+                }
+                return array;
+            }
+            default:
+                throw new IOException("Unknown NBT tag " + type);
+        }
+    }
+
+    private static int checkLength(int length) throws IOException {
+        // a chunk is at most 1 MB compressed, bigger arrays mean a broken file
+        if (length < 0 || length > (1 << 24)) {
+            throw new IOException("Invalid NBT array length " + length);
+        }
+        return length;
+    }
+
+}
@@ -0,0 +1,320 @@
+/*
+ * This file is part of UnexpectedSpawn
+ * (see https://github.com/DeathGOD7/unexpectedspawn-paper).
+ *
+ * Copyright (c) 2023 DeathGOD7, Shivelight
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.deathgod7.unexpectedspawn;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static com.github.deathgod7.unexpectedspawn.Utils.*;
+
+/**
+ * Finds a safe spot near a spawnpoint that became unsafe (used on respawn). Chunks are visited in a spiral around the
+ * spawnpoint, ring by ring as the radius grows, and every column of a visited chunk is checked, so one chunk is worth
+ * up to 256 random samples. Chunks already loaded (or cached) are checked first, then only a few chunks are loaded per
+ * radius (none when built without chunk loads). Radii are rounded to whole chunks. Runs on the thread owning the
+ * spawnpoint (main thread on Paper), one instance per respawn.
+ */
+final class NearbySearch {
+
+    // rings bigger than this are sampled evenly along the spiral
+    private static final int MAX_CANDIDATES = 1024;
+    // chunk loads per radius
+    private static final int MAX_CHUNK_LOADS = 2;
+
+    private final Location origin;
+    private final World world;
+    private final WorldSpawnProfile profile;
+    private final int originChunkX;
+    private final int originChunkZ;
+    private final boolean loadChunks;
+    private int nextRing = 0;
+    private int chunkLoads = 0;
+    private int foundRadius = 0;
+
+    /**
+     * @param origin The spawnpoint to search around
+     * @param loadChunks If chunks may be loaded, otherwise only loaded and cached chunks are checked
+     */
+    NearbySearch(Location origin, boolean loadChunks) {
+        this.loadChunks = loadChunks;
+        this.origin = origin;
+        this.world = origin.getWorld();
+        this.profile = getProfile(world);
+        this.originChunkX = origin.getBlockX() >> 4;
+        this.originChunkZ = origin.getBlockZ() >> 4;
+    }
+
+    /**
+     * Checks the rings of chunks not checked yet, up to the radius
+     * @param radius The search radius (blocks)
+     * @return {@link Location} to respawn at, or null if no safe spot was found
+     */
+    Location find(int radius) {
+        int lastRing = radius >> 4;
+        if (lastRing < nextRing) {
+            return null;
+        }
+        long[] candidates = getCandidates(nextRing, lastRing);
+        nextRing = lastRing + 1;
+
+        Location location = scanLoaded(candidates);
+        if (location != null || !loadChunks) {
+            return location;
+        }
+        int loads = 0;
+        for (long candidate : candidates) {
+            if (loads >= MAX_CHUNK_LOADS) {
+                break;
+            }
+            int chunkX = (int) (candidate >> 32);
+            int chunkZ = (int) candidate;
+            if (!mayLoad(chunkX, chunkZ)) {
+                continue;
+            }
+            loads++;
+            chunkLoads++;
+            location = scan(chunkX, chunkZ);
+            if (location != null) {
+                return location;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Same as calling {@link #find} with every radius, but chunks are loaded with
+     * {@link World#getChunkAtAsync(int, int, boolean)} and checked once they are available (used while the player is
+     * on the death screen)
+     * @param radii The search radii, smallest first
+     * @return {@link CompletableFuture} completed with the location to respawn at (see {@link #getFoundRadius()}), or
+     * null if no safe spot was found
+     */
+    CompletableFuture<Location> findAsync(int[] radii) {
+        CompletableFuture<Location> result = new CompletableFuture<>();
+        findNext(radii, 0, result);
+        return result;
+    }
+
+    private void findNext(int[] radii, int index, CompletableFuture<Location> result) {
+        for (; index < radii.length; index++) {
+            int lastRing = radii[index] >> 4;
+            if (lastRing < nextRing) {
+                continue;
+            }
+            long[] candidates = getCandidates(nextRing, lastRing);
+            nextRing = lastRing + 1;
+
+            Location location = scanLoaded(candidates);
+            if (location != null) {
+                foundRadius = radii[index];
+                result.complete(location);
+                return;
+            }
+            if (!loadChunks) {
+                continue;
+            }
+
+            List<CompletableFuture<ChunkColumns>> loads = new ArrayList<>(MAX_CHUNK_LOADS);
+            for (long candidate : candidates) {
+                if (loads.size() >= MAX_CHUNK_LOADS) {
+                    break;
+                }
+                int chunkX = (int) (candidate >> 32);
+                int chunkZ = (int) candidate;
+                if (!mayLoad(chunkX, chunkZ)) {
+                    continue;
+                }
+                chunkLoads++;
+                loads.add(world.getChunkAtAsync(chunkX, chunkZ, true)
+                        .thenApply(chunk -> ChunkColumns.of(chunk.getChunkSnapshot(true, false, false), world))
+                        .exceptionally(ex -> null));
+            }
+            if (loads.isEmpty()) {
+                continue;
+            }
+
+            int radius = radii[index];
+            int nextIndex = index + 1;
+            CompletableFuture.allOf(loads.toArray(new CompletableFuture[0])).whenComplete((ignored, ex) -> {
+                for (CompletableFuture<ChunkColumns> load : loads) {
+                    ChunkColumns columns = load.getNow(null);
+                    Location found = columns == null ? null : scan(columns);
+                    if (found != null) {
+                        foundRadius = radius;
+                        result.complete(found);
+                        return;
+                    }
+                }
+                // the next rings are read from the thread owning the spawnpoint
+                plugin.scheduler.runAt(origin, () -> findNext(radii, nextIndex, result));
+            });
+            return;
+        }
+        result.complete(null);
+    }
+
+    int getChunkLoads() {
+        return chunkLoads;
+    }
+
+    /**
+     * Gets the radius the async search found its location within
+     * @return {@link int}
+     */
+    int getFoundRadius() {
+        return foundRadius;
+    }
+
+    // loaded or cached chunks cost nothing
+    private Location scanLoaded(long[] candidates) {
+        for (long candidate : candidates) {
+            int chunkX = (int) (candidate >> 32);
+            int chunkZ = (int) candidate;
+            if (plugin.heightmaps.get(world, chunkX, chunkZ) != null || world.isChunkLoaded(chunkX, chunkZ)) {
+                Location location = scan(chunkX, chunkZ);
+                if (location != null) {
+                    return location;
+                }
+            }
+        }
+        return null;
+    }
+
+    private boolean mayLoad(int chunkX, int chunkZ) {
+        if (plugin.heightmaps.get(world, chunkX, chunkZ) != null || world.isChunkLoaded(chunkX, chunkZ)) {
+            return false;
+        }
+        // new chunks only while the generation budget of world lasts
+        return world.isChunkGenerated(chunkX, chunkZ) || plugin.generations.tryGenerate(world, null);
+    }
+
+    /**
+     * Gets the chunks of the rings in spiral order (nearest ring first), skipping the ones known to have no safe column
+     * or owned by another region
+     * @return {@link long[]} chunk keys (X in the high half, Z in the low half)
+     */
+    private long[] getCandidates(int firstRing, int lastRing) {
+        long total = 0;
+        for (int ring = firstRing; ring <= lastRing; ring++) {
+            total += ringSize(ring);
+        }
+        long stride = Math.max(1, (total + MAX_CANDIDATES - 1) / MAX_CANDIDATES);
+
+        long[] candidates = new long[(int) Math.min(total, MAX_CANDIDATES)];
+        int count = 0;
+        long next = stride > 1 ? ThreadLocalRandom.current().nextLong(stride) : 0;
+        long ringStart = 0;
+        for (int ring = firstRing; ring <= lastRing && count < candidates.length; ring++) {
+            long size = ringSize(ring);
+            for (; next < ringStart + size && count < candidates.length; next += stride) {
+                int index = (int) (next - ringStart);
+                int chunkX = originChunkX + ringX(ring, index);
+                int chunkZ = originChunkZ + ringZ(ring, index);
+                if (plugin.rejections.isChunkRejected(world, chunkX, chunkZ) || plugin.spawnIndex.isBad(world, chunkX, chunkZ)) {
+                    continue;
+                }
+                // on Folia only the chunks of the current region can be read
+                if (!plugin.scheduler.isOwnedByCurrentThread(world, chunkX, chunkZ)) {
+                    continue;
+                }
+                candidates[count++] = ((long) chunkX << 32) | (chunkZ & 0xFFFFFFFFL);
+            }
+            ringStart += size;
+        }
+        return count == candidates.length ? candidates : Arrays.copyOf(candidates, count);
+    }
+
+    /**
+     * Checks every column of chunk, loading it if needed
+     * @return {@link Location} to respawn at, or null if no column is safe
+     */
+    private Location scan(int chunkX, int chunkZ) {
+        HeightmapCache.ChunkHeights heights = plugin.heightmaps.get(world, chunkX, chunkZ);
+        if (heights == null) {
+            return scan(ChunkColumns.of(world.getChunkAt(chunkX, chunkZ).getChunkSnapshot(true, false, false), world));
+        }
+        int xmin = chunkX << 4;
+        int zmin = chunkZ << 4;
+        return check(chunkX, chunkZ, ColumnScanner.scanHeights(heights, chunkX, chunkZ, xmin, xmin + 15, zmin, zmin + 15, world, profile));
+    }
+
+    /**
+     * Checks every column of a loaded chunk, any thread
+     * @return {@link Location} to respawn at, or null if no column is safe
+     */
+    private Location scan(ChunkColumns columns) {
+        int xmin = columns.getX() << 4;
+        int zmin = columns.getZ() << 4;
+        Location location = check(columns.getX(), columns.getZ(), ColumnScanner.scanChunk(columns, xmin, xmin + 15, zmin, zmin + 15, world, profile));
+        plugin.heightmaps.put(world, columns);
+        return location;
+    }
+
+    private Location check(int chunkX, int chunkZ, Location location) {
+        if (location == null) {
+            plugin.rejections.rejectChunk(world, chunkX, chunkZ);
+            plugin.spawnIndex.markBad(world, chunkX, chunkZ);
+            return null;
+        }
+        plugin.spawnIndex.markSafe(location);
+        return location.add(0.5d, 1d, 0.5d);
+    }
+
+    static long ringSize(int ring) {
+        return ring == 0 ? 1 : 8L * ring;
+    }
+
+    // the ring is walked side by side : east (+Z), south (-X), west (-Z), north (+X)
+    static int ringX(int ring, int index) {
+        if (ring == 0) {
+            return 0;
+        }
+        int side = index / (2 * ring);
+        int offset = index % (2 * ring);
+        return switch (side) {
+            case 0 -> ring;
+            case 1 -> ring - 1 - offset;
+            case 2 -> -ring;
+            default -> -ring + 1 + offset;
+        };
+    }
+
+    static int ringZ(int ring, int index) {
+        if (ring == 0) {
+            return 0;
+        }
+        int side = index / (2 * ring);
+        int offset = index % (2 * ring);
+        return switch (side) {
+            case 0 -> -ring + 1 + offset;
+            case 1 -> ring;
+            case 2 -> ring - 1 - offset;
+            default -> -ring;
+        };
+    }
+
+}
@@ -0,0 +1,133 @@
+/*
+ * This file is part of UnexpectedSpawn
+ * (see https://github.com/DeathGOD7/unexpectedspawn-paper).
+ *
+ * Copyright (c) 2023 DeathGOD7, Shivelight
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.deathgod7.unexpectedspawn;
+
+import org.bukkit.Bukkit;
+import org.bukkit.NamespacedKey;
+import org.bukkit.entity.Player;
+import org.bukkit.persistence.PersistentDataContainer;
+import org.bukkit.persistence.PersistentDataType;
+
+import javax.annotation.Nullable;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.function.BiConsumer;
+
+/**
+ * Keeps the spawnpoints in the persistent data container of players (saved by the server with the player data). Only
+ * online players can be read or written, always from their own thread. Spawnpoints of the old string format are
+ * migrated when read.
+ */
+final class PdcSpawnStore implements SpawnPointStore {
+
+    private final NamespacedKey spawnKey;
+    private final NamespacedKey legacySpawnKey;
+
+    PdcSpawnStore(UnexpectedSpawn plugin) {
+        this.spawnKey = new NamespacedKey(plugin, "spawn_point");
+        this.legacySpawnKey = new NamespacedKey(plugin, "original_spawn_loc");
+    }
+
+    @Override
+    public String getType() {
+        return "pdc";
+    }
+
+    @Override
+    public void open() {
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public boolean isPlayerData() {
+        return true;
+    }
+
+    @Override
+    @Nullable
+    public SavedSpawn load(UUID playerId) {
+        Player player = Bukkit.getPlayer(playerId);
+        return player == null ? null : load(player);
+    }
+
+    /**
+     * Reads the spawnpoint from the data of player, migrating the old "world;x;y;z;yaw;pitch" format
+     * @param player The online player
+     * @return {@link SavedSpawn} or null if the player has none
+     */
+    @Nullable
+    SavedSpawn load(Player player) {
+        PersistentDataContainer container = player.getPersistentDataContainer();
+        try {
+            if (container.has(spawnKey, SavedSpawn.TYPE)) {
+                return container.get(spawnKey, SavedSpawn.TYPE);
+            }
+        } catch (IllegalArgumentException e) {
+            LogConsole.warn("Invalid saved spawn of " + player.getName() + " : " + e.getMessage(), LogConsole.logTypes.log);
+            container.remove(spawnKey);
+        }
+
+        if (container.has(legacySpawnKey, PersistentDataType.STRING)) {
+            String data = container.get(legacySpawnKey, PersistentDataType.STRING);
+            SavedSpawn spawn = data == null ? null : SavedSpawn.fromLegacy(data);
+            if (spawn != null) {
+                container.set(spawnKey, SavedSpawn.TYPE, spawn);
+                container.remove(legacySpawnKey);
+                LogConsole.info("Migrated the old saved spawn of {}", player.getName(), LogConsole.logTypes.debug);
+            }
+            // kept for next time if the world isn't loaded
+            return spawn;
+        }
+        return null;
+    }
+
+    @Override
+    public void write(Map<UUID, Optional<SavedSpawn>> batch) {
+        for (Map.Entry<UUID, Optional<SavedSpawn>> entry : batch.entrySet()) {
+            Player player = Bukkit.getPlayer(entry.getKey());
+            if (player == null) {
+                continue;
+            }
+            PersistentDataContainer container = player.getPersistentDataContainer();
+            if (entry.getValue().isPresent()) {
+                container.set(spawnKey, SavedSpawn.TYPE, entry.getValue().get());
+            }
+            else {
+                container.remove(spawnKey);
+            }
+        }
+    }
+
+    @Override
+    public void forEach(BiConsumer<UUID, SavedSpawn> action) {
+        for (Player player : Bukkit.getOnlinePlayers()) {
+            SavedSpawn spawn = load(player);
+            if (spawn != null) {
+                action.accept(player.getUniqueId(), spawn);
+            }
+        }
+    }
+
+}
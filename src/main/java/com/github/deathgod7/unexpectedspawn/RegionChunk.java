@@ -0,0 +1,188 @@
+/*
+ * This file is part of UnexpectedSpawn
+ * (see https://github.com/DeathGOD7/unexpectedspawn-paper).
+ *
+ * Copyright (c) 2023 DeathGOD7, Shivelight
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.deathgod7.unexpectedspawn;
+
+import org.bukkit.Material;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * {@link ChunkColumns} read from the NBT of a region file, so {@link ColumnScanner} can check chunks that are not
+ * loaded (or a world that is not running). Only knows block types and the motion blocking heightmap, like a snapshot
+ * taken with max block Y. Chunk format of 1.18 and newer only.
+ */
+final class RegionChunk implements ChunkColumns {
+
+    // first data version with the 1.18 chunk format (no "Level" compound, sections from yPos)
+    private static final int MIN_DATA_VERSION = 2860;
+    private static final Map<String, Material> MATERIALS = new ConcurrentHashMap<>();
+
+    private final int x;
+    private final int z;
+    private final int minHeight;
+    private final Material[][] palettes;
+    private final long[][] data;
+    private final int[] heights = new int[256];
+
+    private RegionChunk(int x, int z, int minSection, int sectionCount) {
+        this.x = x;
+        this.z = z;
+        this.minHeight = minSection << 4;
+        this.palettes = new Material[sectionCount][];
+        this.data = new long[sectionCount][];
+    }
+
+    /**
+     * Reads a fully generated chunk
+     * @param root The root compound of the chunk
+     * @return {@link RegionChunk} or null if the chunk is not fully generated or uses an older format
+     */
+    @SuppressWarnings("unchecked")
+    static RegionChunk read(Map<String, Object> root) {
+        if (!(root.get("DataVersion") instanceof Integer version) || version < MIN_DATA_VERSION) {
+            return null;
+        }
+        Object status = root.get("Status");
+        if (!"minecraft:full".equals(status) && !"full".equals(status)) {
+            return null;
+        }
+        if (!(root.get("sections") instanceof List<?> sections) || !(root.get("Heightmaps") instanceof Map<?, ?> heightmaps)
+                || !(heightmaps.get("MOTION_BLOCKING") instanceof long[] motionBlocking)) {
+            return null;
+        }
+
+        int minSection = Integer.MAX_VALUE;
+        int maxSection = Integer.MIN_VALUE;
+        for (Object section : sections) {
+            int y = ((Number) ((Map<String, Object>) section).get("Y")).intValue();
+            minSection = Math.min(minSection, y);
+            maxSection = Math.max(maxSection, y);
+        }
+        if (root.get("yPos") instanceof Integer yPos) {
+            minSection = yPos;
+        }
+        if (minSection > maxSection) {
+            return null;
+        }
+
+        RegionChunk chunk = new RegionChunk((Integer) root.get("xPos"), (Integer) root.get("zPos"), minSection, maxSection - minSection + 1);
+        for (Object entry : sections) {
+            Map<String, Object> section = (Map<String, Object>) entry;
+            int index = ((Number) section.get("Y")).intValue() - minSection;
+            if (index < 0 || !(section.get("block_states") instanceof Map<?, ?> states)
+                    || !(states.get("palette") instanceof List<?> palette) || palette.isEmpty()) {
+                continue;
+            }
+            Material[] materials = new Material[palette.size()];
+            for (int i = 0; i < materials.length; i++) {
+                materials[i] = toMaterial((String) ((Map<String, Object>) palette.get(i)).get("Name"));
+            }
+            chunk.palettes[index] = materials;
+            chunk.data[index] = states.get("data") instanceof long[] packed ? packed : null;
+        }
+
+        // bits per entry depends on the world height, the array length tells it
+        int bits = 1;
+        while (bits < 32 && (256 + 64 / bits - 1) / (64 / bits) != motionBlocking.length) {
+            bits++;
+        }
+        if (bits == 32) {
+            return null;
+        }
+        for (int i = 0; i < 256; i++) {
+            // stored as the first free Y above the column, relative to the bottom of the world (0 for an empty column)
+            chunk.heights[i] = chunk.minHeight + (int) unpack(motionBlocking, bits, i) - 1;
+        }
+        return chunk;
+    }
+
+    private static Material toMaterial(String name) {
+        if (name == null) {
+            return Material.AIR;
+        }
+        return MATERIALS.computeIfAbsent(name, key -> {
+            Material material = Material.matchMaterial(key);
+            // unknown (modded) blocks can't be classified, treated as nothing to stand on
+            return material != null ? material : Material.AIR;
+        });
+    }
+
+    // entries never span two longs (1.16+ packing)
+    private static long unpack(long[] packed, int bits, int index) {
+        int perLong = 64 / bits;
+        long value = packed[index / perLong] >>> ((index % perLong) * bits);
+        return value & ((1L << bits) - 1);
+    }
+
+    @Override
+    public int getMinHeight() {
+        return minHeight;
+    }
+
+    @Override
+    public int getMaxHeight() {
+        return minHeight + (palettes.length << 4);
+    }
+
+    @Override
+    public int getX() {
+        return x;
+    }
+
+    @Override
+    public int getZ() {
+        return z;
+    }
+
+    @Override
+    public Material getBlockType(int x, int y, int z) {
+        int section = (y - minHeight) >> 4;
+        if (section < 0 || section >= palettes.length || palettes[section] == null) {
+            return Material.VOID_AIR;
+        }
+        Material[] palette = palettes[section];
+        long[] packed = data[section];
+        if (palette.length == 1 || packed == null) {
+            return palette[0];
+        }
+        int bits = Math.max(4, 32 - Integer.numberOfLeadingZeros(palette.length - 1));
+        int index = (((y - minHeight) & 15) << 8) | (z << 4) | x;
+        int value = (int) unpack(packed, bits, index);
+        return value < palette.length ? palette[value] : Material.AIR;
+    }
+
+    @Override
+    public int getHighestBlockYAt(int x, int z) {
+        return heights[(z << 4) | x];
+    }
+
+    @Override
+    public boolean isSectionEmpty(int sy) {
+        if (sy < 0 || sy >= palettes.length || palettes[sy] == null) {
+            return true;
+        }
+        Material[] palette = palettes[sy];
+        return palette.length == 1 && palette[0].isAir();
+    }
+
+}
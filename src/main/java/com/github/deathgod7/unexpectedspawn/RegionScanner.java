@@ -0,0 +1,356 @@
+/*
+ * This file is part of UnexpectedSpawn
+ * (see https://github.com/DeathGOD7/unexpectedspawn-paper).
+ *
+ * Copyright (c) 2023 DeathGOD7, Shivelight
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.deathgod7.unexpectedspawn;
+
+import org.bukkit.Material;
+import org.bukkit.World;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Fills a {@link SpawnIndexFile} straight from the region files (r.X.Z.mca) of a world, without loading any chunk
+ * through the server. Region files are memory mapped and scanned in parallel, one region per task. Each fully
+ * generated chunk is decoded from its NBT ({@link RegionChunk}) and checked with the same column checks as the
+ * searches ({@link ColumnScanner#findColumn}).
+ * <p>
+ * Can also run without a server :
+ * {@code java -cp UnexpectedSpawn.jar:paper-api.jar com.github.deathgod7.unexpectedspawn.RegionScanner <region folder> <index file> [normal|nether|the_end] [threads]}
+ */
+public final class RegionScanner {
+
+    // same as the default spawn-block-blacklist, used when running without the plugin
+    private static final Set<Material> DEFAULT_BLACKLIST = EnumSet.of(Material.LAVA, Material.WATER, Material.CACTUS,
+            Material.FIRE, Material.MAGMA_BLOCK, Material.SWEET_BERRY_BUSH, Material.CAMPFIRE);
+
+    // regions of an index created without the plugin config (same as spawn-index.max-regions)
+    private static final int DEFAULT_CAPACITY = 4096;
+
+    private static final int SECTOR_SIZE = 4096;
+    private static final byte COMPRESSION_GZIP = 1;
+    private static final byte COMPRESSION_ZLIB = 2;
+    private static final byte COMPRESSION_NONE = 3;
+
+    private final Path regionFolder;
+    private final boolean cave;
+    private final int logicalHeight;
+    private final MaterialTable table;
+    private final int threads;
+
+    private final LongAdder chunks = new LongAdder();
+    private final LongAdder safe = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+
+    /**
+     * @param regionFolder The folder holding the r.X.Z.mca files
+     * @param cave Checks cave floors (nether) instead of the surface
+     * @param logicalHeight The logical height of world (highest Y checked for cave floors, from the bottom)
+     * @param table The material table to check with
+     * @param threads Amount of regions scanned at the same time (0 for one per CPU core)
+     */
+    RegionScanner(Path regionFolder, boolean cave, int logicalHeight, MaterialTable table, int threads) {
+        this.regionFolder = regionFolder;
+        this.cave = cave;
+        this.logicalHeight = logicalHeight;
+        this.table = table;
+        this.threads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Gets the region folder of a world
+     * @return {@link Path}
+     */
+    static Path getRegionFolder(World world) {
+        Path folder = world.getWorldFolder().toPath();
+        switch (world.getEnvironment()) {
+            case NETHER:
+                return folder.resolve("DIM-1").resolve("region");
+            case THE_END:
+                return folder.resolve("DIM1").resolve("region");
+            default:
+                return folder.resolve("region");
+        }
+    }
+
+    /**
+     * Summary of a scan
+     * @param regions Amount of region files read
+     * @param chunks Amount of fully generated chunks checked
+     * @param safe Amount of chunks with at least one safe column
+     * @param skipped Amount of chunks that couldn't be read (older format, unsupported compression, broken data)
+     * @param millis Time taken
+     */
+    record Result(int regions, long chunks, long safe, long skipped, long millis) {
+        @Override
+        public String toString() {
+            return regions + " regions, " + chunks + " chunks (" + safe + " with safe columns, " + skipped + " skipped) in " + millis + " ms";
+        }
+    }
+
+    /**
+     * Scans every region file and replaces their regions in the index. Blocks until done, so run it away from the main
+     * thread.
+     * @param index The index to fill
+     * @param progress Receives a message every 10% of the regions
+     * @return {@link Result}
+     * @throws IOException if the region folder can't be listed or a scan task failed
+     */
+    Result scan(SpawnIndexFile index, Consumer<String> progress) throws IOException {
+        long startedAt = System.currentTimeMillis();
+        List<Path> files = new ArrayList<>();
+        if (Files.isDirectory(regionFolder)) {
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(regionFolder, "r.*.*.mca")) {
+                stream.forEach(files::add);
+            }
+        }
+
+        AtomicInteger regions = new AtomicInteger();
+        AtomicInteger done = new AtomicInteger();
+        List<Callable<Void>> tasks = new ArrayList<>(files.size());
+        for (Path file : files) {
+            String[] parts = file.getFileName().toString().split("\\.");
+            int regionX;
+            int regionZ;
+            try {
+                regionX = Integer.parseInt(parts[1]);
+                regionZ = Integer.parseInt(parts[2]);
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            tasks.add(() -> {
+                short[] entries = scanRegion(file, regionX, regionZ);
+                if (entries != null) {
+                    index.putRegion(regionX, regionZ, entries);
+                    regions.incrementAndGet();
+                }
+                int count = done.incrementAndGet();
+                if (count % Math.max(1, tasks.size() / 10) == 0) {
+                    progress.accept("Scanned " + count + "/" + tasks.size() + " region files");
+                }
+                return null;
+            });
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "UnexpectedSpawn Region Scanner");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            for (Future<Void> future : pool.invokeAll(tasks)) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Scan was interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Scan failed", e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+
+        index.flush();
+        return new Result(regions.get(), chunks.sum(), safe.sum(), skipped.sum(), System.currentTimeMillis() - startedAt);
+    }
+
+    /**
+     * Checks every chunk of one region file
+     * @return {@link short} entries of the region, or null if the file can't be read
+     */
+    private short[] scanRegion(Path file, int regionX, int regionZ) {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < SECTOR_SIZE * 2L) {
+                // empty region (header not written yet)
+                return null;
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException e) {
+            return null;
+        }
+
+        short[] entries = new short[1024];
+        for (int index = 0; index < 1024; index++) {
+            int location = buffer.getInt(index * 4);
+            int offset = (location >>> 8) * SECTOR_SIZE;
+            if (location == 0 || offset + 5 > buffer.limit()) {
+                // never generated
+                continue;
+            }
+
+            RegionChunk chunk;
+            try {
+                chunk = readChunk(buffer, offset);
+            } catch (IOException | RuntimeException e) {
+                chunk = null;
+            }
+            if (chunk == null || chunk.getX() != (regionX << 5) + (index & 31) || chunk.getZ() != (regionZ << 5) + (index >> 5)) {
+                skipped.increment();
+                continue;
+            }
+
+            chunks.increment();
+            int maxY = chunk.getMinHeight() + logicalHeight;
+            int column = ColumnScanner.findColumn(chunk, maxY, cave, table);
+            if (column != ColumnScanner.NONE) {
+                entries[index] = SpawnIndexFile.safeEntry(column);
+                safe.increment();
+            }
+            else {
+                entries[index] = SpawnIndexFile.BAD;
+            }
+        }
+        return entries;
+    }
+
+    private static RegionChunk readChunk(MappedByteBuffer buffer, int offset) throws IOException {
+        int length = buffer.getInt(offset);
+        byte compression = buffer.get(offset + 4);
+        if (length <= 1 || offset + 4 + length > buffer.limit()) {
+            return null;
+        }
+        ByteBuffer data = buffer.slice(offset + 5, length - 1);
+
+        InputStream raw = new ByteBufferInputStream(data);
+        InputStream in;
+        switch (compression) {
+            case COMPRESSION_GZIP:
+                in = new GZIPInputStream(raw);
+                break;
+            case COMPRESSION_ZLIB:
+                in = new InflaterInputStream(raw);
+                break;
+            case COMPRESSION_NONE:
+                in = raw;
+                break;
+            default:
+                // lz4 and chunks stored outside of the region file (.mcc) are not supported
+                return null;
+        }
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(in, 8192))) {
+            return RegionChunk.read(NbtReader.readRoot(input));
+        }
+    }
+
+    private static final class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, count);
+            return count;
+        }
+    }
+
+    /**
+     * Scans a world without a server
+     * @param args region folder, index file, environment (normal, nether or the_end, default normal), threads
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("Usage : RegionScanner <region folder> <index file> [normal|nether|the_end] [threads]");
+            System.exit(1);
+            return;
+        }
+        World.Environment environment = args.length > 2 ? World.Environment.valueOf(args[2].toUpperCase(Locale.ROOT)) : World.Environment.NORMAL;
+        int threads = args.length > 3 ? Integer.parseInt(args[3]) : 0;
+        boolean cave = environment == World.Environment.NETHER;
+        MaterialTable table = new MaterialTable(DEFAULT_BLACKLIST, false, DEFAULT_BLACKLIST);
+
+        Path regionFolder = Paths.get(args[0]);
+        long seed = readSeed(regionFolder);
+        int logicalHeight = cave ? 128 : 384;
+        SpawnIndexFile index = SpawnIndexFile.open(Paths.get(args[1]), seed, SpawnIndexFile.generatorId(environment, null),
+                SpawnIndexFile.rulesId(table, cave, logicalHeight), DEFAULT_CAPACITY);
+
+        RegionScanner scanner = new RegionScanner(regionFolder, cave, logicalHeight, table, threads);
+        Result result = scanner.scan(index, System.out::println);
+        System.out.println("Indexed " + result + " (seed " + seed + ")");
+        if (index.getDropped() > 0) {
+            System.out.println("The index is full, " + index.getDropped() + " regions were not stored");
+        }
+    }
+
+    /**
+     * Reads the seed from the level.dat next to the region folder (world/region or world/DIM-1/region)
+     * @return {@link long} seed, 0 if level.dat can't be read
+     */
+    @SuppressWarnings("unchecked")
+    private static long readSeed(Path regionFolder) {
+        Path world = regionFolder.toAbsolutePath().getParent();
+        for (int i = 0; i < 2 && world != null; i++, world = world.getParent()) {
+            Path levelDat = world.resolve("level.dat");
+            if (!Files.isRegularFile(levelDat)) {
+                continue;
+            }
+            try (DataInputStream input = new DataInputStream(new BufferedInputStream(new GZIPInputStream(Files.newInputStream(levelDat))))) {
+                Map<String, Object> data = (Map<String, Object>) NbtReader.readRoot(input).get("Data");
+                Map<String, Object> settings = (Map<String, Object>) data.get("WorldGenSettings");
+                return (Long) settings.get("seed");
+            } catch (IOException | RuntimeException e) {
+                System.out.println("Couldn't read the seed from " + levelDat + " : " + e.getMessage());
+                return 0;
+            }
+        }
+        System.out.println("No level.dat found, the index is written without a seed");
+        return 0;
+    }
+
+}
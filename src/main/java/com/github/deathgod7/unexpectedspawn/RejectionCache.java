@@ -0,0 +1,147 @@
+/*
+ * This file is part of UnexpectedSpawn
+ * (see https://github.com/DeathGOD7/unexpectedspawn-paper).
+ *
+ * Copyright (c) 2023 DeathGOD7, Shivelight
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.deathgod7.unexpectedspawn;
+
+import org.bukkit.World;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Remembers whole chunks the searches already rejected, so sampling can skip them without touching the world. Stored
+ * as one bitmap per region (32x32 chunks), 1 bit per chunk. Regions are kept in a bounded LRU per world and expire as
+ * a whole after a while; block changes clear the bit of their chunk (see {@link WorldChangeListener}). Thread-safe.
+ */
+public class RejectionCache {
+
+    private final HashMap<UUID, LinkedHashMap<Long, Region>> worlds = new HashMap<>();
+    private int maxRegions;
+    private long ttlMillis;
+
+    private static final class Region {
+        final long[] chunks = new long[16];
+        final long expiresAt;
+
+        Region(long expiresAt) {
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /**
+     * Reads the cache settings and forgets every rejection
+     * @param maxRegions Maximum regions per world
+     * @param ttlSeconds Seconds before the rejections of a region are forgotten
+     */
+    public synchronized void reload(int maxRegions, int ttlSeconds) {
+        this.maxRegions = Math.max(0, maxRegions);
+        this.ttlMillis = Math.max(1, ttlSeconds) * 1000L;
+        worlds.clear();
+    }
+
+    private static long key(int regionX, int regionZ) {
+        return ((long) regionX << 32) | (regionZ & 0xffffffffL);
+    }
+
+    private static int chunkIndex(int chunkX, int chunkZ) {
+        return ((chunkZ & 31) << 5) | (chunkX & 31);
+    }
+
+    private Region region(World world, int chunkX, int chunkZ, boolean create) {
+        LinkedHashMap<Long, Region> regions = worlds.get(world.getUID());
+        if (regions == null) {
+            if (!create || maxRegions == 0) {
+                return null;
+            }
+            regions = new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Long, Region> eldest) {
+                    return size() > maxRegions;
+                }
+            };
+            worlds.put(world.getUID(), regions);
+        }
+
+        long key = key(chunkX >> 5, chunkZ >> 5);
+        Region region = regions.get(key);
+        long now = System.currentTimeMillis();
+        if (region != null && region.expiresAt < now) {
+            regions.remove(key);
+            region = null;
+        }
+        if (region == null && create && maxRegions > 0) {
+            region = new Region(now + ttlMillis);
+            regions.put(key, region);
+        }
+        return region;
+    }
+
+    /**
+     * Checks if every column of the chunk was rejected
+     */
+    public synchronized boolean isChunkRejected(World world, int chunkX, int chunkZ) {
+        Region region = region(world, chunkX, chunkZ, false);
+        if (region == null) {
+            return false;
+        }
+        int index = chunkIndex(chunkX, chunkZ);
+        return (region.chunks[index >> 6] & (1L << index)) != 0;
+    }
+
+    /**
+     * Marks every column of the chunk as rejected
+     */
+    public synchronized void rejectChunk(World world, int chunkX, int chunkZ) {
+        Region region = region(world, chunkX, chunkZ, true);
+        if (region != null) {
+            int index = chunkIndex(chunkX, chunkZ);
+            region.chunks[index >> 6] |= 1L << index;
+        }
+    }
+
+    /**
+     * Forgets the rejections of chunk (blocks changed there)
+     */
+    public synchronized void invalidate(World world, int chunkX, int chunkZ) {
+        Region region = region(world, chunkX, chunkZ, false);
+        if (region != null) {
+            int index = chunkIndex(chunkX, chunkZ);
+            region.chunks[index >> 6] &= ~(1L << index);
+        }
+    }
+
+    /**
+     * Forgets every rejection of world
+     */
+    public synchronized void invalidate(World world) {
+        worlds.remove(world.getUID());
+    }
+
+    public synchronized int regionCount() {
+        int count = 0;
+        for (LinkedHashMap<Long, Region> regions : worlds.values()) {
+            count += regions.size();
+        }
+        return count;
+    }
+
+}
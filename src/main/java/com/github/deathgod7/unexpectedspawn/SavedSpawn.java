@@ -0,0 +1,155 @@
+/*
+ * This file is part of UnexpectedSpawn
+ * (see https://github.com/DeathGOD7/unexpectedspawn-paper).
+ *
+ * Copyright (c) 2023 DeathGOD7, Shivelight
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.deathgod7.unexpectedspawn;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.persistence.PersistentDataAdapterContext;
+import org.bukkit.persistence.PersistentDataType;
+
+import javax.annotation.Nullable;
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+/**
+ * Saved spawnpoint of a player. The world is kept by UUID, so renaming a world doesn't lose the spawnpoint. Stored in
+ * the player data as a fixed 48 bytes array (see {@link #TYPE}).
+ */
+public final class SavedSpawn {
+
+    /**
+     * World UUID (16 bytes), x y z (3 doubles), yaw pitch (2 floats), big-endian
+     */
+    public static final PersistentDataType<byte[], SavedSpawn> TYPE = new PersistentDataType<>() {
+        @Override
+        public Class<byte[]> getPrimitiveType() {
+            return byte[].class;
+        }
+
+        @Override
+        public Class<SavedSpawn> getComplexType() {
+            return SavedSpawn.class;
+        }
+
+        @Override
+        public byte[] toPrimitive(SavedSpawn spawn, PersistentDataAdapterContext context) {
+            return ByteBuffer.allocate(SIZE)
+                    .putLong(spawn.worldId.getMostSignificantBits())
+                    .putLong(spawn.worldId.getLeastSignificantBits())
+                    .putDouble(spawn.x)
+                    .putDouble(spawn.y)
+                    .putDouble(spawn.z)
+                    .putFloat(spawn.yaw)
+                    .putFloat(spawn.pitch)
+                    .array();
+        }
+
+        @Override
+        public SavedSpawn fromPrimitive(byte[] data, PersistentDataAdapterContext context) {
+            if (data.length != SIZE) {
+                throw new IllegalArgumentException("Saved spawn must be " + SIZE + " bytes, got " + data.length);
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            UUID worldId = new UUID(buffer.getLong(), buffer.getLong());
+            return new SavedSpawn(worldId, buffer.getDouble(), buffer.getDouble(), buffer.getDouble(), buffer.getFloat(), buffer.getFloat());
+        }
+    };
+
+    static final int SIZE = 48;
+
+    private final UUID worldId;
+    private final double x;
+    private final double y;
+    private final double z;
+    private final float yaw;
+    private final float pitch;
+
+    public SavedSpawn(UUID worldId, double x, double y, double z, float yaw, float pitch) {
+        this.worldId = worldId;
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        this.yaw = yaw;
+        this.pitch = pitch;
+    }
+
+    /**
+     * Creates the saved spawn of location (centered on the block)
+     * @param location The location to save
+     * @return {@link SavedSpawn}
+     */
+    public static SavedSpawn of(Location location) {
+        return new SavedSpawn(location.getWorld().getUID(),
+                Math.floor(location.getX()) + 0.5, location.getY(), Math.floor(location.getZ()) + 0.5,
+                location.getYaw(), location.getPitch());
+    }
+
+    /**
+     * Parses the old "world;x;y;z;yaw;pitch" string format
+     * @param data The string to parse
+     * @return {@link SavedSpawn} or null if invalid or the world isn't loaded
+     */
+    @Nullable
+    public static SavedSpawn fromLegacy(String data) {
+        String[] parts = data.split(";");
+        if (parts.length < 6) {
+            return null;
+        }
+        World world = Bukkit.getWorld(parts[0]);
+        if (world == null) {
+            return null;
+        }
+        try {
+            return new SavedSpawn(world.getUID(),
+                    Double.parseDouble(parts[1]),
+                    Double.parseDouble(parts[2]),
+                    Double.parseDouble(parts[3]),
+                    Float.parseFloat(parts[4]),
+                    Float.parseFloat(parts[5]));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Gets the saved spawn as location
+     * @return {@link Location} or null if the world isn't loaded
+     */
+    @Nullable
+    public Location toLocation() {
+        World world = Bukkit.getWorld(worldId);
+        return world == null ? null : new Location(world, x, y, z, yaw, pitch);
+    }
+
+    public UUID getWorldId() { return worldId; }
+    public double getX() { return x; }
+    public double getY() { return y; }
+    public double getZ() { return z; }
+    public float getYaw() { return yaw; }
+    public float getPitch() { return pitch; }
+
+    @Override
+    public String toString() {
+        return worldId + ";" + x + ";" + y + ";" + z + ";" + yaw + ";" + pitch;
+    }
+
+}
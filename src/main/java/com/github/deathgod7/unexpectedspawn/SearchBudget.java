@@ -0,0 +1,94 @@
+/*
+ * This file is part of UnexpectedSpawn
+ * (see https://github.com/DeathGOD7/unexpectedspawn-paper).
+ *
+ * Copyright (c) 2023 DeathGOD7, Shivelight
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.deathgod7.unexpectedspawn;
+
+/**
+ * Hard limits of a single random spawn search : scanned chunks, synchronous chunk loads and elapsed time. Also counts
+ * the new chunks the search generated, once those are used up the search only loads generated chunks (see
+ * {@link ChunkGenerationBudget}). Not thread-safe, owned by the search it limits.
+ */
+final class SearchBudget {
+
+    private final int maxAttempts;
+    private final int maxChunkLoads;
+    private final int maxGenerations;
+    private final long startedAt = System.nanoTime();
+    private final long deadline;
+
+    private int attempts = 0;
+    private int chunkLoads = 0;
+    private int generations = 0;
+
+    SearchBudget(WorldSpawnProfile profile) {
+        this.maxAttempts = profile.getSearchAttempts();
+        this.maxChunkLoads = profile.getSearchChunkLoads();
+        this.maxGenerations = profile.getSearchGenerations();
+        this.deadline = startedAt + profile.getSearchMillis() * 1_000_000L;
+    }
+
+    SearchBudget(int maxAttempts, int maxChunkLoads, int maxGenerations, long maxMillis) {
+        this.maxAttempts = maxAttempts;
+        this.maxChunkLoads = maxChunkLoads;
+        this.maxGenerations = maxGenerations;
+        this.deadline = startedAt + maxMillis * 1_000_000L;
+    }
+
+    void attempt() {
+        attempts++;
+    }
+
+    void chunkLoad() {
+        chunkLoads++;
+    }
+
+    void generation() {
+        generations++;
+    }
+
+    /**
+     * Checks if the search may still generate new chunks
+     * @return {@link boolean}
+     */
+    boolean canGenerate() {
+        return maxGenerations < 0 || generations < maxGenerations;
+    }
+
+    /**
+     * Checks if the search must stop
+     * @return {@link boolean}
+     */
+    boolean isExhausted() {
+        return attempts >= maxAttempts || chunkLoads >= maxChunkLoads || System.nanoTime() - deadline >= 0;
+    }
+
+    int getAttempts() { return attempts; }
+    int getChunkLoads() { return chunkLoads; }
+
+    long getElapsedMillis() {
+        return (System.nanoTime() - startedAt) / 1_000_000L;
+    }
+
+    @Override
+    public String toString() {
+        return attempts + " tries, " + chunkLoads + " chunk loads (" + generations + " new), " + getElapsedMillis() + " ms";
+    }
+
+}
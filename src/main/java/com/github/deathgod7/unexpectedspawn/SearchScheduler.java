@@ -0,0 +1,212 @@
+/*
+ * This file is part of UnexpectedSpawn
+ * (see https://github.com/DeathGOD7/unexpectedspawn-paper).
+ *
+ * Copyright (c) 2023 DeathGOD7, Shivelight
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.deathgod7.unexpectedspawn;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Runs the random spawn searches with a fixed budget per tick. Submitted searches wait in a queue until one of the
+ * concurrent slots is free, then every step (one batch of chunks) is run by the tick task while the tick budget (time
+ * and checked chunks) lasts. A search waiting for its chunks gives its turn away and is resumed on a later tick, so a
+ * burst of joins or deaths is spread over several ticks instead of stalling one. Steps run on the main thread (global
+ * region on Folia), searches can be submitted from any thread.
+ */
+public class SearchScheduler {
+
+    private final UnexpectedSpawn plugin;
+    // submitted, not started yet
+    private final ArrayDeque<Job> waiting = new ArrayDeque<>();
+    // started, ready for their next step
+    private final ArrayDeque<Search> ready = new ArrayDeque<>();
+    // started and not done, also the ones waiting for their chunks (in neither queue)
+    private final Set<Search> running = new HashSet<>();
+    private TaskScheduler.Task tickTask;
+
+    private long maxNanosPerTick;
+    private int maxProbesPerTick;
+    private int maxConcurrent;
+
+    private long submitted;
+    private long completed;
+    private long totalWaitNanos;
+    private long maxWaitNanos;
+    private int peakDepth;
+    private long lastTickNanos;
+    private int lastTickProbes;
+    private double averageBudgetUse;
+
+    public SearchScheduler(UnexpectedSpawn plugin) {
+        this.plugin = plugin;
+    }
+
+    /**
+     * A search run by the scheduler one step at a time ({@link AsyncSpawnSearch}, {@link BatchSpawnSearch})
+     */
+    interface Search {
+
+        /**
+         * Runs one step. Called by the tick task, the search resumes itself once its chunks were checked.
+         * @return {@link int} amount of chunks sampled
+         */
+        int step();
+
+        /**
+         * Gets the result of search, the scheduler only looks at whether it is done
+         * @return {@link CompletableFuture}
+         */
+        CompletableFuture<?> getResult();
+
+        /**
+         * Stops the search, its result completes right away with a {@link java.util.concurrent.CancellationException}.
+         * Callers must not fall back to anything then (the plugin is stopping or reloading).
+         */
+        void cancel();
+
+    }
+
+    private static final class Job {
+        final Search search;
+        final long submittedAt = System.nanoTime();
+
+        Job(Search search) {
+            this.search = search;
+        }
+    }
+
+    /**
+     * Reads the scheduler settings and starts the tick task if needed. Queued searches are kept.
+     */
+    public synchronized void start() {
+        maxNanosPerTick = Math.max(1, plugin.config.getConfig().getInt("search-scheduler.max-millis-per-tick")) * 1_000_000L;
+        maxProbesPerTick = Math.max(1, plugin.config.getConfig().getInt("search-scheduler.max-probes-per-tick"));
+        maxConcurrent = Math.max(1, plugin.config.getConfig().getInt("search-scheduler.max-concurrent"));
+
+        if (tickTask == null) {
+            tickTask = plugin.scheduler.runGlobalTimer(this::tick, 1, 1);
+        }
+        LogConsole.info(() -> "Search scheduler started (" + maxNanosPerTick / 1_000_000L + " ms / " + maxProbesPerTick
+                + " chunks per tick, " + maxConcurrent + " at once).", LogConsole.logTypes.debug);
+    }
+
+    /**
+     * Stops the tick task and cancels every queued or started search, also the ones waiting for their chunks, so
+     * nothing waits on them forever (see {@link Search#cancel})
+     */
+    public synchronized void stop() {
+        if (tickTask != null) {
+            tickTask.cancel();
+            tickTask = null;
+        }
+        Job job;
+        while ((job = waiting.pollFirst()) != null) {
+            job.search.cancel();
+        }
+        ready.clear();
+        // cancelling completes the result, which removes the search from the set
+        for (Search search : new ArrayList<>(running)) {
+            search.cancel();
+        }
+        running.clear();
+    }
+
+    /**
+     * Queues a search
+     * @param search The search to run
+     */
+    synchronized void submit(Search search) {
+        waiting.addLast(new Job(search));
+        submitted++;
+        peakDepth = Math.max(peakDepth, waiting.size() + ready.size());
+    }
+
+    /**
+     * Gives a started search its next turn (after its chunks were checked)
+     * @param search The search to resume
+     */
+    synchronized void resume(Search search) {
+        if (!search.getResult().isDone()) {
+            ready.addLast(search);
+        }
+    }
+
+    private synchronized void tick() {
+        long start = System.nanoTime();
+        int probes = 0;
+
+        while (probes < maxProbesPerTick && System.nanoTime() - start < maxNanosPerTick) {
+            Search search = ready.pollFirst();
+            if (search == null) {
+                if (running.size() >= maxConcurrent || waiting.isEmpty()) {
+                    break;
+                }
+                Job job = waiting.pollFirst();
+                long waited = start - job.submittedAt;
+                totalWaitNanos += waited;
+                maxWaitNanos = Math.max(maxWaitNanos, waited);
+
+                Search started = job.search;
+                running.add(started);
+                started.getResult().whenComplete((result, ex) -> {
+                    synchronized (this) {
+                        running.remove(started);
+                        completed++;
+                    }
+                });
+                search = started;
+            }
+            if (search.getResult().isDone()) {
+                continue;
+            }
+            probes += search.step();
+        }
+
+        lastTickNanos = System.nanoTime() - start;
+        lastTickProbes = probes;
+        double use = Math.max((double) lastTickNanos / maxNanosPerTick, (double) probes / maxProbesPerTick);
+        averageBudgetUse = averageBudgetUse * 0.95d + Math.min(1d, use) * 0.05d;
+    }
+
+    /**
+     * Gets the status lines of the scheduler (used by the queue command)
+     * @return {@link List<String>}
+     */
+    public synchronized List<String> getStatus() {
+        List<String> lines = new ArrayList<>();
+        long started = completed + running.size();
+        String averageWait = started == 0 ? "-" : String.format("%.1f ms", totalWaitNanos / 1_000_000d / started);
+
+        lines.add("&8Search scheduler (" + maxNanosPerTick / 1_000_000L + " ms / " + maxProbesPerTick + " chunks per tick, "
+                + maxConcurrent + " at once)");
+        lines.add("&8queued &f" + waiting.size() + " &8running &f" + running.size() + "/" + maxConcurrent
+                + " &8peak queue &f" + peakDepth);
+        lines.add("&8submitted &f" + submitted + " &8completed &f" + completed
+                + " &8wait avg &f" + averageWait + " &8max &f" + String.format("%.1f ms", maxWaitNanos / 1_000_000d));
+        lines.add("&8last tick &f" + String.format("%.2f ms", lastTickNanos / 1_000_000d) + " &8/ &f" + lastTickProbes + " chunks"
+                + " &8budget use &f" + String.format("%.1f%%", averageBudgetUse * 100d));
+        return lines;
+    }
+
+}
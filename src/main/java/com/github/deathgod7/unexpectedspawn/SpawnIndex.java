@@ -0,0 +1,241 @@
+/*
+ * This file is part of UnexpectedSpawn
+ * (see https://github.com/DeathGOD7/unexpectedspawn-paper).
+ *
+ * Copyright (c) 2023 DeathGOD7, Shivelight
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.deathgod7.unexpectedspawn;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.World;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.github.deathgod7.unexpectedspawn.Utils.*;
+
+/**
+ * Safe spawn indexes of the worlds (plugins/UnexpectedSpawn/index/&lt;world&gt;.idx). Remembers what the searches
+ * learn (chunks without safe column, safe columns) across restarts, and what {@link RegionScanner} finds in the
+ * region files. Files are mapped the first time their world is asked about and flushed in the background.
+ * Thread-safe.
+ */
+public class SpawnIndex {
+
+    private final UnexpectedSpawn plugin;
+    private final ConcurrentHashMap<UUID, Optional<SpawnIndexFile>> files = new ConcurrentHashMap<>();
+    private final Set<UUID> scanning = ConcurrentHashMap.newKeySet();
+    private volatile boolean enabled;
+    private volatile int capacity;
+    private TaskScheduler.Task flushTask;
+
+    public SpawnIndex(UnexpectedSpawn plugin) {
+        this.plugin = plugin;
+    }
+
+    /**
+     * Reads the settings from config and (re)starts the flush task. Open files are flushed and mapped again when needed,
+     * so after a reload they are checked against the new spawn rules.
+     */
+    public void start() {
+        stop();
+        enabled = plugin.config.getConfig().getBoolean("spawn-index.enabled", true);
+        capacity = Math.max(1, plugin.config.getConfig().getInt("spawn-index.max-regions", 4096));
+        int interval = plugin.config.getConfig().getInt("spawn-index.flush-interval", 30);
+        if (enabled && interval > 0) {
+            flushTask = plugin.scheduler.runAsyncTimer(this::flush, interval * 20L, interval * 20L);
+        }
+    }
+
+    /**
+     * Stops the flush task, writes what changed and drops the files
+     */
+    public void stop() {
+        if (flushTask != null) {
+            flushTask.cancel();
+            flushTask = null;
+        }
+        flush();
+        files.clear();
+    }
+
+    private void flush() {
+        for (Optional<SpawnIndexFile> file : files.values()) {
+            file.ifPresent(SpawnIndexFile::flush);
+        }
+    }
+
+    /**
+     * Gets the index file of world
+     * @return {@link Path}
+     */
+    public Path getPath(World world) {
+        return plugin.getDataFolder().toPath().resolve("index").resolve(world.getName() + ".idx");
+    }
+
+    private SpawnIndexFile get(World world) {
+        if (!enabled) {
+            return null;
+        }
+        return files.computeIfAbsent(world.getUID(), uid -> {
+            try {
+                int rules = SpawnIndexFile.rulesId(getProfile(world).getMaterialTable(),
+                        world.getEnvironment() == World.Environment.NETHER, world.getLogicalHeight());
+                SpawnIndexFile file = SpawnIndexFile.open(getPath(world), world.getSeed(),
+                        SpawnIndexFile.generatorId(world.getEnvironment(), world.getGenerator()), rules, capacity);
+                LogConsole.info("Loaded spawn index of {} ({} regions)", world.getName(), file.getRegionCount(), LogConsole.logTypes.debug);
+                return Optional.of(file);
+            } catch (IOException e) {
+                LogConsole.warn("Couldn't open the spawn index of " + world.getName() + " : " + e.getMessage(), LogConsole.logTypes.log);
+                return Optional.empty();
+            }
+        }).orElse(null);
+    }
+
+    /**
+     * Checks if the index of world knows the chunk has no safe column
+     * @return {@link boolean}
+     */
+    public boolean isBad(World world, int chunkX, int chunkZ) {
+        SpawnIndexFile file = get(world);
+        return file != null && file.isBad(chunkX, chunkZ);
+    }
+
+    /**
+     * Gets the safe column the index of world knows for the chunk
+     * @return {@link int} column index (localZ * 16 + localX), or {@link ColumnScanner#NONE}
+     */
+    public int getSafeColumn(World world, int chunkX, int chunkZ) {
+        SpawnIndexFile file = get(world);
+        return file != null ? file.getSafeColumn(chunkX, chunkZ) : ColumnScanner.NONE;
+    }
+
+    /**
+     * Remembers that the chunk has no safe column (every column was checked)
+     */
+    public void markBad(World world, int chunkX, int chunkZ) {
+        SpawnIndexFile file = get(world);
+        if (file != null) {
+            file.markBad(chunkX, chunkZ);
+        }
+    }
+
+    /**
+     * Remembers a safe spot found by a search
+     * @param location The block to stand on
+     */
+    public void markSafe(Location location) {
+        SpawnIndexFile file = get(location.getWorld());
+        if (file != null) {
+            int x = location.getBlockX();
+            int z = location.getBlockZ();
+            file.markSafe(x >> 4, z >> 4, ((z & 15) << 4) | (x & 15));
+        }
+    }
+
+    /**
+     * Forgets what is known about the chunk (blocks changed). Doesn't map the file of world if it isn't yet.
+     */
+    public void forget(World world, int chunkX, int chunkZ) {
+        Optional<SpawnIndexFile> file = files.get(world.getUID());
+        if (file != null && file.isPresent()) {
+            file.get().forget(chunkX, chunkZ);
+        }
+    }
+
+    /**
+     * Flushes and drops the file of world (unloaded)
+     */
+    public void close(World world) {
+        Optional<SpawnIndexFile> file = files.remove(world.getUID());
+        if (file != null) {
+            file.ifPresent(SpawnIndexFile::flush);
+        }
+    }
+
+    /**
+     * Gets the state of the loaded indexes, for the stats command
+     * @return {@link List} of lines
+     */
+    public List<String> getStatus() {
+        List<String> lines = new ArrayList<>();
+        for (World world : Bukkit.getWorlds()) {
+            Optional<SpawnIndexFile> file = files.get(world.getUID());
+            if (file == null || file.isEmpty()) {
+                continue;
+            }
+            lines.add("&7  index &f" + world.getName() + "&7 : " + file.get().getRegionCount() + "/" + file.get().getCapacity()
+                    + " regions" + (file.get().getDropped() > 0 ? ", &c" + file.get().getDropped() + " writes dropped (full)" : ""));
+        }
+        return lines;
+    }
+
+    /**
+     * Fills the index of world from its region files on a separate thread. Must be called on the main thread.
+     * @param world The world to index
+     * @param threads Amount of regions scanned at the same time (0 for the configured amount)
+     * @return {@link CompletableFuture} completed on the main thread, or null if the world is already being scanned
+     * or the index is disabled
+     */
+    public CompletableFuture<RegionScanner.Result> scan(World world, int threads) {
+        SpawnIndexFile file = get(world);
+        if (file == null) {
+            return null;
+        }
+        UUID uid = world.getUID();
+        if (!scanning.add(uid)) {
+            return null;
+        }
+
+        // chunks only in memory wouldn't be in the region files yet (Folia saves regions on its own)
+        if (!(plugin.scheduler instanceof FoliaTaskScheduler)) {
+            world.save();
+        }
+        boolean cave = world.getEnvironment() == World.Environment.NETHER;
+        int poolSize = threads > 0 ? threads : plugin.config.getConfig().getInt("spawn-index.threads");
+        RegionScanner scanner = new RegionScanner(RegionScanner.getRegionFolder(world), cave, world.getLogicalHeight(),
+                getProfile(world).getMaterialTable(), poolSize);
+
+        CompletableFuture<RegionScanner.Result> result = new CompletableFuture<>();
+        Thread thread = new Thread(() -> {
+            try {
+                RegionScanner.Result scanned = scanner.scan(file, message -> LogConsole.info("[{}] {}", world.getName(), message, LogConsole.logTypes.log));
+                mainThreadExecutor.execute(() -> {
+                    scanning.remove(uid);
+                    result.complete(scanned);
+                });
+            } catch (IOException | RuntimeException e) {
+                mainThreadExecutor.execute(() -> {
+                    scanning.remove(uid);
+                    result.completeExceptionally(e);
+                });
+            }
+        }, "UnexpectedSpawn Index " + world.getName());
+        thread.setDaemon(true);
+        thread.start();
+        return result;
+    }
+
+}
@@ -0,0 +1,330 @@
+/*
+ * This file is part of UnexpectedSpawn
+ * (see https://github.com/DeathGOD7/unexpectedspawn-paper).
+ *
+ * Copyright (c) 2023 DeathGOD7, Shivelight
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.deathgod7.unexpectedspawn;
+
+import org.bukkit.World;
+import org.bukkit.generator.ChunkGenerator;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Objects;
+
+/**
+ * Safe spawn index of one world, a fixed layout file mapped read-write with a {@link MappedByteBuffer}. Writes land in
+ * the mapping and are flushed to disk by {@link #flush()} (only the regions that changed).
+ * <pre>
+ * header (64 bytes)   : magic, version, region capacity, regions used, world seed, generator id, rules id, reserved
+ * directory           : capacity * (region X, region Z), filled in order
+ * regions             : capacity * 1024 entries, same order as the directory (chunks row by row on Z)
+ * entry (2 bytes)     : 0 not known, 0xFFFF no safe column, 0x8000 | column (localZ * 16 + localX) of a safe column
+ * </pre>
+ * A file written for another seed, generator or set of spawn rules (material table, cave mode) is started over.
+ * Thread-safe.
+ */
+public final class SpawnIndexFile {
+
+    static final int MAGIC = 0x554E5349; // "UNSI"
+    static final int VERSION = 3;
+    static final int HEADER_SIZE = 64;
+    static final int DIRECTORY_ENTRY_SIZE = 8;
+    static final int REGION_SIZE = 1024 * 2;
+
+    private static final int CAPACITY_OFFSET = 8;
+    private static final int USED_OFFSET = 12;
+    private static final int SEED_OFFSET = 16;
+    private static final int GENERATOR_OFFSET = 24;
+    private static final int RULES_OFFSET = 28;
+
+    static final short UNKNOWN = 0;
+    static final short BAD = (short) 0xFFFF;
+    static final int SAFE = 0x8000;
+
+    private final Path path;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private final HashMap<Long, Integer> slots = new HashMap<>();
+    // regions written since the last flush, the header is flushed with them
+    private final BitSet dirty = new BitSet();
+    private boolean headerDirty = false;
+    private int dropped = 0;
+
+    private SpawnIndexFile(Path path, MappedByteBuffer buffer, int capacity) {
+        this.path = path;
+        this.buffer = buffer;
+        this.capacity = capacity;
+    }
+
+    /**
+     * Maps the index file, creating it (or starting it over) if it's missing, broken or written for another world
+     * @param path The index file
+     * @param seed The seed of world
+     * @param generator The generator id of world (see {@link #generatorId})
+     * @param rules The spawn rules id of world (see {@link #rulesId})
+     * @param capacity Maximum amount of regions of a new file
+     * @return {@link SpawnIndexFile}
+     * @throws IOException if the file can't be read or created
+     */
+    static SpawnIndexFile open(Path path, long seed, int generator, int rules, int capacity) throws IOException {
+        Files.createDirectories(path.toAbsolutePath().getParent());
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            if (channel.size() >= HEADER_SIZE) {
+                MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+                int existing = header.getInt(CAPACITY_OFFSET);
+                int used = header.getInt(USED_OFFSET);
+                if (header.getInt(0) == MAGIC && header.getInt(4) == VERSION && header.getLong(SEED_OFFSET) == seed
+                        && header.getInt(GENERATOR_OFFSET) == generator && header.getInt(RULES_OFFSET) == rules && existing > 0 && used >= 0 && used <= existing
+                        && channel.size() == fileSize(existing) && fileSize(existing) <= Integer.MAX_VALUE) {
+                    SpawnIndexFile file = new SpawnIndexFile(path, channel.map(FileChannel.MapMode.READ_WRITE, 0, fileSize(existing)), existing);
+                    file.readDirectory();
+                    return file;
+                }
+                LogConsole.warn("Spawn index " + path.getFileName() + " was written for another seed, generator, spawn rules or version, starting over.", LogConsole.logTypes.log);
+            }
+
+            // fresh file, zeros everywhere (regions are not known)
+            channel.truncate(0);
+            if (fileSize(capacity) > Integer.MAX_VALUE) {
+                throw new IOException("Spawn index capacity is too big to be mapped");
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, fileSize(capacity));
+            buffer.order(ByteOrder.BIG_ENDIAN);
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            buffer.putInt(CAPACITY_OFFSET, capacity);
+            buffer.putInt(USED_OFFSET, 0);
+            buffer.putLong(SEED_OFFSET, seed);
+            buffer.putInt(GENERATOR_OFFSET, generator);
+            buffer.putInt(RULES_OFFSET, rules);
+            buffer.force();
+            // the mapping stays valid once the channel is closed
+            return new SpawnIndexFile(path, buffer, capacity);
+        }
+    }
+
+    private static long fileSize(int capacity) {
+        return HEADER_SIZE + (long) capacity * (DIRECTORY_ENTRY_SIZE + REGION_SIZE);
+    }
+
+    private void readDirectory() {
+        int used = buffer.getInt(USED_OFFSET);
+        for (int slot = 0; slot < used; slot++) {
+            int offset = HEADER_SIZE + slot * DIRECTORY_ENTRY_SIZE;
+            slots.put(regionKey(buffer.getInt(offset), buffer.getInt(offset + 4)), slot);
+        }
+    }
+
+    /**
+     * Gets the generator id stored in the header, changes when the world gets another generator
+     * @param environment The environment of world
+     * @param generator The custom generator of world, or null for the vanilla one
+     * @return {@link int}
+     */
+    static int generatorId(World.Environment environment, ChunkGenerator generator) {
+        String name = generator != null ? generator.getClass().getName() : "minecraft:" + environment.name().toLowerCase(Locale.ROOT);
+        return name.hashCode();
+    }
+
+    /**
+     * Gets the spawn rules id stored in the header. The stored verdicts only hold for the rules they were found with, so
+     * the file starts over once the spawn blocks or the cave mode change.
+     * @param table The material table of world profile
+     * @param cave Cave floors are checked (nether) instead of the surface
+     * @param logicalHeight The logical height of world (only used by cave floors)
+     * @return {@link int}
+     */
+    static int rulesId(MaterialTable table, boolean cave, int logicalHeight) {
+        return Objects.hash(table.getFingerprint(), cave, cave ? logicalHeight : 0);
+    }
+
+    static long regionKey(int regionX, int regionZ) {
+        return ((long) regionX << 32) | (regionZ & 0xffffffffL);
+    }
+
+    static short safeEntry(int column) {
+        return (short) (SAFE | column);
+    }
+
+    private static int chunkIndex(int chunkX, int chunkZ) {
+        return ((chunkZ & 31) << 5) | (chunkX & 31);
+    }
+
+    private int entryOffset(int slot, int index) {
+        return HEADER_SIZE + capacity * DIRECTORY_ENTRY_SIZE + slot * REGION_SIZE + index * 2;
+    }
+
+    private int slot(int chunkX, int chunkZ, boolean create) {
+        int regionX = chunkX >> 5;
+        int regionZ = chunkZ >> 5;
+        Integer slot = slots.get(regionKey(regionX, regionZ));
+        if (slot != null || !create) {
+            return slot != null ? slot : -1;
+        }
+        if (slots.size() >= capacity) {
+            dropped++;
+            return -1;
+        }
+
+        int created = slots.size();
+        int offset = HEADER_SIZE + created * DIRECTORY_ENTRY_SIZE;
+        buffer.putInt(offset, regionX);
+        buffer.putInt(offset + 4, regionZ);
+        buffer.putInt(USED_OFFSET, created + 1);
+        slots.put(regionKey(regionX, regionZ), created);
+        headerDirty = true;
+        return created;
+    }
+
+    /**
+     * Gets the entry of a chunk
+     * @return {@link int} entry (unsigned), {@link #UNKNOWN} if the region is not in the file
+     */
+    synchronized int getEntry(int chunkX, int chunkZ) {
+        int slot = slot(chunkX, chunkZ, false);
+        return slot < 0 ? UNKNOWN : buffer.getShort(entryOffset(slot, chunkIndex(chunkX, chunkZ))) & 0xFFFF;
+    }
+
+    synchronized void setEntry(int chunkX, int chunkZ, short entry) {
+        int slot = slot(chunkX, chunkZ, entry != UNKNOWN);
+        if (slot < 0) {
+            return;
+        }
+        int offset = entryOffset(slot, chunkIndex(chunkX, chunkZ));
+        if (buffer.getShort(offset) != entry) {
+            buffer.putShort(offset, entry);
+            dirty.set(slot);
+        }
+    }
+
+    /**
+     * Replaces every entry of a region (a region file scan)
+     * @param entries The 1024 entries of region, chunks row by row on Z
+     */
+    synchronized void putRegion(int regionX, int regionZ, short[] entries) {
+        int slot = slot(regionX << 5, regionZ << 5, true);
+        if (slot < 0) {
+            return;
+        }
+        int offset = entryOffset(slot, 0);
+        for (int i = 0; i < 1024; i++) {
+            buffer.putShort(offset + i * 2, entries[i]);
+        }
+        dirty.set(slot);
+    }
+
+    /**
+     * Checks if the chunk is known to have no safe column
+     * @return {@link boolean}
+     */
+    public boolean isBad(int chunkX, int chunkZ) {
+        return getEntry(chunkX, chunkZ) == (BAD & 0xFFFF);
+    }
+
+    /**
+     * Gets the safe column known for the chunk
+     * @return {@link int} column index (localZ * 16 + localX), or {@link ColumnScanner#NONE}
+     */
+    public int getSafeColumn(int chunkX, int chunkZ) {
+        int entry = getEntry(chunkX, chunkZ);
+        return entry != (BAD & 0xFFFF) && (entry & SAFE) != 0 ? entry & 0xFF : ColumnScanner.NONE;
+    }
+
+    /**
+     * Remembers that the chunk has no safe column
+     */
+    public void markBad(int chunkX, int chunkZ) {
+        setEntry(chunkX, chunkZ, BAD);
+    }
+
+    /**
+     * Remembers a safe column of the chunk
+     * @param column The column index (localZ * 16 + localX)
+     */
+    public void markSafe(int chunkX, int chunkZ, int column) {
+        setEntry(chunkX, chunkZ, safeEntry(column));
+    }
+
+    /**
+     * Forgets what is known about the chunk (blocks changed)
+     */
+    public void forget(int chunkX, int chunkZ) {
+        setEntry(chunkX, chunkZ, UNKNOWN);
+    }
+
+    /**
+     * Writes the regions that changed since the last flush to disk
+     */
+    public void flush() {
+        BitSet regions;
+        boolean header;
+        synchronized (this) {
+            if (dirty.isEmpty() && !headerDirty) {
+                return;
+            }
+            regions = (BitSet) dirty.clone();
+            header = headerDirty;
+            dirty.clear();
+            headerDirty = false;
+        }
+        if (header) {
+            buffer.force(0, HEADER_SIZE + capacity * DIRECTORY_ENTRY_SIZE);
+        }
+        for (int slot = regions.nextSetBit(0); slot >= 0; slot = regions.nextSetBit(slot + 1)) {
+            buffer.force(entryOffset(slot, 0), REGION_SIZE);
+        }
+    }
+
+    /**
+     * @return {@link Path} of the file
+     */
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * @return {@link int} Amount of regions in the file
+     */
+    public synchronized int getRegionCount() {
+        return slots.size();
+    }
+
+    /**
+     * @return {@link int} Maximum amount of regions of the file
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return {@link int} Amount of writes dropped because the file is full
+     */
+    public synchronized int getDropped() {
+        return dropped;
+    }
+
+}
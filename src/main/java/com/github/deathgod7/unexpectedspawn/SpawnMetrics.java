@@ -0,0 +1,301 @@
+/*
+ * This file is part of UnexpectedSpawn
+ * (see https://github.com/DeathGOD7/unexpectedspawn-paper).
+ *
+ * Copyright (c) 2023 DeathGOD7, Shivelight
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.deathgod7.unexpectedspawn;
+
+import org.bukkit.Bukkit;
+import org.bukkit.World;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per-world counters and histograms of the random location searches (tries, chunk loads, time) and of the respawn
+ * tier that found the location. Shown by the stats command and written periodically to "metrics.prom" in the
+ * Prometheus text format. Safe to use from any thread.
+ */
+public class SpawnMetrics {
+
+    private static final double[] QUANTILES = {0.5d, 0.9d, 0.99d};
+
+    /**
+     * Step of the respawn that found the location
+     */
+    enum Tier {
+        VERTICAL("vertical"),
+        NEARBY("nearby"),
+        POOL("pool"),
+        RANDOM("random"),
+        WORLD_SPAWN("world_spawn");
+
+        final String label;
+
+        Tier(String label) {
+            this.label = label;
+        }
+    }
+
+    private final UnexpectedSpawn plugin;
+    private final ConcurrentHashMap<String, WorldMetrics> worlds = new ConcurrentHashMap<>();
+    private final long startedAt = System.currentTimeMillis();
+    private TaskScheduler.Task dumpTask;
+
+    public SpawnMetrics(UnexpectedSpawn plugin) {
+        this.plugin = plugin;
+    }
+
+    /**
+     * Metrics of a single world, every access locks it
+     */
+    static final class WorldMetrics {
+        long searches;
+        long failedSearches;
+        long chunkLoads;
+        long generations;
+        long generationsDenied;
+        final LogLinearHistogram attempts = new LogLinearHistogram();
+        final LogLinearHistogram latencyMicros = new LogLinearHistogram();
+        final long[] tiers = new long[Tier.values().length];
+        final TreeMap<Integer, Long> nearbyRadii = new TreeMap<>();
+    }
+
+    private WorldMetrics of(World world) {
+        return worlds.computeIfAbsent(world.getName(), name -> new WorldMetrics());
+    }
+
+    /**
+     * Reads the dump interval and (re)starts the dump task
+     */
+    public void start() {
+        stop();
+        int interval = plugin.config.getConfig().getInt("metrics.dump-interval");
+        if (interval > 0) {
+            dumpTask = plugin.scheduler.runAsyncTimer(this::dump, interval * 20L, interval * 20L);
+        }
+    }
+
+    public void stop() {
+        if (dumpTask != null) {
+            dumpTask.cancel();
+            dumpTask = null;
+        }
+    }
+
+    /**
+     * Records a finished random location search
+     * @param world The searched world
+     * @param attempts Chunks checked
+     * @param chunkLoads Chunks loaded from the world
+     * @param nanos Time from the request to the result
+     * @param found If a location was found
+     */
+    void recordSearch(World world, int attempts, int chunkLoads, long nanos, boolean found) {
+        WorldMetrics metrics = of(world);
+        synchronized (metrics) {
+            metrics.searches++;
+            if (!found) {
+                metrics.failedSearches++;
+            }
+            metrics.chunkLoads += chunkLoads;
+            metrics.attempts.record(attempts);
+            metrics.latencyMicros.record(nanos / 1000L);
+        }
+    }
+
+    /**
+     * Records a new chunk a search wanted to generate
+     * @param world The world of chunk
+     * @param allowed If the generation budgets allowed it
+     */
+    void recordGeneration(World world, boolean allowed) {
+        WorldMetrics metrics = of(world);
+        synchronized (metrics) {
+            if (allowed) {
+                metrics.generations++;
+            }
+            else {
+                metrics.generationsDenied++;
+            }
+        }
+    }
+
+    /**
+     * Records the respawn tier that found the location
+     */
+    void recordTier(World world, Tier tier) {
+        WorldMetrics metrics = of(world);
+        synchronized (metrics) {
+            metrics.tiers[tier.ordinal()]++;
+        }
+    }
+
+    /**
+     * Records a nearby respawn found within radius
+     */
+    void recordNearby(World world, int radius) {
+        WorldMetrics metrics = of(world);
+        synchronized (metrics) {
+            metrics.tiers[Tier.NEARBY.ordinal()]++;
+            metrics.nearbyRadii.merge(radius, 1L, Long::sum);
+        }
+    }
+
+    /**
+     * Gets the status lines of every world (used by the stats command)
+     * @return {@link List<String>}
+     */
+    public List<String> getStatus() {
+        List<String> lines = new ArrayList<>();
+        lines.add("&8Spawn metrics since " + ((System.currentTimeMillis() - startedAt) / 60000L) + " min");
+        if (worlds.isEmpty()) {
+            lines.add("&8Nothing recorded yet.");
+        }
+        for (Map.Entry<String, WorldMetrics> entry : new TreeMap<>(worlds).entrySet()) {
+            WorldMetrics metrics = entry.getValue();
+            synchronized (metrics) {
+                lines.add("&8" + entry.getKey() + ": &f" + metrics.searches + " &8searches (&f" + metrics.failedSearches
+                        + " &8failed) chunk loads &f" + metrics.chunkLoads + " &8generated &f" + metrics.generations
+                        + " &8(&f" + metrics.generationsDenied + " &8denied)");
+                lines.add("&8  tries p50 &f" + metrics.attempts.getValueAt(0.5d) + " &8p99 &f" + metrics.attempts.getValueAt(0.99d)
+                        + " &8max &f" + metrics.attempts.getMax());
+                lines.add("&8  time p50 &f" + formatMillis(metrics.latencyMicros.getValueAt(0.5d))
+                        + " &8p99 &f" + formatMillis(metrics.latencyMicros.getValueAt(0.99d))
+                        + " &8max &f" + formatMillis(metrics.latencyMicros.getMax()));
+
+                long respawns = 0;
+                for (long tier : metrics.tiers) {
+                    respawns += tier;
+                }
+                StringBuilder tiers = new StringBuilder("&8  respawns");
+                for (Tier tier : Tier.values()) {
+                    long hits = metrics.tiers[tier.ordinal()];
+                    tiers.append(" &8").append(tier.label).append(" &f").append(hits);
+                    if (respawns > 0) {
+                        tiers.append(String.format(" &8(%.0f%%)", hits * 100d / respawns));
+                    }
+                }
+                lines.add(tiers.toString());
+                if (!metrics.nearbyRadii.isEmpty()) {
+                    lines.add("&8  nearby radius &f" + metrics.nearbyRadii);
+                }
+            }
+        }
+        return lines;
+    }
+
+    private static String formatMillis(long micros) {
+        return String.format("%.1f ms", micros / 1000d);
+    }
+
+    /**
+     * Builds the Prometheus text format of every metric
+     * @return {@link String}
+     */
+    String toPrometheus() {
+        StringBuilder out = new StringBuilder(2048);
+        Map<String, WorldMetrics> sorted = new TreeMap<>(worlds);
+
+        header(out, "unexpectedspawn_searches_total", "counter", "Random location searches");
+        header(out, "unexpectedspawn_search_chunk_loads_total", "counter", "Chunks loaded by random location searches");
+        header(out, "unexpectedspawn_chunk_generations_total", "counter", "New chunks the searches wanted to generate, by budget decision");
+        header(out, "unexpectedspawn_search_attempts", "summary", "Chunks checked per random location search");
+        header(out, "unexpectedspawn_search_seconds", "summary", "Time per random location search");
+        header(out, "unexpectedspawn_respawn_tier_total", "counter", "Respawns by the step that found the location");
+        header(out, "unexpectedspawn_respawn_nearby_radius_total", "counter", "Nearby respawns by search radius");
+
+        for (Map.Entry<String, WorldMetrics> entry : sorted.entrySet()) {
+            String world = "world=\"" + escape(entry.getKey()) + "\"";
+            WorldMetrics metrics = entry.getValue();
+            synchronized (metrics) {
+                out.append("unexpectedspawn_searches_total{").append(world).append(",result=\"found\"} ")
+                        .append(metrics.searches - metrics.failedSearches).append('\n');
+                out.append("unexpectedspawn_searches_total{").append(world).append(",result=\"failed\"} ")
+                        .append(metrics.failedSearches).append('\n');
+                out.append("unexpectedspawn_search_chunk_loads_total{").append(world).append("} ").append(metrics.chunkLoads).append('\n');
+                out.append("unexpectedspawn_chunk_generations_total{").append(world).append(",result=\"generated\"} ")
+                        .append(metrics.generations).append('\n');
+                out.append("unexpectedspawn_chunk_generations_total{").append(world).append(",result=\"denied\"} ")
+                        .append(metrics.generationsDenied).append('\n');
+
+                for (double quantile : QUANTILES) {
+                    out.append("unexpectedspawn_search_attempts{").append(world).append(",quantile=\"").append(quantile).append("\"} ")
+                            .append(metrics.attempts.getValueAt(quantile)).append('\n');
+                }
+                out.append("unexpectedspawn_search_attempts_sum{").append(world).append("} ").append(metrics.attempts.getSum()).append('\n');
+                out.append("unexpectedspawn_search_attempts_count{").append(world).append("} ").append(metrics.attempts.getCount()).append('\n');
+
+                for (double quantile : QUANTILES) {
+                    out.append("unexpectedspawn_search_seconds{").append(world).append(",quantile=\"").append(quantile).append("\"} ")
+                            .append(metrics.latencyMicros.getValueAt(quantile) / 1_000_000d).append('\n');
+                }
+                out.append("unexpectedspawn_search_seconds_sum{").append(world).append("} ").append(metrics.latencyMicros.getSum() / 1_000_000d).append('\n');
+                out.append("unexpectedspawn_search_seconds_count{").append(world).append("} ").append(metrics.latencyMicros.getCount()).append('\n');
+
+                for (Tier tier : Tier.values()) {
+                    out.append("unexpectedspawn_respawn_tier_total{").append(world).append(",tier=\"").append(tier.label).append("\"} ")
+                            .append(metrics.tiers[tier.ordinal()]).append('\n');
+                }
+                for (Map.Entry<Integer, Long> radius : metrics.nearbyRadii.entrySet()) {
+                    out.append("unexpectedspawn_respawn_nearby_radius_total{").append(world).append(",radius=\"").append(radius.getKey()).append("\"} ")
+                            .append(radius.getValue()).append('\n');
+                }
+            }
+        }
+        return out.toString();
+    }
+
+    private static void header(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    /**
+     * Writes "metrics.prom" in the data folder (replaced atomically, so scrapers never read half a file)
+     */
+    private void dump() {
+        Path folder = plugin.getDataFolder().toPath();
+        Path temp = folder.resolve("metrics.prom.tmp");
+        try {
+            Files.createDirectories(folder);
+            Files.writeString(temp, toPrometheus(), StandardCharsets.UTF_8);
+            try {
+                Files.move(temp, folder.resolve("metrics.prom"), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, folder.resolve("metrics.prom"), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            LogConsole.warn("Couldn't write the metrics file : " + e.getMessage(), LogConsole.logTypes.log);
+        }
+    }
+
+}
@@ -0,0 +1,88 @@
+/*
+ * This file is part of UnexpectedSpawn
+ * (see https://github.com/DeathGOD7/unexpectedspawn-paper).
+ *
+ * Copyright (c) 2023 DeathGOD7, Shivelight
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.deathgod7.unexpectedspawn;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.function.BiConsumer;
+
+/**
+ * Storage of the saved spawnpoints of players. The plugin never uses a store directly : {@link SpawnPoints} caches
+ * what was read and batches the writes on a background thread, so implementations only have to be thread-safe, not
+ * fast. Built in : "pdc" ({@link PdcSpawnStore}), "sqlite" ({@link SqliteSpawnStore}) and "flatfile"
+ * ({@link FlatFileSpawnStore}), other plugins can add their own with {@link SpawnPoints#registerType}.
+ */
+public interface SpawnPointStore {
+
+    /**
+     * Gets the type of store (as set in "spawn-store.type")
+     * @return {@link String}
+     */
+    String getType();
+
+    /**
+     * Opens the store, called once before any other method
+     * @throws IOException if the store can't be used
+     */
+    void open() throws IOException;
+
+    /**
+     * Writes what is left and releases the store
+     * @throws IOException if the store couldn't be closed cleanly
+     */
+    void close() throws IOException;
+
+    /**
+     * Checks if the spawnpoints are kept in the data of online players. Such a store is read and written on the
+     * thread of the player, right away (the server saves the player data), and only knows online players.
+     * @return {@link boolean}
+     */
+    default boolean isPlayerData() {
+        return false;
+    }
+
+    /**
+     * Reads the spawnpoint of a player
+     * @param playerId The UUID of player
+     * @return {@link SavedSpawn} or null if the player has none
+     * @throws IOException if the store couldn't be read
+     */
+    @Nullable
+    SavedSpawn load(UUID playerId) throws IOException;
+
+    /**
+     * Writes a batch of changes
+     * @param batch The new spawnpoint of every changed player (empty to remove it)
+     * @throws IOException if the batch couldn't be written, it is retried later
+     */
+    void write(Map<UUID, Optional<SavedSpawn>> batch) throws IOException;
+
+    /**
+     * Visits every stored spawnpoint (used by the export command)
+     * @param action Called with the UUID of player and its spawnpoint
+     * @throws IOException if the store couldn't be read
+     */
+    void forEach(BiConsumer<UUID, SavedSpawn> action) throws IOException;
+
+}
@@ -0,0 +1,475 @@
+/*
+ * This file is part of UnexpectedSpawn
+ * (see https://github.com/DeathGOD7/unexpectedspawn-paper).
+ *
+ * Copyright (c) 2023 DeathGOD7, Shivelight
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.deathgod7.unexpectedspawn;
+
+import org.bukkit.Bukkit;
+import org.bukkit.entity.Player;
+
+import javax.annotation.Nullable;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+/**
+ * Saved spawnpoints of players, in front of the configured {@link SpawnPointStore}. Reads go through a cache of the
+ * online players, filled off the main thread when the store isn't the player data : during pre-login, and for the
+ * players already online when the store is (re)started. Preloaded players that never join are dropped from the cache.
+ * Writes land in the cache right away and are written to the store in batches by a virtual thread, every flush
+ * interval or once a batch is full. A failed batch stays queued and is retried. Spawnpoints still in the player data
+ * are moved to the store when the player joins. Thread-safe.
+ */
+public class SpawnPoints {
+
+    private static final Map<String, Function<UnexpectedSpawn, SpawnPointStore>> TYPES = new ConcurrentHashMap<>();
+    // a preloaded player that isn't online after this long was denied (ban, whitelist, full server, kicked...)
+    private static final long PRELOAD_EXPIRY_MILLIS = 60_000L;
+
+    static {
+        TYPES.put("pdc", PdcSpawnStore::new);
+        TYPES.put("sqlite", plugin -> new SqliteSpawnStore(resolve(plugin, "spawn-store.sqlite-file", "spawns.db")));
+        TYPES.put("flatfile", plugin -> new FlatFileSpawnStore(resolve(plugin, "spawn-store.flatfile-file", "spawns.log")));
+    }
+
+    private final UnexpectedSpawn plugin;
+    private final PdcSpawnStore playerData;
+    private volatile SpawnPointStore store;
+
+    // empty = the player has no spawnpoint
+    private final ConcurrentHashMap<UUID, Optional<SavedSpawn>> cache = new ConcurrentHashMap<>();
+    // changes not written to the store yet, newer than the store
+    private final ConcurrentHashMap<UUID, Optional<SavedSpawn>> pending = new ConcurrentHashMap<>();
+    // players read ahead of their join, dropped once they join
+    private final ConcurrentHashMap<UUID, Long> preloadedAt = new ConcurrentHashMap<>();
+
+    private ExecutorService io;
+    private volatile boolean running = false;
+    private final Semaphore wakeup = new Semaphore(0);
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private int batchSize;
+    private long flushIntervalMillis;
+
+    private final LongAdder written = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder migrated = new LongAdder();
+    private final LongAdder syncReads = new LongAdder();
+
+    public SpawnPoints(UnexpectedSpawn plugin) {
+        this.plugin = plugin;
+        this.playerData = new PdcSpawnStore(plugin);
+        this.store = playerData;
+    }
+
+    /**
+     * Adds a type of store that can be set in "spawn-store.type", used from the next start (or reload)
+     * @param type The name of type
+     * @param factory Creates the store, called on the main thread
+     */
+    public static void registerType(String type, Function<UnexpectedSpawn, SpawnPointStore> factory) {
+        TYPES.put(type.toLowerCase(Locale.ROOT), factory);
+    }
+
+    /**
+     * Opens the configured store and starts the background writer. Falls back to the player data if the store can't
+     * be opened.
+     */
+    public synchronized void start() {
+        stop();
+        batchSize = Math.max(1, plugin.config.getConfig().getInt("spawn-store.batch-size", 256));
+        flushIntervalMillis = Math.max(50L, plugin.config.getConfig().getLong("spawn-store.flush-interval-millis", 2000L));
+
+        String type = plugin.config.getConfig().getString("spawn-store.type", "pdc").toLowerCase(Locale.ROOT);
+        Function<UnexpectedSpawn, SpawnPointStore> factory = TYPES.get(type);
+        if (factory == null) {
+            LogConsole.warn("Unknown spawn store \"" + type + "\", using the player data.", LogConsole.logTypes.log);
+            factory = TYPES.get("pdc");
+        }
+        SpawnPointStore opened = factory.apply(plugin);
+        try {
+            opened.open();
+        } catch (IOException | RuntimeException e) {
+            LogConsole.warn("Couldn't open the " + type + " spawn store, using the player data : " + e.getMessage(), LogConsole.logTypes.log);
+            opened = playerData;
+        }
+        store = opened;
+
+        io = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("UnexpectedSpawn-spawns-", 0).factory());
+        if (!opened.isPlayerData()) {
+            running = true;
+            io.execute(this::runWriter);
+            // players online during a reload, so their next respawn doesn't read the store on the main thread
+            List<UUID> online = new ArrayList<>();
+            for (Player player : Bukkit.getOnlinePlayers()) {
+                online.add(player.getUniqueId());
+            }
+            io.execute(() -> online.forEach(this::load));
+        }
+        LogConsole.info("Spawnpoints are kept in the {} store", opened.getType(), LogConsole.logTypes.debug);
+    }
+
+    /**
+     * Writes every queued change and closes the store
+     */
+    public synchronized void stop() {
+        if (io == null) {
+            return;
+        }
+        running = false;
+        wakeup.release();
+        io.shutdown();
+        try {
+            if (!io.awaitTermination(10, TimeUnit.SECONDS)) {
+                LogConsole.warn("The spawn store tasks didn't stop in time.", LogConsole.logTypes.log);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        io = null;
+
+        if (!flush()) {
+            LogConsole.warn(pending.size() + " spawnpoint changes couldn't be written.", LogConsole.logTypes.log);
+        }
+        try {
+            store.close();
+        } catch (IOException e) {
+            LogConsole.warn("Couldn't close the " + store.getType() + " spawn store : " + e.getMessage(), LogConsole.logTypes.log);
+        }
+        // read again from the next store
+        cache.clear();
+        preloadedAt.clear();
+    }
+
+    /**
+     * Reads the spawnpoint of a player ahead of the join, so the main thread doesn't wait for the store. Called from
+     * the pre-login thread, does nothing for the player data.
+     * @param playerId The UUID of player
+     */
+    void preload(UUID playerId) {
+        expirePreloads();
+        if (store.isPlayerData()) {
+            return;
+        }
+        // read again, another server sharing the store may have changed it
+        if (Bukkit.getPlayer(playerId) == null) {
+            cache.remove(playerId);
+        }
+        if (load(playerId)) {
+            preloadedAt.put(playerId, System.currentTimeMillis());
+        }
+    }
+
+    private boolean load(UUID playerId) {
+        if (cache.containsKey(playerId)) {
+            return false;
+        }
+        try {
+            cache.putIfAbsent(playerId, Optional.ofNullable(read(playerId)));
+            return true;
+        } catch (IOException e) {
+            LogConsole.warn("Couldn't read the spawnpoint of " + playerId + " : " + e.getMessage(), LogConsole.logTypes.log);
+            return false;
+        }
+    }
+
+    private void expirePreloads() {
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<UUID, Long>> iterator = preloadedAt.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<UUID, Long> entry = iterator.next();
+            if (now - entry.getValue() > PRELOAD_EXPIRY_MILLIS) {
+                iterator.remove();
+                if (Bukkit.getPlayer(entry.getKey()) == null) {
+                    cache.remove(entry.getKey());
+                }
+            }
+        }
+    }
+
+    /**
+     * Loads the spawnpoint of a joining player, moving the one in the player data to the configured store
+     * @param player The player that joins
+     */
+    void join(Player player) {
+        preloadedAt.remove(player.getUniqueId());
+        SavedSpawn spawn = get(player);
+        if (spawn != null || store.isPlayerData()) {
+            return;
+        }
+        SavedSpawn old = playerData.load(player);
+        if (old != null) {
+            put(player, old);
+            migrated.increment();
+            LogConsole.info("Moved the spawnpoint of {} to the {} store", player.getName(), store.getType(), LogConsole.logTypes.debug);
+        }
+    }
+
+    /**
+     * Gets the spawnpoint of an online player, read from the store if it isn't cached yet. Only the player data is
+     * meant to be read here : other stores are read ahead (pre-login, start), a miss (failed preload, reload still
+     * warming up) falls back to a blocking read on the calling thread and is counted in the status.
+     * @param player The player, called from its thread
+     * @return {@link SavedSpawn} or null if the player has none
+     */
+    @Nullable
+    SavedSpawn get(Player player) {
+        Optional<SavedSpawn> cached = cache.get(player.getUniqueId());
+        if (cached != null) {
+            return cached.orElse(null);
+        }
+        try {
+            SavedSpawn spawn;
+            if (store.isPlayerData()) {
+                spawn = playerData.load(player);
+            }
+            else {
+                syncReads.increment();
+                spawn = read(player.getUniqueId());
+            }
+            cache.put(player.getUniqueId(), Optional.ofNullable(spawn));
+            return spawn;
+        } catch (IOException e) {
+            // not cached, read again next time
+            LogConsole.warn("Couldn't read the spawnpoint of " + player.getName() + " : " + e.getMessage(), LogConsole.logTypes.log);
+            return null;
+        }
+    }
+
+    /**
+     * Sets the spawnpoint of an online player. Written right away to the player data, queued for other stores.
+     * @param player The player, called from its thread
+     * @param spawn The new spawnpoint
+     */
+    void put(Player player, SavedSpawn spawn) {
+        Optional<SavedSpawn> value = Optional.of(spawn);
+        cache.put(player.getUniqueId(), value);
+        SpawnPointStore current = store;
+        if (current.isPlayerData()) {
+            playerData.write(Map.of(player.getUniqueId(), value));
+            return;
+        }
+        pending.put(player.getUniqueId(), value);
+        if (pending.size() >= batchSize) {
+            wakeup.release();
+        }
+    }
+
+    /**
+     * Drops a player that left from the cache (queued changes are still written)
+     * @param playerId The UUID of player
+     */
+    void evict(UUID playerId) {
+        cache.remove(playerId);
+        preloadedAt.remove(playerId);
+    }
+
+    /**
+     * Writes every stored spawnpoint to a file (the player data only knows online players)
+     * @param file The file to write, replaced if it exists
+     * @return {@link CompletableFuture} completed off the main thread with the amount of spawnpoints
+     */
+    CompletableFuture<Integer> exportTo(Path file) {
+        SpawnPointStore current = store;
+        // the cache holds every online player, the player data can't be read from here
+        Map<UUID, Optional<SavedSpawn>> online = current.isPlayerData() ? new HashMap<>(cache) : null;
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                Files.createDirectories(file.toAbsolutePath().getParent());
+                Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+                AtomicInteger count = new AtomicInteger();
+                try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                    if (online != null) {
+                        for (Map.Entry<UUID, Optional<SavedSpawn>> entry : online.entrySet()) {
+                            if (entry.getValue().isPresent()) {
+                                writeLine(writer, entry.getKey(), entry.getValue().get());
+                                count.incrementAndGet();
+                            }
+                        }
+                    }
+                    else {
+                        // the file must hold the changes made until now
+                        if (!flush()) {
+                            throw new IOException("queued changes couldn't be written");
+                        }
+                        current.forEach((player, spawn) -> {
+                            writeLine(writer, player, spawn);
+                            count.incrementAndGet();
+                        });
+                    }
+                }
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+                return count.get();
+            } catch (IOException e) {
+                throw new RuntimeException(e.getMessage(), e);
+            }
+        }, io);
+    }
+
+    /**
+     * Reads spawnpoints from a file written by {@link #exportTo}, replacing the stored ones. The player data only
+     * accepts online players.
+     * @param file The file to read
+     * @return {@link CompletableFuture} completed off the main thread with the amount of imported spawnpoints
+     */
+    CompletableFuture<Integer> importFrom(Path file) {
+        SpawnPointStore current = store;
+        return CompletableFuture.supplyAsync(() -> {
+            int count = 0;
+            try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    Map.Entry<UUID, Optional<SavedSpawn>> entry = FlatFileSpawnStore.parse(line);
+                    if (entry == null) {
+                        continue;
+                    }
+                    UUID playerId = entry.getKey();
+                    Optional<SavedSpawn> value = entry.getValue();
+                    if (current.isPlayerData()) {
+                        Player player = Bukkit.getPlayer(playerId);
+                        if (player == null || value.isEmpty()) {
+                            continue;
+                        }
+                        plugin.scheduler.runFor(player, () -> put(player, value.get()));
+                    }
+                    else {
+                        pending.put(playerId, value);
+                        cache.computeIfPresent(playerId, (uuid, old) -> value);
+                    }
+                    count++;
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e.getMessage(), e);
+            }
+            wakeup.release();
+            return count;
+        }, io);
+    }
+
+    /**
+     * Gets the status lines of the store
+     * @return {@link List} of {@link String}
+     */
+    public List<String> getStatus() {
+        List<String> lines = new ArrayList<>();
+        SpawnPointStore current = store;
+        lines.add("&8Spawn store : &f" + current.getType() + " &8(&f" + cache.size() + " &8cached"
+                + (current.isPlayerData() ? ")" : ", &f" + pending.size() + " &8waiting)"));
+        if (!current.isPlayerData()) {
+            lines.add("&8  written &f" + written.sum() + " &8in &f" + batches.sum() + " &8batches, failed &f" + failures.sum()
+                    + "&8, moved from the player data &f" + migrated.sum() + "&8, blocking reads &f" + syncReads.sum());
+        }
+        return lines;
+    }
+
+    @Nullable
+    private SavedSpawn read(UUID playerId) throws IOException {
+        // queued changes are newer than the store
+        Optional<SavedSpawn> waiting = pending.get(playerId);
+        if (waiting != null) {
+            return waiting.orElse(null);
+        }
+        return store.load(playerId);
+    }
+
+    private void runWriter() {
+        boolean ok = true;
+        while (running) {
+            try {
+                // early once a batch is full, but never right after a failure
+                if (!ok || pending.size() < batchSize) {
+                    wakeup.tryAcquire(flushIntervalMillis, TimeUnit.MILLISECONDS);
+                }
+                wakeup.drainPermits();
+            } catch (InterruptedException e) {
+                return;
+            }
+            ok = flush();
+        }
+    }
+
+    /**
+     * Writes the queued changes in batches
+     * @return {@link boolean} false if a batch failed (it stays queued)
+     */
+    private boolean flush() {
+        flushLock.lock();
+        try {
+            while (!pending.isEmpty()) {
+                Map<UUID, Optional<SavedSpawn>> batch = new HashMap<>();
+                for (Map.Entry<UUID, Optional<SavedSpawn>> entry : pending.entrySet()) {
+                    batch.put(entry.getKey(), entry.getValue());
+                    if (batch.size() >= batchSize) {
+                        break;
+                    }
+                }
+                try {
+                    store.write(batch);
+                } catch (IOException | RuntimeException e) {
+                    failures.increment();
+                    LogConsole.warn("Couldn't write " + batch.size() + " spawnpoints to the " + store.getType() + " store : " + e.getMessage(), LogConsole.logTypes.log);
+                    return false;
+                }
+                // unless it changed again meanwhile
+                batch.forEach(pending::remove);
+                written.add(batch.size());
+                batches.increment();
+            }
+            return true;
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    private static void writeLine(BufferedWriter writer, UUID player, SavedSpawn spawn) {
+        try {
+            writer.write(FlatFileSpawnStore.format(player, spawn));
+            writer.newLine();
+        } catch (IOException e) {
+            throw new RuntimeException(e.getMessage(), e);
+        }
+    }
+
+    private static Path resolve(UnexpectedSpawn plugin, String path, String def) {
+        return plugin.getDataFolder().toPath().resolve(plugin.config.getConfig().getString(path, def));
+    }
+
+}
@@ -0,0 +1,244 @@
+/*
+ * This file is part of UnexpectedSpawn
+ * (see https://github.com/DeathGOD7/unexpectedspawn-paper).
+ *
+ * Copyright (c) 2023 DeathGOD7, Shivelight
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.deathgod7.unexpectedspawn;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockFace;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.UUID;
+
+import static com.github.deathgod7.unexpectedspawn.Utils.*;
+
+/**
+ * Per-world pool of pre-validated random spawn locations. A repeating task keeps every pool topped up with async
+ * searches, so respawn / join / rtp can take a location without searching. The chunk of every pooled location is held
+ * loaded by a plugin chunk ticket, which keeps the re-check before use cheap. Refilled on the main thread (global
+ * region on Folia), locations can be taken from any thread.
+ */
+public class SpawnPool {
+
+    private final UnexpectedSpawn plugin;
+    private final HashMap<UUID, WorldPool> pools = new HashMap<>();
+    private TaskScheduler.Task refillTask;
+
+    private boolean enabled;
+    private int refillPerCycle;
+    private int refillInterval;
+
+    public SpawnPool(UnexpectedSpawn plugin) {
+        this.plugin = plugin;
+    }
+
+    /**
+     * Holds the pooled locations and counters of a single world
+     */
+    static final class WorldPool {
+        final ArrayDeque<Location> locations = new ArrayDeque<>();
+        int capacity;
+        int pending;
+        long hits;
+        long misses;
+        long refilled;
+        long discarded;
+        long returned;
+    }
+
+    /**
+     * Reads the pool settings and (re)starts the refill task
+     */
+    public synchronized void start() {
+        stop();
+
+        enabled = plugin.config.getConfig().getBoolean("spawn-pool.enabled");
+        refillPerCycle = Math.max(1, plugin.config.getConfig().getInt("spawn-pool.refill-per-cycle"));
+        refillInterval = Math.max(1, plugin.config.getConfig().getInt("spawn-pool.refill-interval"));
+
+        if (!enabled) {
+            return;
+        }
+
+        refillTask = plugin.scheduler.runGlobalTimer(this::refill, refillInterval, refillInterval);
+        LogConsole.info("Spawn pool started (refill {} every {} ticks).", refillPerCycle, refillInterval, LogConsole.logTypes.debug);
+    }
+
+    /**
+     * Stops the refill task and releases every pooled chunk
+     */
+    public synchronized void stop() {
+        if (refillTask != null) {
+            refillTask.cancel();
+            refillTask = null;
+        }
+        for (WorldPool pool : pools.values()) {
+            for (Location location : pool.locations) {
+                plugin.chunkTickets.release(location);
+            }
+            pool.locations.clear();
+        }
+        pools.clear();
+    }
+
+    /**
+     * Takes a pooled location of the world after re-checking it
+     * @param world The world to take location from
+     * @return {@link Location} or null if the pool is empty or disabled
+     */
+    public synchronized Location take(World world) {
+        if (!enabled) {
+            return null;
+        }
+
+        WorldPool pool = pools.get(world.getUID());
+        if (pool == null) {
+            return null;
+        }
+
+        Location location;
+        while ((location = pool.locations.pollFirst()) != null) {
+            plugin.chunkTickets.release(location);
+            if (isStillSafe(location)) {
+                pool.hits++;
+                return location;
+            }
+            pool.discarded++;
+        }
+
+        pool.misses++;
+        return null;
+    }
+
+    /**
+     * Puts back a location taken with {@link #take} that ended up unused (it is checked again when taken)
+     * @param location The location to pool again
+     * @return {@link boolean} false if the pool is disabled or full
+     */
+    public synchronized boolean giveBack(Location location) {
+        if (!enabled || location.getWorld() == null) {
+            return false;
+        }
+        WorldPool pool = pools.get(location.getWorld().getUID());
+        if (pool == null || pool.locations.size() >= pool.capacity) {
+            return false;
+        }
+        plugin.chunkTickets.hold(location);
+        pool.locations.addFirst(location);
+        pool.returned++;
+        return true;
+    }
+
+    private synchronized void refill() {
+        // the searches would only add to the lag, what is pooled is kept
+        if (plugin.loadMonitor.getLevel().compareTo(LoadMonitor.Level.NEARBY_ONLY) >= 0) {
+            return;
+        }
+        for (World world : Bukkit.getWorlds()) {
+            WorldSpawnProfile profile = getProfile(world);
+            if (profile.isRandomSpawnDisabled()) {
+                continue;
+            }
+
+            WorldPool pool = pools.computeIfAbsent(world.getUID(), uuid -> new WorldPool());
+            pool.capacity = profile.getPoolSize();
+
+            int missing = Math.min(pool.capacity - pool.locations.size() - pool.pending, refillPerCycle - pool.pending);
+            for (int i = 0; i < missing; i++) {
+                pool.pending++;
+                new AsyncSpawnSearch(profile.getXMin(), profile.getXMax(), profile.getZMin(), profile.getZMax(), world).start().thenAccept(location -> {
+                    synchronized (this) {
+                        // the pool may have been restarted while searching
+                        if (pools.get(world.getUID()) != pool) {
+                            return;
+                        }
+                        pool.pending--;
+                        if (location == null || pool.locations.size() >= pool.capacity) {
+                            return;
+                        }
+                        plugin.chunkTickets.hold(location);
+                        pool.locations.addLast(location);
+                        pool.refilled++;
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Quick re-check of a pooled location, the world could have changed since it was found
+     */
+    private boolean isStillSafe(Location location) {
+        World world = location.getWorld();
+        if (world == null) {
+            return false;
+        }
+        if (!plugin.scheduler.isOwnedByCurrentThread(world, location.getBlockX() >> 4, location.getBlockZ() >> 4)) {
+            // another region on Folia, its blocks can't be read from here (checked when pooled)
+            return true;
+        }
+        if (!world.isChunkLoaded(location.getBlockX() >> 4, location.getBlockZ() >> 4)) {
+            return false;
+        }
+
+        MaterialTable table = getProfile(world).getMaterialTable();
+        Block feet = location.getBlock();
+        return table.isSafeFloor(feet.getRelative(BlockFace.DOWN).getType())
+                && !table.isSolid(feet.getType())
+                && !table.isSolid(feet.getRelative(BlockFace.UP).getType());
+    }
+
+    /**
+     * Gets the status lines of every world pool (used by the pool command)
+     * @return {@link List<String>}
+     */
+    public synchronized List<String> getStatus() {
+        List<String> lines = new ArrayList<>();
+        if (!enabled) {
+            lines.add("&8Spawn pool is disabled.");
+            return lines;
+        }
+
+        lines.add("&8Spawn pool (refill " + refillPerCycle + " every " + refillInterval + " ticks)");
+        for (World world : Bukkit.getWorlds()) {
+            WorldPool pool = pools.get(world.getUID());
+            if (pool == null) {
+                continue;
+            }
+            long total = pool.hits + pool.misses;
+            String hitRate = total == 0 ? "-" : String.format("%.1f%%", pool.hits * 100d / total);
+            lines.add("&8" + world.getName() + ": &f" + pool.locations.size() + "/" + pool.capacity
+                    + " &8pending &f" + pool.pending
+                    + " &8hits &f" + pool.hits
+                    + " &8misses &f" + pool.misses
+                    + " &8(" + hitRate + ")"
+                    + " &8refilled &f" + pool.refilled
+                    + " &8discarded &f" + pool.discarded
+                    + " &8returned &f" + pool.returned);
+        }
+        return lines;
+    }
+
+}
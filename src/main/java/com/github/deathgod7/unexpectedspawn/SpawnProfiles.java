@@ -0,0 +1,93 @@
+/*
+ * This file is part of UnexpectedSpawn
+ * (see https://github.com/DeathGOD7/unexpectedspawn-paper).
+ *
+ * Copyright (c) 2023 DeathGOD7, Shivelight
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.deathgod7.unexpectedspawn;
+
+import org.bukkit.Bukkit;
+import org.bukkit.World;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Holds the compiled {@link WorldSpawnProfile} of every world, keyed by world UUID. The map is never modified, it is
+ * replaced as a whole on reload, so reads need no lock.
+ */
+public class SpawnProfiles {
+
+    private final UnexpectedSpawn plugin;
+    private volatile Map<UUID, WorldSpawnProfile> profiles = Map.of();
+
+    public SpawnProfiles(UnexpectedSpawn plugin) {
+        this.plugin = plugin;
+    }
+
+    /**
+     * Compiles the profiles of all loaded worlds (on enable / reload)
+     */
+    public synchronized void reload() {
+        HashMap<UUID, WorldSpawnProfile> compiled = new HashMap<>();
+        for (World world : Bukkit.getWorlds()) {
+            compiled.put(world.getUID(), WorldSpawnProfile.compile(plugin.config.getConfig(), world));
+        }
+        profiles = Map.copyOf(compiled);
+    }
+
+    /**
+     * Gets the profile of world, compiling it if the world was loaded after the last reload
+     * @param world The world to get profile of
+     * @return {@link WorldSpawnProfile}
+     */
+    public WorldSpawnProfile get(World world) {
+        WorldSpawnProfile profile = profiles.get(world.getUID());
+        if (profile != null) {
+            return profile;
+        }
+        return compile(world);
+    }
+
+    /**
+     * Compiles (or re-compiles) the profile of a single world
+     * @param world The world to compile profile of
+     * @return {@link WorldSpawnProfile}
+     */
+    public synchronized WorldSpawnProfile compile(World world) {
+        WorldSpawnProfile profile = WorldSpawnProfile.compile(plugin.config.getConfig(), world);
+        HashMap<UUID, WorldSpawnProfile> updated = new HashMap<>(profiles);
+        updated.put(world.getUID(), profile);
+        profiles = Map.copyOf(updated);
+        return profile;
+    }
+
+    /**
+     * Drops the profile of an unloaded world
+     * @param world The unloaded world
+     */
+    public synchronized void remove(World world) {
+        if (!profiles.containsKey(world.getUID())) {
+            return;
+        }
+        HashMap<UUID, WorldSpawnProfile> updated = new HashMap<>(profiles);
+        updated.remove(world.getUID());
+        profiles = Map.copyOf(updated);
+    }
+
+}
@@ -0,0 +1,176 @@
+/*
+ * This file is part of UnexpectedSpawn
+ * (see https://github.com/DeathGOD7/unexpectedspawn-paper).
+ *
+ * Copyright (c) 2023 DeathGOD7, Shivelight
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.deathgod7.unexpectedspawn;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.function.BiConsumer;
+
+/**
+ * Keeps the spawnpoints in a SQLite database (the driver ships with the server). Several servers on the same machine
+ * can point to the same file, the database is opened in WAL mode and waits for the lock of another server instead of
+ * failing. One connection, every method is synchronized.
+ */
+final class SqliteSpawnStore implements SpawnPointStore {
+
+    private static final String CREATE = "CREATE TABLE IF NOT EXISTS spawn_points ("
+            + "player TEXT PRIMARY KEY, world TEXT NOT NULL, x REAL NOT NULL, y REAL NOT NULL, z REAL NOT NULL, "
+            + "yaw REAL NOT NULL, pitch REAL NOT NULL, updated_at INTEGER NOT NULL)";
+    private static final String SELECT = "SELECT world, x, y, z, yaw, pitch FROM spawn_points WHERE player = ?";
+    private static final String SELECT_ALL = "SELECT player, world, x, y, z, yaw, pitch FROM spawn_points";
+    private static final String UPSERT = "INSERT INTO spawn_points (player, world, x, y, z, yaw, pitch, updated_at) "
+            + "VALUES (?, ?, ?, ?, ?, ?, ?, ?) ON CONFLICT(player) DO UPDATE SET world = excluded.world, x = excluded.x, "
+            + "y = excluded.y, z = excluded.z, yaw = excluded.yaw, pitch = excluded.pitch, updated_at = excluded.updated_at";
+    private static final String DELETE = "DELETE FROM spawn_points WHERE player = ?";
+
+    private final Path file;
+    private Connection connection;
+
+    SqliteSpawnStore(Path file) {
+        this.file = file;
+    }
+
+    @Override
+    public String getType() {
+        return "sqlite";
+    }
+
+    @Override
+    public synchronized void open() throws IOException {
+        try {
+            Files.createDirectories(file.toAbsolutePath().getParent());
+            connection = DriverManager.getConnection("jdbc:sqlite:" + file.toAbsolutePath());
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("PRAGMA busy_timeout = 5000");
+                statement.execute("PRAGMA journal_mode = WAL");
+                statement.execute(CREATE);
+            }
+        } catch (SQLException e) {
+            close();
+            throw new IOException("Couldn't open " + file + " : " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (connection == null) {
+            return;
+        }
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            throw new IOException(e);
+        } finally {
+            connection = null;
+        }
+    }
+
+    @Override
+    @Nullable
+    public synchronized SavedSpawn load(UUID playerId) throws IOException {
+        try (PreparedStatement statement = connection.prepareStatement(SELECT)) {
+            statement.setString(1, playerId.toString());
+            try (ResultSet result = statement.executeQuery()) {
+                return result.next() ? read(result, 1) : null;
+            }
+        } catch (SQLException | IllegalArgumentException e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public synchronized void write(Map<UUID, Optional<SavedSpawn>> batch) throws IOException {
+        long now = System.currentTimeMillis();
+        try {
+            // one transaction for the whole batch, a single commit is what makes batching worth it
+            connection.setAutoCommit(false);
+            try (PreparedStatement upsert = connection.prepareStatement(UPSERT);
+                 PreparedStatement delete = connection.prepareStatement(DELETE)) {
+                for (Map.Entry<UUID, Optional<SavedSpawn>> entry : batch.entrySet()) {
+                    String player = entry.getKey().toString();
+                    if (entry.getValue().isEmpty()) {
+                        delete.setString(1, player);
+                        delete.addBatch();
+                        continue;
+                    }
+                    SavedSpawn spawn = entry.getValue().get();
+                    upsert.setString(1, player);
+                    upsert.setString(2, spawn.getWorldId().toString());
+                    upsert.setDouble(3, spawn.getX());
+                    upsert.setDouble(4, spawn.getY());
+                    upsert.setDouble(5, spawn.getZ());
+                    upsert.setFloat(6, spawn.getYaw());
+                    upsert.setFloat(7, spawn.getPitch());
+                    upsert.setLong(8, now);
+                    upsert.addBatch();
+                }
+                upsert.executeBatch();
+                delete.executeBatch();
+            }
+            connection.commit();
+        } catch (SQLException e) {
+            try {
+                connection.rollback();
+            } catch (SQLException ignored) {
+            }
+            throw new IOException(e);
+        } finally {
+            try {
+                connection.setAutoCommit(true);
+            } catch (SQLException ignored) {
+            }
+        }
+    }
+
+    @Override
+    public synchronized void forEach(BiConsumer<UUID, SavedSpawn> action) throws IOException {
+        try (Statement statement = connection.createStatement();
+             ResultSet result = statement.executeQuery(SELECT_ALL)) {
+            while (result.next()) {
+                try {
+                    action.accept(UUID.fromString(result.getString(1)), read(result, 2));
+                } catch (IllegalArgumentException e) {
+                    LogConsole.warn("Skipped invalid spawn point row : {}", e.getMessage(), LogConsole.logTypes.debug);
+                }
+            }
+        } catch (SQLException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static SavedSpawn read(ResultSet result, int column) throws SQLException {
+        return new SavedSpawn(UUID.fromString(result.getString(column)),
+                result.getDouble(column + 1), result.getDouble(column + 2), result.getDouble(column + 3),
+                result.getFloat(column + 4), result.getFloat(column + 5));
+    }
+
+}
@@ -0,0 +1,181 @@
+/*
+ * This file is part of UnexpectedSpawn
+ * (see https://github.com/DeathGOD7/unexpectedspawn-paper).
+ *
+ * Copyright (c) 2023 DeathGOD7, Shivelight
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.deathgod7.unexpectedspawn;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.WorldBorder;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Visits the chunks of a search area, each at most once, in a shuffled order. The order is a full-period LCG over the
+ * next power of two of the cell count, skipping the indexes past the end (cycle-walking), so no list of cells is kept.
+ * Once every cell was visited the area grows by the step on all sides (clamped to the world border) and only the new
+ * ring of cells is visited. Not thread-safe.
+ */
+final class StratifiedSampler {
+
+    private final int step;
+    private final int borderXMin;
+    private final int borderXMax;
+    private final int borderZMin;
+    private final int borderZMax;
+
+    private int xmin;
+    private int xmax;
+    private int zmin;
+    private int zmax;
+    private int rings = 0;
+
+    // up to 4 rectangles of chunks : x0, x1, z0, z1 (inclusive)
+    private final int[] rects = new int[16];
+    private int rectCount;
+    private long cellCount;
+
+    private long mask;
+    private long multiplier;
+    private long increment;
+    private long state;
+    private long visited;
+
+    private int chunkX;
+    private int chunkZ;
+
+    StratifiedSampler(int xmin, int xmax, int zmin, int zmax, int step, World world) {
+        WorldBorder border = world.getWorldBorder();
+        double radius = border.getSize() / 2;
+        Location center = border.getCenter();
+        // same bounds as getAreaInsideWB
+        this.borderXMin = (int) (center.getBlockX() - radius);
+        this.borderXMax = (int) (center.getBlockX() + radius);
+        this.borderZMin = (int) (center.getBlockZ() - radius);
+        this.borderZMax = (int) (center.getBlockZ() + radius);
+        this.step = Math.max(0, step);
+
+        this.xmin = clamp(Math.min(xmin, xmax), borderXMin, borderXMax);
+        this.xmax = clamp(Math.max(xmin, xmax), borderXMin, borderXMax);
+        this.zmin = clamp(Math.min(zmin, zmax), borderZMin, borderZMax);
+        this.zmax = clamp(Math.max(zmin, zmax), borderZMin, borderZMax);
+
+        addRect(this.xmin >> 4, this.xmax >> 4, this.zmin >> 4, this.zmax >> 4);
+        shuffle();
+    }
+
+    private static int clamp(int value, int min, int max) {
+        return Math.max(min, Math.min(max, value));
+    }
+
+    private void addRect(int x0, int x1, int z0, int z1) {
+        if (x0 > x1 || z0 > z1) {
+            return;
+        }
+        int i = rectCount++ * 4;
+        rects[i] = x0;
+        rects[i + 1] = x1;
+        rects[i + 2] = z0;
+        rects[i + 3] = z1;
+        cellCount += (long) (x1 - x0 + 1) * (z1 - z0 + 1);
+    }
+
+    private void shuffle() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long size = Long.highestOneBit(Math.max(1, cellCount - 1)) << 1;
+        mask = size - 1;
+        // a % 4 == 1 and an odd c give a full period modulo a power of two
+        multiplier = (random.nextLong() << 2) | 1;
+        increment = random.nextLong() | 1;
+        state = random.nextLong() & mask;
+        visited = 0;
+    }
+
+    /**
+     * Grows the area by the step, keeping only the new ring of chunks
+     * @return {@link boolean} false if the area can't grow anymore
+     */
+    private boolean expand() {
+        if (step == 0) {
+            return false;
+        }
+        int oldX0 = xmin >> 4, oldX1 = xmax >> 4, oldZ0 = zmin >> 4, oldZ1 = zmax >> 4;
+        xmin = clamp(xmin - step, borderXMin, borderXMax);
+        xmax = clamp(xmax + step, borderXMin, borderXMax);
+        zmin = clamp(zmin - step, borderZMin, borderZMax);
+        zmax = clamp(zmax + step, borderZMin, borderZMax);
+        int newX0 = xmin >> 4, newX1 = xmax >> 4, newZ0 = zmin >> 4, newZ1 = zmax >> 4;
+
+        rectCount = 0;
+        cellCount = 0;
+        addRect(newX0, newX1, newZ0, oldZ0 - 1);
+        addRect(newX0, newX1, oldZ1 + 1, newZ1);
+        addRect(newX0, oldX0 - 1, oldZ0, oldZ1);
+        addRect(oldX1 + 1, newX1, oldZ0, oldZ1);
+        if (cellCount == 0) {
+            return false;
+        }
+
+        rings++;
+        LogConsole.info(() -> "Updated area with fail radius (" + step + ", ring " + rings + ") so the current values are ("
+                + xmin + "," + xmax + "," + zmin + "," + zmax + ").", LogConsole.logTypes.debug);
+        shuffle();
+        return true;
+    }
+
+    /**
+     * Moves to the next unvisited chunk, growing the area when needed
+     * @return {@link boolean} false once the area can't grow anymore
+     */
+    boolean next() {
+        while (visited >= cellCount) {
+            if (!expand()) {
+                return false;
+            }
+        }
+
+        long index;
+        do {
+            state = (multiplier * state + increment) & mask;
+            index = state;
+        } while (index >= cellCount);
+        visited++;
+
+        for (int i = 0; i < rectCount * 4; i += 4) {
+            long width = rects[i + 1] - rects[i] + 1;
+            long cells = width * (rects[i + 3] - rects[i + 2] + 1);
+            if (index < cells) {
+                chunkX = rects[i] + (int) (index % width);
+                chunkZ = rects[i + 2] + (int) (index / width);
+                return true;
+            }
+            index -= cells;
+        }
+        throw new IllegalStateException("Cell index outside of the area");
+    }
+
+    int getChunkX() { return chunkX; }
+    int getChunkZ() { return chunkZ; }
+    int getXMin() { return xmin; }
+    int getXMax() { return xmax; }
+    int getZMin() { return zmin; }
+    int getZMax() { return zmax; }
+    int getRings() { return rings; }
+
+}
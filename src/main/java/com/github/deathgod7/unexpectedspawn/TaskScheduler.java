@@ -0,0 +1,107 @@
+/*
+ * This file is part of UnexpectedSpawn
+ * (see https://github.com/DeathGOD7/unexpectedspawn-paper).
+ *
+ * Copyright (c) 2023 DeathGOD7, Shivelight
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.deathgod7.unexpectedspawn;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.Entity;
+import org.bukkit.plugin.Plugin;
+
+/**
+ * Schedules every task of the plugin. On Paper everything world related runs on the main thread
+ * ({@link PaperTaskScheduler}), on Folia it runs on the thread owning the region or entity and the plugin wide tasks run
+ * on the global region ({@link FoliaTaskScheduler}).
+ */
+public interface TaskScheduler {
+
+    /**
+     * Handle of a repeating task
+     */
+    interface Task {
+        void cancel();
+    }
+
+    /**
+     * Creates the scheduler of the running server
+     * @param plugin The plugin owning the tasks
+     * @return {@link TaskScheduler}
+     */
+    static TaskScheduler create(Plugin plugin) {
+        return isFolia() ? new FoliaTaskScheduler(plugin) : new PaperTaskScheduler(plugin);
+    }
+
+    /**
+     * Checks if the server is region threaded (Folia)
+     * @return {@link boolean}
+     */
+    static boolean isFolia() {
+        try {
+            Class.forName("io.papermc.paper.threadedregions.RegionizedServer");
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Runs the task on the next tick of the main thread (global region on Folia)
+     */
+    void runGlobal(Runnable task);
+
+    /**
+     * Runs the task repeatedly on the main thread (global region on Folia)
+     * @param delayTicks Ticks before the first run
+     * @param periodTicks Ticks between runs
+     * @return {@link Task}
+     */
+    Task runGlobalTimer(Runnable task, long delayTicks, long periodTicks);
+
+    /**
+     * Runs the task off the server threads
+     */
+    void runAsync(Runnable task);
+
+    /**
+     * Runs the task repeatedly off the server threads
+     * @param delayTicks Ticks before the first run
+     * @param periodTicks Ticks between runs
+     * @return {@link Task}
+     */
+    Task runAsyncTimer(Runnable task, long delayTicks, long periodTicks);
+
+    /**
+     * Runs the task on the thread owning the location, right away if that's the current thread
+     */
+    void runAt(Location location, Runnable task);
+
+    /**
+     * Runs the task on the thread owning the entity, right away if that's the current thread. Not run if the entity is
+     * removed first.
+     */
+    void runFor(Entity entity, Runnable task);
+
+    /**
+     * Checks if the current thread can touch the chunk (blocks, chunk loads)
+     * @return {@link boolean}
+     */
+    boolean isOwnedByCurrentThread(World world, int chunkX, int chunkZ);
+
+}
@@ -0,0 +1,118 @@
+/*
+ * This file is part of UnexpectedSpawn
+ * (see https://github.com/DeathGOD7/unexpectedspawn-paper).
+ *
+ * Copyright (c) 2023 DeathGOD7, Shivelight
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.deathgod7.unexpectedspawn;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.command.CommandSender;
+import org.bukkit.entity.Player;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static com.github.deathgod7.unexpectedspawn.Utils.*;
+
+/**
+ * Teleports many players a few at a time (used by the rtp-all command), so the chunks of one wave are sent before the
+ * next wave starts. Every teleport runs on the thread of the player (region thread on Folia).
+ */
+final class TeleportWaves {
+
+    // a player removed before its turn never runs the teleport task, it counts as not teleported after this
+    private static final long TELEPORT_TIMEOUT_SECONDS = 30;
+
+    private final CommandSender sender;
+    private final World world;
+    private final List<Player> players;
+    private final List<Location> locations;
+    private final int waveSize;
+    private int next = 0;
+    private TaskScheduler.Task task;
+    private final List<CompletableFuture<Boolean>> teleports = new ArrayList<>();
+
+    /**
+     * @param sender Receives the summary once every teleport finished
+     * @param world The world of locations
+     * @param players The players to teleport, the player at an index goes to the location at same index
+     * @param locations The locations to teleport to
+     * @param waveSize Amount of players teleported per wave
+     */
+    TeleportWaves(CommandSender sender, World world, List<Player> players, List<Location> locations, int waveSize) {
+        this.sender = sender;
+        this.world = world;
+        this.players = players;
+        this.locations = locations;
+        this.waveSize = Math.max(1, waveSize);
+    }
+
+    /**
+     * Starts sending the waves
+     * @param interval Ticks between waves
+     */
+    void start(long interval) {
+        task = plugin.scheduler.runGlobalTimer(this::wave, 1, Math.max(1, interval));
+    }
+
+    private void wave() {
+        int end = Math.min(next + waveSize, Math.min(players.size(), locations.size()));
+        for (; next < end; next++) {
+            Player player = players.get(next);
+            Location location = locations.get(next);
+            CompletableFuture<Boolean> teleported = new CompletableFuture<Boolean>()
+                    .completeOnTimeout(false, TELEPORT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            teleports.add(teleported);
+            plugin.scheduler.runFor(player, () -> {
+                if (!player.isOnline()) {
+                    teleported.complete(false);
+                    return;
+                }
+                // completes on the thread of the player, invulnerable only once it's really there
+                player.teleportAsync(location).thenAccept(ok -> {
+                    if (ok) {
+                        addInvulnerable(player, world);
+                    }
+                    teleported.complete(ok);
+                });
+            });
+        }
+
+        if (next >= Math.min(players.size(), locations.size())) {
+            task.cancel();
+            int waves = (next + waveSize - 1) / waveSize;
+            CompletableFuture.allOf(teleports.toArray(new CompletableFuture[0]))
+                    .thenRun(() -> plugin.scheduler.runGlobal(() -> report(waves)));
+        }
+    }
+
+    private void report(int waves) {
+        int sent = 0;
+        for (CompletableFuture<Boolean> teleported : teleports) {
+            if (teleported.getNow(false)) {
+                sent++;
+            }
+        }
+        LogConsole.info("Sent {}/{} players to random places of {} in " + waves + " waves.", sent, next, world.getName(), LogConsole.logTypes.debug);
+        sender.sendMessage(sent + " of " + next + " players have been teleported randomly in " + waves + " waves!");
+    }
+
+}
@@ -22,30 +22,68 @@ package com.github.deathgod7.unexpectedspawn;
 
 import org.bukkit.plugin.java.JavaPlugin;
 
-import java.util.HashSet;
-import java.util.UUID;
-
 public final class UnexpectedSpawn extends JavaPlugin {
 
     private static UnexpectedSpawn _instance;
     public static UnexpectedSpawn getInstance() {
         return _instance;
     }
+    TaskScheduler scheduler;
     ConfigAccessor config;
     CommandsHandler commandHandler;
+    SpawnProfiles profiles;
+    SpawnPool spawnPool;
+    SearchScheduler searchScheduler;
+    SpawnMetrics metrics;
+    HeightmapCache heightmaps;
+    ChunkTickets chunkTickets;
+    RejectionCache rejections;
+    ChunkGenerationBudget generations;
+    SpawnIndex spawnIndex;
+    LoadMonitor loadMonitor;
+    SpawnPoints spawnPoints;
 
-    HashSet<UUID> preventDmg;
+    InvulnerabilityTracker invulnerability;
 
     @Override
     public void onEnable() {
         _instance = this;
-		preventDmg = new HashSet<>();
+        // classic scheduler on Paper, region schedulers on Folia
+        this.scheduler = TaskScheduler.create(this);
+		invulnerability = new InvulnerabilityTracker(this);
+		invulnerability.start();
         // load default config
         this.config = new ConfigAccessor(this, "config.yml");
         this.config.getConfig().options().copyDefaults(true);
 
         // save default config to file
         this.config.saveDefaultConfig();
+        LogConsole.reload(this);
+
+        // compile the per-world spawn settings
+        this.profiles = new SpawnProfiles(this);
+        this.profiles.reload();
+
+        // surface cache used by the searches
+        this.heightmaps = new HeightmapCache();
+        this.rejections = new RejectionCache();
+        this.generations = new ChunkGenerationBudget();
+        this.reloadCaches();
+
+        // chunks kept loaded for pooled spawns and prefetches
+        this.chunkTickets = new ChunkTickets(this);
+
+        // what the searches learned in earlier runs
+        this.spawnIndex = new SpawnIndex(this);
+        this.spawnIndex.start();
+
+        // cheaper respawns while the server is behind
+        this.loadMonitor = new LoadMonitor(this);
+        this.loadMonitor.start();
+
+        // saved spawnpoints of players
+        this.spawnPoints = new SpawnPoints(this);
+        this.spawnPoints.start();
 
         // register commands
         this.commandHandler = new CommandsHandler(this);
@@ -53,6 +91,55 @@ public final class UnexpectedSpawn extends JavaPlugin {
 
         // register events
         getServer().getPluginManager().registerEvents(new EventsHandler(this), this);
+        getServer().getPluginManager().registerEvents(new WorldChangeListener(this), this);
+
+        // search / respawn metrics (stats command and metrics.prom)
+        this.metrics = new SpawnMetrics(this);
+        this.metrics.start();
+
+        // random location searches run a few chunks per tick
+        this.searchScheduler = new SearchScheduler(this);
+        this.searchScheduler.start();
+
+        // start filling the spawn pools
+        this.spawnPool = new SpawnPool(this);
+        this.spawnPool.start();
+    }
+
+    /**
+     * Reads the cache settings from config and drops cached data (on enable / reload)
+     */
+    void reloadCaches() {
+        this.heightmaps.reload(this.config.getConfig().getInt("heightmap-cache.max-chunks"),
+                this.config.getConfig().getInt("heightmap-cache.max-age"));
+        this.rejections.reload(this.config.getConfig().getInt("rejection-cache.max-regions"),
+                this.config.getConfig().getInt("rejection-cache.max-age"));
+    }
+
+    @Override
+    public void onDisable() {
+        if (this.spawnPool != null) {
+            this.spawnPool.stop();
+        }
+        if (this.searchScheduler != null) {
+            this.searchScheduler.stop();
+        }
+        if (this.invulnerability != null) {
+            this.invulnerability.stop();
+        }
+        if (this.metrics != null) {
+            this.metrics.stop();
+        }
+        if (this.spawnIndex != null) {
+            this.spawnIndex.stop();
+        }
+        if (this.loadMonitor != null) {
+            this.loadMonitor.stop();
+        }
+        if (this.spawnPoints != null) {
+            this.spawnPoints.stop();
+        }
+        LogConsole.shutdown();
     }
 
 }
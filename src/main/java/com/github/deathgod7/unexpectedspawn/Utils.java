@@ -21,17 +21,30 @@
 package com.github.deathgod7.unexpectedspawn;
 
 import org.bukkit.*;
-import org.bukkit.block.Block;
+import org.bukkit.configuration.file.FileConfiguration;
 import org.bukkit.entity.Player;
 
 import javax.annotation.Nullable;
 import java.util.HashSet;
 import java.util.List;
-import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 
 public class Utils {
 	static UnexpectedSpawn plugin = UnexpectedSpawn.getInstance();
 
+	/**
+	 * Runs tasks on the server main thread, the global region on Folia (next tick)
+	 */
+	static final Executor mainThreadExecutor = task -> plugin.scheduler.runGlobal(task);
+
+	/**
+	 * Runs tasks on the async worker pool
+	 */
+	static final Executor asyncExecutor = task -> plugin.scheduler.runAsync(task);
+
 	/**
 	 * Enum for config variables
 	 */
@@ -60,9 +73,20 @@ public class Utils {
 	 * @return {@link String}
 	 */
 	public static String checkWorldConfig(World world, String config) {
+		return checkWorldConfig(plugin.config.getConfig(), world, config);
+	}
+
+	/**
+	 * Checks if the world config is available (per-world config override) in the given config
+	 * @param fileConfig The config to look in
+	 * @param world The world to look for
+	 * @param config The config string (some can also be obtained from {@link ConfigVariable})
+	 * @return {@link String}
+	 */
+	public static String checkWorldConfig(FileConfiguration fileConfig, World world, String config) {
 		//List<String> worldList = plugin.config.getConfig().getStringList("worlds");
 		String worldName = world.getName();
-		if (plugin.config.getConfig().contains("worlds." + worldName + "." + config)) {
+		if (fileConfig.contains("worlds." + worldName + "." + config)) {
 			return ("worlds." + worldName + ".");
 		}
 		else {
@@ -101,13 +125,19 @@ public class Utils {
 			return Integer.parseInt(value);
 		}
 		else {
-			String custom = checkWorldConfig(world, label.configstring);
-			int temp = plugin.config.getConfig().getInt(custom + label.configstring);
-			LogConsole.info("Used config: " + custom + " for "+ label.configstring + " (" + temp + ")", LogConsole.logTypes.debug);
-			return temp;
+			return getProfile(world).getAreaValue(label);
 		}
 	}
 
+	/**
+	 * Gets the compiled spawn profile of world (no config lookups)
+	 * @param world The world to get profile of
+	 * @return {@link WorldSpawnProfile}
+	 */
+	public static WorldSpawnProfile getProfile(World world) {
+		return plugin.profiles.get(world);
+	}
+
 	/**
 	 * Gets the blacklist materials invert status of world
 	 * @param label The invert variable of config file
@@ -115,9 +145,20 @@ public class Utils {
 	 * @return {@link boolean}
 	 */
 	public static boolean getInvertStatus(ConfigVariable label, World world) {
-		String custom = checkWorldConfig(world, label.configstring);
-		boolean temp = plugin.config.getConfig().getBoolean(custom + label.configstring);
-		LogConsole.info("Used config: " + custom + " and the blacklist invert is " + temp + " in world \"" + world.getName() + "\"", LogConsole.logTypes.debug);
+		return getInvertStatus(plugin.config.getConfig(), label, world);
+	}
+
+	/**
+	 * Gets the blacklist materials invert status of world from the given config
+	 * @param fileConfig The config to look in
+	 * @param label The invert variable of config file
+	 * @param world The world to in config for value
+	 * @return {@link boolean}
+	 */
+	public static boolean getInvertStatus(FileConfiguration fileConfig, ConfigVariable label, World world) {
+		String custom = checkWorldConfig(fileConfig, world, label.configstring);
+		boolean temp = fileConfig.getBoolean(custom + label.configstring);
+		LogConsole.info("Used config: {} and the blacklist invert is {} in world \"{}\"", custom, temp, world.getName(), LogConsole.logTypes.debug);
 		return temp;
 	}
 
@@ -128,9 +169,20 @@ public class Utils {
 	 * @return {@link HashSet<Material>}
 	 */
 	public static HashSet<Material> getBlacklistedMaterials(ConfigVariable label, World world) {
-		String custom = checkWorldConfig(world, label.configstring);
+		return getBlacklistedMaterials(plugin.config.getConfig(), label, world);
+	}
+
+	/**
+	 * Gets all the blacklish / whitelist materials from the given config
+	 * @param fileConfig The config to look in
+	 * @param label The label in config to look for [based on {@link ConfigVariable}]
+	 * @param world The world to get config of
+	 * @return {@link HashSet<Material>}
+	 */
+	public static HashSet<Material> getBlacklistedMaterials(FileConfiguration fileConfig, ConfigVariable label, World world) {
+		String custom = checkWorldConfig(fileConfig, world, label.configstring);
 		HashSet<Material> blacklistedMaterial = new HashSet<>();
-		List<String> materialList = plugin.config.getConfig().getStringList(custom + label.configstring);
+		List<String> materialList = fileConfig.getStringList(custom + label.configstring);
 		for (String name : materialList) {
 			Material material = Material.getMaterial(name);
 			if (material == null) {
@@ -140,7 +192,7 @@ public class Utils {
 			blacklistedMaterial.add(material);
 		}
 
-		LogConsole.info("Used config: " + custom + " and the values are : " + blacklistedMaterial + " in world \"" + world.getName() + "\"", LogConsole.logTypes.debug);
+		LogConsole.info("Used config: {} and the values are : {} in world \"{}\"", custom, blacklistedMaterial, world.getName(), LogConsole.logTypes.debug);
 
 		return blacklistedMaterial;
 	}
@@ -155,19 +207,66 @@ public class Utils {
 	}
 
 	/**
-	 * Gets random spawn location based on config values from specified world
+	 * Gets random spawn location based on config values from specified world without loading chunks synchronously.
+	 * Can be called from any thread.
 	 * @param world World to get random location from
-	 * @return {@link Location}
+	 * @return {@link CompletableFuture} completed on the main thread (global region on Folia) with the location, or
+	 * cancelled if the search was (no world spawn fallback then)
 	 */
-	public static Location getRandomSpawnLocation(World world) {
-		int tryCount = 0;
+	public static CompletableFuture<Location> getRandomSpawnLocationAsync(World world) {
+		WorldSpawnProfile profile = getProfile(world);
+		return getRandomSpawnLocationAsync(profile.getXMin(), profile.getXMax(), profile.getZMin(), profile.getZMax(), world);
+	}
 
-		int xmin = getAreaValue(null, ConfigVariable.XMin, world);
-		int xmax = getAreaValue(null, ConfigVariable.XMax, world);
-		int zmin = getAreaValue(null, ConfigVariable.ZMin, world);
-		int zmax = getAreaValue(null, ConfigVariable.ZMax, world);
+	/**
+	 * Gets random spawn location based on Xmin Xmax Zmin Zmax from specified world. Candidate chunks are loaded with
+	 * {@link World#getChunkAtAsync(int, int)} and checked off the main thread. Can be called from any thread.
+	 * @param xmin Minimum X value
+	 * @param xmax Maximum X value
+	 * @param zmin Minimum Z value
+	 * @param zmax Maximum Z value
+	 * @param world World to get random location from
+	 * @return {@link CompletableFuture} completed on the main thread (global region on Folia) with the location, or
+	 * cancelled if the search was (no world spawn fallback then)
+	 */
+	public static CompletableFuture<Location> getRandomSpawnLocationAsync(int xmin, int xmax, int zmin, int zmax, World world) {
+		return new AsyncSpawnSearch(xmin, xmax, zmin, zmax, world).start().thenApply(location -> {
+			if (location == null) {
+				return getWorldSpawnFallback(world);
+			}
+			return location;
+		});
+	}
+
+	/**
+	 * Same as {@link #getRandomSpawnLocationAsync(World)} but without the world spawn fallback
+	 * @param world World to get random location from
+	 * @return {@link CompletableFuture} completed on the main thread with the location, or null if the search failed,
+	 * cancelled if the search was
+	 */
+	public static CompletableFuture<Location> findRandomSpawnLocationAsync(World world) {
+		WorldSpawnProfile profile = getProfile(world);
+		return new AsyncSpawnSearch(profile.getXMin(), profile.getXMax(), profile.getZMin(), profile.getZMax(), world).start();
+	}
 
-		return getRandomSpawnLocation(xmin, xmax, zmin, zmax, world);
+	/**
+	 * Checks if a search future completed because the search was cancelled (the plugin is stopping or reloading)
+	 * @param ex The exception the future completed with
+	 * @return {@link boolean}
+	 */
+	public static boolean isCancelled(Throwable ex) {
+		return ex instanceof CancellationException
+				|| ex instanceof CompletionException && ex.getCause() instanceof CancellationException;
+	}
+
+	/**
+	 * Gets the location used when the random search failed
+	 * @param world The world to get spawn point of
+	 * @return {@link Location}
+	 */
+	public static Location getWorldSpawnFallback(World world) {
+		LogConsole.warn("Respawning at world spawn point.", LogConsole.logTypes.log);
+		return world.getSpawnLocation().add(0.5d, 1d, 0.5d);
 	}
 
 	/**
@@ -199,203 +298,29 @@ public class Utils {
 				result = Math.min(value, temp);
 				break;
 			default:
-				LogConsole.warn("Not valid config type : " + config.configstring, LogConsole.logTypes.debug);
+				LogConsole.warn("Not valid config type : {}", config.configstring, LogConsole.logTypes.debug);
 				temp = value;
 				result = value;
 				break;
 		}
 
 		if (temp != value) {
-			LogConsole.warn( config.configstring + " value is outside of world border. Using " + temp + " instead of " + value, LogConsole.logTypes.debug);
+			LogConsole.warn("{} value is outside of world border. Using {} instead of {}", config.configstring, temp, value, LogConsole.logTypes.debug);
 		}
 
 		return result;
 	}
 
 	/**
-	 * Gets random spawn location based on Xmin Xmax Zmin Zmax from specified world
-	 * @param xmin Minimum X value
-	 * @param xmax Maximum X value
-	 * @param zmin Minimum Z value
-	 * @param zmax Maximum Z value
-	 * @param world World to get random location from
-	 * @return {@link Location}
-	 */
-	public static Location getRandomSpawnLocation(int xmin, int xmax, int zmin, int zmax, World world) {
-		int tryCount = 0;
-
-		int retryonfail = getAreaValue(null, ConfigVariable.FailRadius, world);
-
-		HashSet<Material> spawnBlacklistedMaterials = getBlacklistedMaterials(ConfigVariable.BlackListMaterials, world);
-
-		boolean isSpawnBlacklistInverted = getInvertStatus(ConfigVariable.InvertBlock, world);
-
-		while (true) {
-			if(tryCount == 5000) {
-				xmin = addFailRange(xmin ,retryonfail);
-				xmax = addFailRange(xmax ,retryonfail);
-				zmin = addFailRange(zmin ,retryonfail);
-				zmax = addFailRange(zmax ,retryonfail);
-				LogConsole.warn("Couldn't find suitable location after " + tryCount + " try. Updating range as per fail-radius.", LogConsole.logTypes.log);
-				LogConsole.info("Updated area with retry fail radius ("+retryonfail+") so the current values are ("+xmin+","+xmax+","+zmin+","+zmax+").", LogConsole.logTypes.debug);
-			}
-			else if (tryCount >= 10000) {
-				LogConsole.warn("Couldn't find suitable location for random respawn after "+tryCount+" so respawning at world spawn point.", LogConsole.logTypes.log);
-				Location location = world.getSpawnLocation();
-				return location.add(0.5d, 1d, 0.5d);
-			}
-
-			// get border values
-			WorldBorder border = world.getWorldBorder();
-			double radius = border.getSize() / 2;
-			Location center = border.getCenter();
-
-			xmin = getAreaInsideWB(xmin, center, radius, ConfigVariable.XMin);
-			xmax = getAreaInsideWB(xmax, center, radius, ConfigVariable.XMax);
-			zmin = getAreaInsideWB(zmin, center, radius, ConfigVariable.ZMin);
-			zmax = getAreaInsideWB(zmax, center, radius, ConfigVariable.ZMax);
-
-			int x = xmin + ThreadLocalRandom.current().nextInt((xmax - xmin) + 1);
-			int z = zmin + ThreadLocalRandom.current().nextInt((zmax - zmin) + 1);
-			int y;
-
-			Location location;
-
-			if (world.getEnvironment().equals(World.Environment.NETHER)) {
-				// for nether
-				int minY = 0;
-				int maxY = 128;
-				location = getLocAtNether(x, z, minY, maxY, world, spawnBlacklistedMaterials, isSpawnBlacklistInverted);
-			}else {
-				// for overworld and normal worlds
-				location = getLocAtNormal(x, z, world, spawnBlacklistedMaterials, isSpawnBlacklistInverted);
-			}
-			tryCount++;
-
-			if (location == null) {
-				continue;
-			}
-
-			y = location.getBlockY();
-
-			LogConsole.warn("Found location for random respawn after "+tryCount+" tries (X "+x+", Y "+y+", Z "+z+")", LogConsole.logTypes.log);
-
-			return location.add(0.5d, 1d, 0.5d);
-		}
-	}
-
-	/**
-	 * Checks if the loop should continue to look for new lcoation
-	 * @param material The material to look for
-	 * @param blacklistedMaterials The blacklisted materials or whitelisted (if invert is true)
-	 * @param invertStatus Status of invert (true then whitelist, false then blacklist)
-	 * @return {@link boolean}
-	 */
-	private static boolean checkMaterialsContinue(Material material, HashSet<Material> blacklistedMaterials, boolean invertStatus){
-		if(!invertStatus) { // if not inverted => BLACKLIST
-			// returns true if blacklist contains that block material
-			// returns false if blacklist doesn't contain that block material
-			return blacklistedMaterials.contains(material);
-		}
-		else { // if list is inverted => WHITELIST
-			// returns false if blacklist contains that block material
-			// returns true if blacklist doesn't contain that block material
-			return !blacklistedMaterials.contains(material);
-		}
-	}
-
-	/**
-	 * Gets the normal world (overworld and end) random location
-	 * @param x The X co-ordinate of location (from random generator)
-	 * @param z The Z co-ordinate of location (from random generator)
-	 * @param world The world to get location of
-	 * @param spawnBlacklistedMaterials The blacklisted materials or whitelisted (if invert is true)
-	 * @param isSpawnBlacklistInverted Status of invert (true then whitelist, false then blacklist)
-	 * @return {@link Location}
-	 */
-	private static Location getLocAtNormal(int x, int z, World world , HashSet<Material> spawnBlacklistedMaterials, boolean isSpawnBlacklistInverted) {
-		int y = world.getHighestBlockYAt(x, z);
-		Location location = new Location(world, x, y, z);
-
-		// Special case for server version < 1.15.2 (?)
-		// Related: https://www.spigotmc.org/threads/gethighestblockat-returns-air.434090/
-		if (location.getBlock().getType() == Material.AIR) {
-			location = location.subtract(0, 1, 0);
-		}
-
-		// if block is solid and [not in blacklist or is in whitelist]
-		if (checkMaterialsContinue(location.getBlock().getType(), spawnBlacklistedMaterials, isSpawnBlacklistInverted)){
-			return null;
-		}
-
-		return  location;
-	}
-
-	/**
-	 * Gets the nether world random location
-	 * @param x The X co-ordinate of location (from random generator)
-	 * @param z The Z co-ordinate of location (from random generator)
-	 * @param minY The minimum Y height (usually 0)
-	 * @param maxY The maximum Y height (usually 128)
-	 * @param world The world to get location of
-	 * @param spawnBlacklistedMaterials The blacklisted materials or whitelisted (if invert is true)
-	 * @param isSpawnBlacklistInverted Status of invert (true then whitelist, false then blacklist)
-	 * @return {@link Location}
-	 */
-	private static Location getLocAtNether(int x, int z, int minY, int maxY, World world,  HashSet<Material> spawnBlacklistedMaterials, boolean isSpawnBlacklistInverted) {
-		for (int y = minY + 1; y < maxY; y++) {
-			Block currentBlock = world.getBlockAt(x, y, z);
-			if (currentBlock.getType().name().endsWith("AIR") || !currentBlock.getType().isSolid()) { // current block is air
-				if (!currentBlock.getType().name().endsWith("AIR") && !currentBlock.getType().isSolid()) { // current block is not air nor solid (ex: lava, water...)
-					Material currentBlockMaterial = currentBlock.getType();
-					if (checkMaterialsContinue(currentBlockMaterial, spawnBlacklistedMaterials, isSpawnBlacklistInverted)){
-						continue;
-					}
-				}
-
-				// current block is infact empty air
-				// now check if below block is solid [a.k.a landing block] or not
-				Block belowblock = world.getBlockAt(x, y - 1, z);
-				Material belowBlockMaterial = belowblock.getType();
-				if (belowBlockMaterial.name().endsWith("AIR")) {
-					// if block below is air, skip
-					continue;
-				}
-
-				// if below block is solid and [not in blacklist or is in whitelist]
-				// and above block is empty (AIR) for headspace
-				if (world.getBlockAt(x, y + 1, z).getType().name().endsWith("AIR") //Head block => empty / air
-						&& !checkMaterialsContinue(belowBlockMaterial, spawnBlacklistedMaterials, isSpawnBlacklistInverted)) //Valid block
-					return new Location(world, x, y, z);
-			}
-		}
-		return null;
-	}
-
-	/**
-	 * Adds player to prevent damage list and starts timer for invulnerable
-	 * @param player The player to add to list
+	 * Protects player from damage for the invulnerable duration of world (restarts the timer if already protected)
+	 * @param player The player to protect
 	 * @param world The world to check for config
 	 */
 	public static void addInvulnerable(Player player, World world) {
-		// add player UUID to check for preventing damage
-		if (plugin.preventDmg.add(player.getUniqueId())) {
-			LogConsole.warn("Player " + player.getName() + " will now turn into immortal peasant.", LogConsole.logTypes.debug);
+		int sec = getProfile(world).getInvulnerableDuration();
+		if (plugin.invulnerability.protect(player.getUniqueId(), sec * 20L)) {
+			LogConsole.warn("Player {} will now turn into immortal peasant.", player.getName(), LogConsole.logTypes.debug);
 		}
-
-		// start timer for invulnerable
-		ConfigVariable label = ConfigVariable.InvulnerableTime;
-		String custom = checkWorldConfig(world, label.configstring);
-		int sec = plugin.config.getConfig().getInt(custom + label.configstring);
-		Bukkit.getScheduler().runTaskLater(plugin, () -> {
-			LogConsole.warn("Prevent DMG (List) : " + plugin.preventDmg.toString(), LogConsole.logTypes.debug);
-			// remove player UUID after if no fall damage after 5s of teleport
-			if (plugin.preventDmg.contains(player.getUniqueId())) {
-				plugin.preventDmg.remove(player.getUniqueId());
-				LogConsole.warn("Player " + player.getName() + " will now turn into mortal servant.", LogConsole.logTypes.debug);
-			}
-		}, sec * 20L);
-
 	}
 
 }
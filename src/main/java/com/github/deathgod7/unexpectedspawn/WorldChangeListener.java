@@ -0,0 +1,222 @@
+/*
+ * This file is part of UnexpectedSpawn
+ * (see https://github.com/DeathGOD7/unexpectedspawn-paper).
+ *
+ * Copyright (c) 2023 DeathGOD7, Shivelight
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.deathgod7.unexpectedspawn;
+
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockFace;
+import org.bukkit.block.BlockState;
+import org.bukkit.block.data.Directional;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.block.BlockBreakEvent;
+import org.bukkit.event.block.BlockBurnEvent;
+import org.bukkit.event.block.BlockDispenseEvent;
+import org.bukkit.event.block.BlockExplodeEvent;
+import org.bukkit.event.block.BlockFadeEvent;
+import org.bukkit.event.block.BlockFormEvent;
+import org.bukkit.event.block.BlockFromToEvent;
+import org.bukkit.event.block.BlockIgniteEvent;
+import org.bukkit.event.block.BlockPistonExtendEvent;
+import org.bukkit.event.block.BlockPistonRetractEvent;
+import org.bukkit.event.block.BlockPlaceEvent;
+import org.bukkit.event.block.BlockSpreadEvent;
+import org.bukkit.event.block.LeavesDecayEvent;
+import org.bukkit.event.entity.EntityChangeBlockEvent;
+import org.bukkit.event.entity.EntityExplodeEvent;
+import org.bukkit.event.player.PlayerBucketEmptyEvent;
+import org.bukkit.event.world.StructureGrowEvent;
+import org.bukkit.event.world.WorldUnloadEvent;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Drops cached chunk data (and what the spawn index knows) when blocks change in that chunk
+ */
+public class WorldChangeListener implements Listener {
+
+    private final UnexpectedSpawn plugin;
+
+    public WorldChangeListener(UnexpectedSpawn plugin) {
+        this.plugin = plugin;
+    }
+
+    private void changed(World world, int chunkX, int chunkZ) {
+        plugin.heightmaps.invalidate(world, chunkX, chunkZ);
+        plugin.rejections.invalidate(world, chunkX, chunkZ);
+        plugin.spawnIndex.forget(world, chunkX, chunkZ);
+    }
+
+    private void changed(Block block) {
+        changed(block.getWorld(), block.getX() >> 4, block.getZ() >> 4);
+    }
+
+    private void changed(List<Block> blocks) {
+        int lastX = Integer.MIN_VALUE;
+        int lastZ = Integer.MIN_VALUE;
+        for (Block block : blocks) {
+            int chunkX = block.getX() >> 4;
+            int chunkZ = block.getZ() >> 4;
+            // explosions mostly touch the same few chunks
+            if (chunkX == lastX && chunkZ == lastZ) {
+                continue;
+            }
+            lastX = chunkX;
+            lastZ = chunkZ;
+            changed(block.getWorld(), chunkX, chunkZ);
+        }
+    }
+
+    // the piston, the moved blocks and where they end up (can be the next chunk)
+    private static List<Block> moved(Block piston, List<Block> blocks, BlockFace direction) {
+        List<Block> moved = new ArrayList<>(blocks.size() * 2 + 2);
+        moved.add(piston);
+        moved.add(piston.getRelative(direction));
+        for (Block block : blocks) {
+            moved.add(block);
+            moved.add(block.getRelative(direction));
+        }
+        return moved;
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockPlace(BlockPlaceEvent event) {
+        changed(event.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockBreak(BlockBreakEvent event) {
+        changed(event.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBucketEmpty(PlayerBucketEmptyEvent event) {
+        changed(event.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onFluidFlow(BlockFromToEvent event) {
+        Block block = event.getToBlock();
+        // flows under the cached surface (caves, ocean floor) change nothing the searches read, and they are frequent
+        HeightmapCache.ChunkHeights cached = plugin.heightmaps.get(block.getWorld(), block.getX() >> 4, block.getZ() >> 4);
+        if (cached != null && block.getY() < cached.getHighestY(block.getX() & 15, block.getZ() & 15)) {
+            return;
+        }
+        changed(block);
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockForm(BlockFormEvent event) {
+        // snow, ice, concrete, obsidian and cobblestone from fluids
+        changed(event.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockSpread(BlockSpreadEvent event) {
+        // fire, grass, mycelium, vines
+        changed(event.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockFade(BlockFadeEvent event) {
+        // melting ice and snow, fire going out
+        changed(event.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockBurn(BlockBurnEvent event) {
+        changed(event.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockIgnite(BlockIgniteEvent event) {
+        changed(event.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onLeavesDecay(LeavesDecayEvent event) {
+        changed(event.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onEntityChangeBlock(EntityChangeBlockEvent event) {
+        // endermen, falling blocks, ravagers, withers
+        changed(event.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onPistonExtend(BlockPistonExtendEvent event) {
+        changed(moved(event.getBlock(), event.getBlocks(), event.getDirection()));
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onPistonRetract(BlockPistonRetractEvent event) {
+        changed(moved(event.getBlock(), event.getBlocks(), event.getDirection()));
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onDispense(BlockDispenseEvent event) {
+        // only buckets place or pick up a block (the fluid in front of the dispenser)
+        if (!event.getItem().getType().name().endsWith("BUCKET")) {
+            return;
+        }
+        Block block = event.getBlock();
+        if (block.getBlockData() instanceof Directional directional) {
+            changed(block.getRelative(directional.getFacing()));
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onStructureGrow(StructureGrowEvent event) {
+        int lastX = Integer.MIN_VALUE;
+        int lastZ = Integer.MIN_VALUE;
+        for (BlockState state : event.getBlocks()) {
+            int chunkX = state.getX() >> 4;
+            int chunkZ = state.getZ() >> 4;
+            if (chunkX == lastX && chunkZ == lastZ) {
+                continue;
+            }
+            lastX = chunkX;
+            lastZ = chunkZ;
+            changed(event.getWorld(), chunkX, chunkZ);
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onEntityExplode(EntityExplodeEvent event) {
+        changed(event.blockList());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockExplode(BlockExplodeEvent event) {
+        changed(event.blockList());
+    }
+
+    @EventHandler
+    public void onWorldUnload(WorldUnloadEvent event) {
+        plugin.heightmaps.invalidate(event.getWorld());
+        plugin.rejections.invalidate(event.getWorld());
+        plugin.spawnIndex.close(event.getWorld());
+    }
+
+}
@@ -0,0 +1,207 @@
+/*
+ * This file is part of UnexpectedSpawn
+ * (see https://github.com/DeathGOD7/unexpectedspawn-paper).
+ *
+ * Copyright (c) 2023 DeathGOD7, Shivelight
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.deathgod7.unexpectedspawn;
+
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.configuration.file.FileConfiguration;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import static com.github.deathgod7.unexpectedspawn.Utils.*;
+
+/**
+ * Immutable spawn settings of a world, compiled once from the merged "global." and "worlds.&lt;name&gt;." sections.
+ * Safe to read from any thread.
+ */
+public final class WorldSpawnProfile {
+
+    private static final Set<Material> FALLBACK_DANGER = Collections.unmodifiableSet(EnumSet.of(
+            Material.LAVA, Material.WATER, Material.FIRE, Material.MAGMA_BLOCK, Material.CACTUS));
+
+    private final UUID worldId;
+    private final String worldName;
+    private final boolean randomSpawnDisabled;
+
+    private final int xmin;
+    private final int xmax;
+    private final int zmin;
+    private final int zmax;
+    private final int failRadius;
+    private final int invulnerableDuration;
+    private final int poolSize;
+    private final int searchAttempts;
+    private final int searchMillis;
+    private final int searchChunkLoads;
+    private final int searchGenerations;
+    private final int generationsPerMinute;
+    private final String respawnWorld;
+
+    private final Set<Material> blacklistedMaterials;
+    private final boolean blacklistInverted;
+    private final MaterialTable materialTable;
+    private final int[] searchRadii;
+
+    private final boolean onDeath;
+    private final boolean onReturnFromEnd;
+    private final boolean bedRespawnEnabled;
+    private final boolean onFirstJoin;
+    private final boolean alwaysOnJoin;
+
+    private WorldSpawnProfile(FileConfiguration config, World world) {
+        this.worldId = world.getUID();
+        this.worldName = world.getName();
+        this.randomSpawnDisabled = config.getStringList(ConfigVariable.BlackListWorlds.configstring).contains(worldName);
+
+        this.xmin = config.getInt(checkWorldConfig(config, world, ConfigVariable.XMin.configstring) + ConfigVariable.XMin.configstring);
+        this.xmax = config.getInt(checkWorldConfig(config, world, ConfigVariable.XMax.configstring) + ConfigVariable.XMax.configstring);
+        this.zmin = config.getInt(checkWorldConfig(config, world, ConfigVariable.ZMin.configstring) + ConfigVariable.ZMin.configstring);
+        this.zmax = config.getInt(checkWorldConfig(config, world, ConfigVariable.ZMax.configstring) + ConfigVariable.ZMax.configstring);
+        this.failRadius = config.getInt(checkWorldConfig(config, world, ConfigVariable.FailRadius.configstring) + ConfigVariable.FailRadius.configstring);
+        this.invulnerableDuration = config.getInt(checkWorldConfig(config, world, ConfigVariable.InvulnerableTime.configstring) + ConfigVariable.InvulnerableTime.configstring);
+        this.poolSize = Math.max(0, config.getInt(checkWorldConfig(config, world, "spawn-pool.size") + "spawn-pool.size"));
+        this.searchAttempts = Math.max(1, config.getInt(checkWorldConfig(config, world, "search-budget.attempts") + "search-budget.attempts"));
+        this.searchMillis = Math.max(1, config.getInt(checkWorldConfig(config, world, "search-budget.max-millis") + "search-budget.max-millis"));
+        this.searchChunkLoads = Math.max(1, config.getInt(checkWorldConfig(config, world, "search-budget.chunk-loads") + "search-budget.chunk-loads"));
+        // negative for no limit
+        this.searchGenerations = config.getInt(checkWorldConfig(config, world, "search-budget.generations") + "search-budget.generations");
+        this.generationsPerMinute = config.getInt(checkWorldConfig(config, world, "search-budget.generations-per-minute") + "search-budget.generations-per-minute");
+        this.respawnWorld = config.getString(checkWorldConfig(config, world, ConfigVariable.RespawnWorld.configstring) + ConfigVariable.RespawnWorld.configstring);
+
+        EnumSet<Material> materials = EnumSet.noneOf(Material.class);
+        materials.addAll(Utils.getBlacklistedMaterials(config, ConfigVariable.BlackListMaterials, world));
+        this.blacklistedMaterials = Collections.unmodifiableSet(materials);
+        this.blacklistInverted = getInvertStatus(config, ConfigVariable.InvertBlock, world);
+        // respawn safety checks always treat the list as dangerous blocks, even if inverted
+        this.materialTable = new MaterialTable(this.blacklistedMaterials, this.blacklistInverted,
+                materials.isEmpty() ? FALLBACK_DANGER : this.blacklistedMaterials);
+
+        List<Integer> radii = config.getIntegerList(checkWorldConfig(config, world, "search-radii") + "search-radii");
+        this.searchRadii = radii.stream().mapToInt(Integer::intValue).filter(radius -> radius > 0).toArray();
+
+        this.onDeath = getFlag(config, world, "random-respawn.on-death");
+        this.onReturnFromEnd = getFlag(config, world, "random-respawn.on-return-from-end");
+        this.bedRespawnEnabled = getFlag(config, world, "random-respawn.bed-respawn-enabled");
+        this.onFirstJoin = getFlag(config, world, "random-respawn.on-first-join");
+        this.alwaysOnJoin = getFlag(config, world, "random-respawn.always-on-join");
+    }
+
+    private static boolean getFlag(FileConfiguration config, World world, String path) {
+        return config.getBoolean(checkWorldConfig(config, world, path) + path);
+    }
+
+    /**
+     * Compiles the profile of world from the given config
+     * @param config The plugin config
+     * @param world The world to compile profile of
+     * @return {@link WorldSpawnProfile}
+     */
+    static WorldSpawnProfile compile(FileConfiguration config, World world) {
+        WorldSpawnProfile profile = new WorldSpawnProfile(config, world);
+        LogConsole.info("Compiled spawn profile of world \"{}\" : {}", profile.worldName, profile, LogConsole.logTypes.debug);
+        return profile;
+    }
+
+    /**
+     * Checks if the material should not be used as spawn block (honors invert-block-blacklist)
+     * @param material The material to check
+     * @return {@link boolean} true if blacklisted (or not whitelisted when inverted)
+     */
+    public boolean isSpawnBlocked(Material material) {
+        return materialTable.isSpawnBlocked(material);
+    }
+
+    /**
+     * Checks if the material hurts a player standing in or on it
+     * @param material The material to check
+     * @return {@link boolean}
+     */
+    public boolean isDangerous(Material material) {
+        return materialTable.isDangerous(material);
+    }
+
+    /**
+     * Gets the material classification table of this profile
+     * @return {@link MaterialTable}
+     */
+    public MaterialTable getMaterialTable() {
+        return materialTable;
+    }
+
+    public UUID getWorldId() { return worldId; }
+    public String getWorldName() { return worldName; }
+    public boolean isRandomSpawnDisabled() { return randomSpawnDisabled; }
+    public int getXMin() { return xmin; }
+    public int getXMax() { return xmax; }
+    public int getZMin() { return zmin; }
+    public int getZMax() { return zmax; }
+    public int getFailRadius() { return failRadius; }
+    public int getInvulnerableDuration() { return invulnerableDuration; }
+    public int getPoolSize() { return poolSize; }
+    public int getSearchAttempts() { return searchAttempts; }
+    public int getSearchMillis() { return searchMillis; }
+    public int getSearchChunkLoads() { return searchChunkLoads; }
+    public int getSearchGenerations() { return searchGenerations; }
+    public int getGenerationsPerMinute() { return generationsPerMinute; }
+    public String getRespawnWorld() { return respawnWorld; }
+    public Set<Material> getBlacklistedMaterials() { return blacklistedMaterials; }
+    public boolean isBlacklistInverted() { return blacklistInverted; }
+    public int[] getSearchRadii() { return searchRadii.clone(); }
+    public boolean isOnDeath() { return onDeath; }
+    public boolean isOnReturnFromEnd() { return onReturnFromEnd; }
+    public boolean isBedRespawnEnabled() { return bedRespawnEnabled; }
+    public boolean isOnFirstJoin() { return onFirstJoin; }
+    public boolean isAlwaysOnJoin() { return alwaysOnJoin; }
+
+    /**
+     * Gets the value of an area config variable
+     * @param label Label to get value of (eg: XMin, ZMax..etc)
+     * @return {@link int}
+     */
+    public int getAreaValue(ConfigVariable label) {
+        switch (label) {
+            case XMin: return xmin;
+            case XMax: return xmax;
+            case ZMin: return zmin;
+            case ZMax: return zmax;
+            case FailRadius: return failRadius;
+            case InvulnerableTime: return invulnerableDuration;
+            default:
+                throw new IllegalArgumentException("Not an area value : " + label.configstring);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "area(" + xmin + "," + xmax + "," + zmin + "," + zmax + ")"
+                + " fail-radius=" + failRadius
+                + " invulnerable=" + invulnerableDuration
+                + " budget=" + searchAttempts + "/" + searchMillis + "ms/" + searchChunkLoads
+                + " generations=" + searchGenerations + "/" + generationsPerMinute + "min"
+                + " blacklist=" + blacklistedMaterials + (blacklistInverted ? " (inverted)" : "")
+                + " disabled=" + randomSpawnDisabled;
+    }
+
+}